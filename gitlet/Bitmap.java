@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** A set of small non-negative integers kept as a bit array of 64-bit words,
+ * used to store which objects are reachable from a commit.
+ * On disk a bitmap is compressed the way EWAH does it: a sequence of marker words
+ *  each followed by literal words. A marker holds
+ *  [literal count : 31 bits][run length : 32 bits][run bit : 1 bit]
+ *  meaning "run length words with every bit equal to run bit, then literal count
+ *  words copied as they are", so long stretches of objects that are all reachable
+ *  or all unreachable take a single word.
+ *  @author Samarth Bhutani
+ */
+public class Bitmap {
+
+    /** Largest run length of a marker. */
+    private static final long MAX_RUN = 0xffffffffL;
+    /** Largest literal count of a marker. */
+    private static final int MAX_LITERALS = 0x7fffffff;
+
+    /** The words of the bitmap, bit i of the set being bit i % 64 of word i / 64. */
+    private long[] words;
+    /** Number of words in use. */
+    private int used;
+
+    /** Creates an empty bitmap. */
+    public Bitmap() {
+        this.words = new long[4];
+    }
+
+    /** Creates a bitmap over the given words.
+     * @param words1 the words
+     * @param used1 number of words in use */
+    private Bitmap(long[] words1, int used1) {
+        this.words = words1;
+        this.used = used1;
+    }
+
+    /** Adds I to the set.
+     * @param i a non-negative integer */
+    public void set(int i) {
+        int w = i >>> 6;
+        if (w >= words.length) {
+            words = Arrays.copyOf(words, Math.max(2 * words.length, w + 1));
+        }
+        used = Math.max(used, w + 1);
+        words[w] |= 1L << i;
+    }
+
+    /** Returns true if I is in the set.
+     * @param i a non-negative integer
+     * @return boolean */
+    public boolean get(int i) {
+        int w = i >>> 6;
+        return w < used && (words[w] & (1L << i)) != 0;
+    }
+
+    /** Returns the number of integers in the set.
+     * @return int */
+    public int cardinality() {
+        int n = 0;
+        for (int w = 0; w < used; w += 1) {
+            n += Long.bitCount(words[w]);
+        }
+        return n;
+    }
+
+    /** Returns the next integer in the set from I onwards, or -1.
+     * @param i where to start looking
+     * @return int */
+    public int nextSetBit(int i) {
+        int w = i >>> 6;
+        if (w >= used) {
+            return -1;
+        }
+        long word = words[w] & (-1L << i);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            w += 1;
+            if (w == used) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /** Adds every integer of OTHER to this set.
+     * @param other a bitmap */
+    public void orWith(Bitmap other) {
+        if (other.used > words.length) {
+            words = Arrays.copyOf(words, other.used);
+        }
+        for (int w = 0; w < other.used; w += 1) {
+            words[w] |= other.words[w];
+        }
+        used = Math.max(used, other.used);
+    }
+
+    /** Returns the union of this set and OTHER.
+     * @param other a bitmap
+     * @return Bitmap */
+    public Bitmap or(Bitmap other) {
+        Bitmap result = new Bitmap(Arrays.copyOf(words,
+                Math.max(used, other.used)), used);
+        result.orWith(other);
+        return result;
+    }
+
+    /** Returns the intersection of this set and OTHER.
+     * @param other a bitmap
+     * @return Bitmap */
+    public Bitmap and(Bitmap other) {
+        int n = Math.min(used, other.used);
+        long[] result = new long[Math.max(n, 1)];
+        for (int w = 0; w < n; w += 1) {
+            result[w] = words[w] & other.words[w];
+        }
+        return new Bitmap(result, n);
+    }
+
+    /** Returns the integers of this set which are not in OTHER.
+     * @param other a bitmap
+     * @return Bitmap */
+    public Bitmap andNot(Bitmap other) {
+        long[] result = Arrays.copyOf(words, Math.max(used, 1));
+        for (int w = 0; w < Math.min(used, other.used); w += 1) {
+            result[w] &= ~other.words[w];
+        }
+        return new Bitmap(result, used);
+    }
+
+    /** Returns the compressed form of the bitmap:
+     * [word count : 4 bytes][marker count : 4 bytes] followed by the markers
+     * and literals, see the class comment.
+     * @return byte[] */
+    public byte[] toBytes() {
+        long[] out = new long[2 * used + 1];
+        int n = 0;
+        int w = 0;
+        while (w < used) {
+            long runBit = words[w] == -1L ? 1 : 0;
+            long run = 0;
+            long clean = runBit == 1 ? -1L : 0L;
+            while (w < used && words[w] == clean && run < MAX_RUN) {
+                run += 1;
+                w += 1;
+            }
+            int start = w;
+            while (w < used && words[w] != 0 && words[w] != -1L
+                    && w - start < MAX_LITERALS) {
+                w += 1;
+            }
+            out[n++] = ((long) (w - start) << 33) | (run << 1) | runBit;
+            System.arraycopy(words, start, out, n, w - start);
+            n += w - start;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(8 + 8 * n);
+        buf.putInt(used).putInt(n);
+        for (int i = 0; i < n; i += 1) {
+            buf.putLong(out[i]);
+        }
+        return buf.array();
+    }
+
+    /** Reads a bitmap written by toBytes.
+     * @param in source, positioned at the start of the bitmap
+     * @return Bitmap */
+    public static Bitmap fromBytes(ByteBuffer in) {
+        int used = in.getInt();
+        int n = in.getInt();
+        long[] words = new long[Math.max(used, 1)];
+        int w = 0;
+        for (int i = 0; i < n; i += 1) {
+            long marker = in.getLong();
+            int run = (int) ((marker >>> 1) & MAX_RUN);
+            int literals = (int) (marker >>> 33);
+            if ((marker & 1) == 1) {
+                Arrays.fill(words, w, w + run, -1L);
+            }
+            w += run;
+            for (int k = 0; k < literals; k += 1) {
+                words[w++] = in.getLong();
+            }
+            i += literals;
+        }
+        return new Bitmap(words, used);
+    }
+}
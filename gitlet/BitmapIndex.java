@@ -0,0 +1,332 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** Reachability bitmaps: for selected commits, the set of objects reachable
+ * from them, that is the commit, its ancestors and every blob and tree they refer to.
+ * Every stored object gets a bit position, its rank in sorted order, so
+ *  "reachable from X but not from Y" becomes an andNot of two Bitmaps.
+ * The index is written by the write-bitmaps command into .gitlet/Bitmaps:
+ *  [magic "GBIX"][version : 4 bytes][object count : 4 bytes][bitmap count : 4 bytes]
+ *  [object count sorted sha1 : 20 bytes each]
+ *  then bitmap count entries of [commit sha1 : 20 bytes][Bitmap.toBytes()]
+ * Bitmaps are written for every branch head and for every commit whose
+ *  generation is a multiple of SPAN, so answering for any other commit reads at
+ *  most a few commits before reaching one with a bitmap. Objects stored after the
+ *  index was written have no bit and are kept by name in Reachable instead.
+ *  @author Samarth Bhutani
+ */
+public class BitmapIndex {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47424958;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the header. */
+    private static final int HEADER = 16;
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+    /** Generations between two commits given a bitmap. */
+    private static final int SPAN = 64;
+
+    /** The index of the current repository, mapped on first use. */
+    private static MappedByteBuffer _index;
+    /** Number of objects with a bit. */
+    private static int _objects;
+    /** Offset of the bitmap of every commit which has one. */
+    private static HashMap<String, Integer> _bitmaps;
+    /** The file currently mapped. */
+    private static File _mapped;
+
+    /** The objects reachable from some commits. */
+    public static class Reachable {
+        /** Objects with a bit in the index. */
+        private Bitmap bits = new Bitmap();
+        /** Names of objects stored since the index was written. */
+        private HashSet<String> extra = new HashSet<>();
+
+        /** Adds the object named ID.
+         * @param id sha1 name of an object */
+        void add(String id) {
+            int bit = bitOf(id);
+            if (bit >= 0) {
+                bits.set(bit);
+            } else {
+                extra.add(id);
+            }
+        }
+
+        /** Adds every object of OTHER.
+         * @param other reachable objects */
+        public void addAll(Reachable other) {
+            bits.orWith(other.bits);
+            extra.addAll(other.extra);
+        }
+
+        /** Returns the objects of this set which are not in OTHER.
+         * @param other reachable objects
+         * @return Reachable */
+        public Reachable andNot(Reachable other) {
+            Reachable result = new Reachable();
+            result.bits = bits.andNot(other.bits);
+            result.extra.addAll(extra);
+            result.extra.removeAll(other.extra);
+            return result;
+        }
+
+        /** Returns true if the object named ID is in the set.
+         * @param id sha1 name of an object
+         * @return boolean */
+        public boolean contains(String id) {
+            int bit = bitOf(id);
+            return bit >= 0 ? bits.get(bit) : extra.contains(id);
+        }
+
+        /** Returns the number of objects in the set.
+         * @return int */
+        public int count() {
+            return bits.cardinality() + extra.size();
+        }
+
+        /** Returns the names of the objects in the set.
+         * @return List of sha1 names */
+        public List<String> ids() {
+            ArrayList<String> result = new ArrayList<>(extra);
+            for (int i = bits.nextSetBit(0); i >= 0;
+                 i = bits.nextSetBit(i + 1)) {
+                result.add(idAt(i));
+            }
+            return result;
+        }
+    }
+
+    /** Returns the file of the index.
+     * @return File */
+    private static File file() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "Bitmaps");
+    }
+
+    /** Maps the index of the current repository if it is not mapped yet. */
+    private static void load() {
+        File f = file();
+        if (f.equals(_mapped)) {
+            return;
+        }
+        _mapped = f;
+        _index = null;
+        _objects = 0;
+        _bitmaps = new HashMap<>();
+        if (!f.isFile()) {
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ)) {
+            _index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_index.getInt(0) != MAGIC || _index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("corrupt bitmap index");
+        }
+        _objects = _index.getInt(8);
+        int count = _index.getInt(12);
+        ByteBuffer in = _index.duplicate();
+        in.position(HEADER + _objects * SHA_BYTES);
+        byte[] raw = new byte[SHA_BYTES];
+        for (int n = 0; n < count; n += 1) {
+            in.get(raw);
+            _bitmaps.put(Utils.toHex(raw), in.position());
+            in.position(in.position() + 8 + 8 * in.getInt(in.position() + 4));
+        }
+    }
+
+    /** Unmaps the index, which is mapped again on next use. */
+    static void unload() {
+        _index = null;
+        _mapped = null;
+    }
+
+    /** Returns the bit of the object named ID, or -1 if it has none.
+     * @param id sha1 name of an object
+     * @return int */
+    private static int bitOf(String id) {
+        load();
+        if (_index == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(id);
+        int lo = 0;
+        int hi = _objects - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = 0;
+            for (int k = 0; k < SHA_BYTES && cmp == 0; k += 1) {
+                cmp = (key[k] & 0xff)
+                        - (_index.get(HEADER + mid * SHA_BYTES + k) & 0xff);
+            }
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                hi = mid - 1;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the name of the object with bit I.
+     * @param i a bit of the index
+     * @return String */
+    private static String idAt(int i) {
+        byte[] raw = new byte[SHA_BYTES];
+        _index.get(HEADER + i * SHA_BYTES, raw);
+        return Utils.toHex(raw);
+    }
+
+    /** Returns the objects reachable from the given commits.
+     * Walks the CommitGraph from each commit, reading only commits without
+     *  a bitmap and stopping at those with one.
+     * @param commits sha1 names of stored commits
+     * @return Reachable */
+    public static Reachable reachable(Collection<String> commits) {
+        load();
+        Reachable result = new Reachable();
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (String c : commits) {
+            if (seen.add(CommitGraph.position(c))) {
+                queue.add(CommitGraph.position(c));
+            }
+        }
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            String id = CommitGraph.idAt(c);
+            Integer at = _bitmaps.get(id);
+            if (at != null) {
+                ByteBuffer in = _index.duplicate();
+                in.position(at);
+                result.bits.orWith(Bitmap.fromBytes(in));
+                continue;
+            }
+            result.add(id);
+            for (String object : Commit.getCommit(id).objects()) {
+                result.add(object);
+            }
+            for (int p : CommitGraph.parentsAt(c)) {
+                if (p >= 0 && seen.add(p)) {
+                    queue.add(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Writes the index for every stored object, with bitmaps for
+     * the given branch heads and for every SPAN-th generation,
+     * then prints how many bitmaps were written.
+     * Commits are visited parents first, each read once, and the bitmap of a
+     *  commit is kept in memory only until all its children have been visited.
+     * @param heads sha1 names of the branch heads */
+    public static void write(Collection<String> heads) {
+        List<String> ids = new ArrayList<>(ObjectStore.allIds());
+        Collections.sort(ids);
+        HashMap<String, Integer> bit = new HashMap<>(ids.size() * 4 / 3 + 1);
+        for (int i = 0; i < ids.size(); i += 1) {
+            bit.put(ids.get(i), i);
+        }
+        for (String c : ObjectStore.commitIds()) {
+            CommitGraph.position(c);
+        }
+        int size = CommitGraph.size();
+        int[] children = new int[size];
+        boolean[] selected = new boolean[size];
+        for (int i = 0; i < size; i += 1) {
+            for (int p : CommitGraph.parentsAt(i)) {
+                if (p >= 0) {
+                    children[p] += 1;
+                }
+            }
+            selected[i] = CommitGraph.generation(CommitGraph.idAt(i))
+                    % SPAN == 0;
+        }
+        for (String h : heads) {
+            selected[CommitGraph.position(h)] = true;
+        }
+        HashMap<Integer, Bitmap> live = new HashMap<>();
+        ArrayList<byte[]> entries = new ArrayList<>();
+        int length = 0;
+        for (int i = 0; i < size; i += 1) {
+            String id = CommitGraph.idAt(i);
+            Bitmap b = new Bitmap();
+            setBit(b, bit, id);
+            for (String object : Commit.getCommit(id).objects()) {
+                setBit(b, bit, object);
+            }
+            for (int p : CommitGraph.parentsAt(i)) {
+                if (p >= 0) {
+                    b.orWith(live.get(p));
+                    children[p] -= 1;
+                    if (children[p] == 0) {
+                        live.remove(p);
+                    }
+                }
+            }
+            if (children[i] > 0) {
+                live.put(i, b);
+            }
+            if (selected[i]) {
+                byte[] bytes = b.toBytes();
+                byte[] entry = new byte[SHA_BYTES + bytes.length];
+                Utils.fromHex(id, entry, 0);
+                System.arraycopy(bytes, 0, entry, SHA_BYTES, bytes.length);
+                entries.add(entry);
+                length += entry.length;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + ids.size() * SHA_BYTES
+                + length);
+        out.putInt(MAGIC).putInt(VERSION).putInt(ids.size())
+                .putInt(entries.size());
+        for (String id : ids) {
+            out.put(Utils.fromHex(id));
+        }
+        for (byte[] entry : entries) {
+            out.put(entry);
+        }
+        File tmp = Utils.join(file().getParentFile(), "Bitmaps.tmp");
+        Utils.writeContents(tmp, out.array());
+        _mapped = null;
+        _index = null;
+        if (!tmp.renameTo(file())) {
+            throw new IllegalArgumentException("cannot write bitmap index");
+        }
+        System.out.println("Wrote " + entries.size() + " bitmaps over "
+                + ids.size() + " objects.");
+    }
+
+    /** Sets the bit of the object named ID in B, if it has one.
+     * @param b a bitmap
+     * @param bit bit of every stored object
+     * @param id sha1 name of an object */
+    private static void setBit(Bitmap b, HashMap<String, Integer> bit,
+                               String id) {
+        Integer i = bit.get(id);
+        if (i != null) {
+            b.set(i);
+        }
+    }
+}
@@ -1,7 +1,18 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 /** A Blob class for saving different files.
  * Each file is converted into a blob and the blob in turn is saved
@@ -9,9 +20,37 @@ import java.io.Serializable;
  */
 
 public class Blob implements Serializable {
+
+    /** Fixed so that objects written before this class changed stay readable. */
+    private static final long serialVersionUID = 204856164446109691L;
+    /** Files larger than this are hashed, stored and checked out through
+     * a fixed-size buffer instead of being read into memory. */
+    static final long STREAM_THRESHOLD = 64L << 20;
+    /** Size of the buffer used when streaming a file. */
+    private static final int BUFFER = 1 << 16;
+    /** Header of a blob stored as the raw contents of a streamed file. */
+    private static final byte[] RAW_MAGIC = {'G', 'R', 'A', 'W'};
+    /** Digest of each thread, reset after every use by digest(). */
+    private static final ThreadLocal<MessageDigest> DIGEST =
+            ThreadLocal.withInitial(Blob::newDigest);
+    /** Read buffer of each thread used while hashing. */
+    private static final ThreadLocal<ByteBuffer> BUF =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER));
+    /** Longest chain of deltas a stored blob may sit at the end of. */
+    static final int MAX_DEPTH = 16;
+    /** Total size of the contents kept in the cache of rebuilt blobs. */
+    private static final long CACHE_BYTES = 64L << 20;
+    /** Recently read blobs, least recently used first, so the bases of a
+     * delta chain are not rebuilt again for every blob that uses them. */
+    private static final LinkedHashMap<String, Blob> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size of the contents in CACHE. */
+    private static long _cached;
+
     /** The contents of the file as an array of bytes. */
     private byte[] contents;
-
+    /** Length of the delta chain the blob was rebuilt from, 0 if stored in full. */
+    private transient int depth;
 
     /** Creating a Blob of a File.
      * @param address file
@@ -20,34 +59,290 @@ public class Blob implements Serializable {
         this.contents = Utils.readContents(address);
     }
 
-    /** Creating a Blob after merging 2 blobs.
+    /** Creating a Blob from its contents.
+     * @param contents1 the contents
+     * @param depth1 length of the delta chain it was rebuilt from
+     */
+    Blob(byte[] contents1, int depth1) {
+        this.contents = contents1;
+        this.depth = depth1;
+    }
+
+    /** Creating a Blob after merging 2 blobs, as a conflict over the whole file.
+     * The contents are copied as bytes, see LineMerge.conflictOf.
      * @param a the first blob
      * @param b the second blob
      */
     public Blob(Blob a, Blob b) {
-        String a1 = "";
-        String b1 = "";
-        if (a != null) {
-            a1 = new String(a.contents);
-        }
-        if (b != null) {
-            b1 = new String(b.contents);;
-        }
-        String c1 = "<<<<<<< HEAD\n"
-                + a1
-                + "=======\n"
-                + b1
-                + ">>>>>>>\n";
-        this.contents = c1.getBytes();
+        this.contents = LineMerge.conflictOf(a == null ? null : a.contents,
+                b == null ? null : b.contents);
     }
 
     /** Returns a Blob from Blob folder.
      * @param name name of the blob to be returned
      * @return Blob */
     public static Blob getBlob(String name) {
-        File cwd = new File(System.getProperty("user.dir"));
-        File blobs = Utils.join(cwd, ".gitlet", "Blobs", name);
-        return Utils.readObject(blobs, Blob.class);
+        Blob result = cached(name);
+        if (result != null) {
+            return result;
+        }
+        File raw = ObjectStore.loose(ObjectStore.BLOBS, name);
+        if (isStreamed(raw)) {
+            byte[] all = Utils.readContents(raw);
+            return new Blob(Arrays.copyOfRange(all, RAW_MAGIC.length,
+                    all.length), 0);
+        }
+        Serializable stored = ObjectStore.readObject(ObjectStore.BLOBS,
+                name, Serializable.class);
+        if (stored instanceof DeltaBlob) {
+            DeltaBlob d = (DeltaBlob) stored;
+            Blob base = getBlob(d.getBase());
+            result = new Blob(Delta.apply(base.contents, d.getDelta()),
+                    d.getDepth());
+        } else {
+            result = (Blob) stored;
+        }
+        remember(name, result);
+        return result;
+    }
+
+    /** Returns the blob the stored blob NAME is a delta against, or null if it
+     * is stored in full. Only the start of the stored blob is read, except for
+     *  blobs written with Java serialization by earlier versions.
+     * @param name name of a stored blob
+     * @return String name of the base, or null */
+    static String deltaBase(String name) {
+        byte[] head = ObjectStore.readHead(ObjectStore.BLOBS, name,
+                Codec.DELTA_HEAD);
+        if (Codec.isEncoded(head)) {
+            return Codec.deltaBase(head);
+        }
+        if (head.length >= RAW_MAGIC.length && Arrays.equals(head, 0,
+                RAW_MAGIC.length, RAW_MAGIC, 0, RAW_MAGIC.length)) {
+            return null;
+        }
+        Serializable stored = ObjectStore.readObject(ObjectStore.BLOBS,
+                name, Serializable.class);
+        return stored instanceof DeltaBlob ? ((DeltaBlob) stored).getBase()
+                : null;
+    }
+
+    /** Returns a blob from the cache.
+     * @param name name of the blob
+     * @return Blob or null if it is not cached */
+    private static synchronized Blob cached(String name) {
+        return CACHE.get(name);
+    }
+
+    /** Keeps a blob in the cache, evicting the least recently used ones
+     * once the cache grows over CACHE_BYTES.
+     * @param name name of the blob
+     * @param blob the blob */
+    private static synchronized void remember(String name, Blob blob) {
+        if (blob.contents.length > CACHE_BYTES / 4) {
+            return;
+        }
+        CACHE.put(name, blob);
+        _cached += blob.contents.length;
+        Iterator<Blob> it = CACHE.values().iterator();
+        while (_cached > CACHE_BYTES && it.hasNext()) {
+            _cached -= it.next().contents.length;
+            it.remove();
+        }
+    }
+
+    /** Returns the bytes which come before the contents of a file of the
+     * given length when computing its sha1 name, "blob LENGTH\0".
+     * Blobs are named by their contents alone, not by the way they are stored,
+     *  so a name can be computed incrementally from a stream.
+     * @param length length of the file
+     * @return byte[] */
+    static byte[] hashPrefix(long length) {
+        return ("blob " + length + "\0").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the sha1 name of this blob.
+     * @return String */
+    public String getId() {
+        return Utils.sha1(hashPrefix(contents.length), contents);
+    }
+
+    /** Returns the sha1 name the contents of FILE would have as a blob,
+     * reading it once through a fixed-size buffer.
+     * Nothing is allocated in proportion to the size of the file.
+     * @param file file to be hashed
+     * @return String */
+    public static String hashFile(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MessageDigest md = DIGEST.get();
+            md.update(hashPrefix(in.size()));
+            digest(in, 0, md);
+            return Utils.toHex(md.digest());
+        } catch (IOException exp) {
+            throw new IllegalArgumentException(exp.getMessage());
+        }
+    }
+
+    /** Returns the content name of the stored blob NAME, which differs from
+     * NAME for blobs stored before blobs were named by content, see BlobIds.
+     * Blobs stored raw are hashed as a stream.
+     * @param name name of a stored blob
+     * @return String */
+    static String hashStored(String name) {
+        File raw = ObjectStore.loose(ObjectStore.BLOBS, name);
+        if (!isStreamed(raw)) {
+            return getBlob(name).getId();
+        }
+        try (FileChannel in = FileChannel.open(raw.toPath(),
+                StandardOpenOption.READ)) {
+            MessageDigest md = DIGEST.get();
+            md.update(hashPrefix(in.size() - RAW_MAGIC.length));
+            digest(in, RAW_MAGIC.length, md);
+            return Utils.toHex(md.digest());
+        } catch (IOException exp) {
+            throw new IllegalArgumentException(exp.getMessage());
+        }
+    }
+
+    /** Feeds the bytes of IN from POS to the end into MD
+     * through the buffer of the calling thread.
+     * @param in channel to be read
+     * @param pos position of the first byte
+     * @param md the digest
+     * @throws IOException on read errors */
+    private static void digest(FileChannel in, long pos, MessageDigest md)
+            throws IOException {
+        ByteBuffer buf = BUF.get();
+        buf.clear();
+        int n;
+        while ((n = in.read(buf, pos)) > 0) {
+            md.update(buf.array(), 0, n);
+            pos += n;
+            buf.clear();
+        }
+    }
+
+    /** Returns a new SHA-1 digest.
+     * @return MessageDigest */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Stores a large file as a raw blob in one pass through a fixed-size buffer,
+     * hashing the contents while copying them into the Blobs folder.
+     * Memory use does not depend on the size of the file.
+     * @param file the file to be stored
+     * @return String the sha1 name of the blob */
+    public static String storeStreamed(File file) {
+        File blobs = ObjectStore.dir(ObjectStore.BLOBS);
+        File tmp;
+        MessageDigest md = DIGEST.get();
+        try {
+            tmp = File.createTempFile("stream", null, blobs);
+        } catch (IOException exp) {
+            throw new IllegalArgumentException(exp.getMessage());
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp.toPath(),
+                     StandardOpenOption.WRITE)) {
+            md.update(hashPrefix(in.size()));
+            ByteBuffer buf = ByteBuffer.wrap(RAW_MAGIC);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            buf = ByteBuffer.allocate(BUFFER);
+            while (in.read(buf) > 0) {
+                buf.flip();
+                md.update(buf.array(), 0, buf.limit());
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                buf.clear();
+            }
+        } catch (IOException exp) {
+            tmp.delete();
+            throw new IllegalArgumentException(exp.getMessage());
+        }
+        String name = Utils.toHex(md.digest());
+        if (!ObjectStore.isNew(ObjectStore.BLOBS, name)
+                || !tmp.renameTo(ObjectStore.looseForWrite(ObjectStore.BLOBS,
+                        name))) {
+            tmp.delete();
+        } else {
+            BloomFilter.add(name);
+        }
+        return name;
+    }
+
+    /** Returns true if F holds a blob stored raw by storeStreamed.
+     * @param f loose blob file
+     * @return boolean */
+    private static boolean isStreamed(File f) {
+        if (f.length() <= STREAM_THRESHOLD) {
+            return false;
+        }
+        byte[] head = new byte[RAW_MAGIC.length];
+        try (FileInputStream in = new FileInputStream(f)) {
+            return in.read(head) == head.length
+                    && Arrays.equals(head, RAW_MAGIC);
+        } catch (IOException exp) {
+            return false;
+        }
+    }
+
+    /** Writes the contents of a blob to a file of the working directory.
+     * Blobs stored raw are copied channel to channel without being loaded
+     *  into memory, the others are rebuilt through getBlob.
+     * @param name name of the blob
+     * @param dest file to be created or overwritten */
+    public static void writeTo(String name, File dest) {
+        File raw = ObjectStore.loose(ObjectStore.BLOBS, name);
+        if (!isStreamed(raw)) {
+            Utils.writeContents(dest, getBlob(name).getContent());
+            return;
+        }
+        try (FileChannel in = FileChannel.open(raw.toPath(),
+                StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = RAW_MAGIC.length;
+            long size = in.size();
+            while (pos < size) {
+                pos += in.transferTo(pos, Math.min(size - pos, BUFFER), out);
+            }
+        } catch (IOException exp) {
+            throw new IllegalArgumentException(exp.getMessage());
+        }
+    }
+
+    /** Returns the form in which a new blob is written to the object store.
+     * That is a DeltaBlob against BASE, the previous version of the same file,
+     *  unless BASE is missing, its delta chain is already MAX_DEPTH long
+     *  or the delta would not save at least half of the contents.
+     * @param blob the new blob
+     * @param base name of the previous version, or null
+     * @return Serializable Blob or DeltaBlob */
+    public static Serializable storedForm(Blob blob, String base) {
+        if (base == null
+                || !ObjectStore.contains(ObjectStore.BLOBS, base)) {
+            return blob;
+        }
+        Blob old = getBlob(base);
+        if (old.depth >= MAX_DEPTH) {
+            return blob;
+        }
+        byte[] delta = Delta.create(old.contents, blob.contents);
+        if (delta.length >= blob.contents.length / 2) {
+            return blob;
+        }
+        return new DeltaBlob(base, delta, old.depth + 1);
     }
 
     /** String for saving parent commit.
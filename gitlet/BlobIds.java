@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** Mapping from the names of blobs stored before blobs were named by content
+ * to the content names they would have now.
+ * Blobs used to be named by the sha1 of their serialized form. They are now named by
+ *  the sha1 of "blob LENGTH\0" followed by the contents, see Blob.hashFile.
+ *  Old blobs stay stored and readable under their old names, and this mapping lets
+ *  a file be compared with a blob of either kind without reading the file twice.
+ * The mapping is kept in .gitlet/BlobIds, one "old new" pair per line. Entries are added
+ *  lazily the first time an unknown blob is compared, or for every blob at once by
+ *  the migrate-blob-ids command, which ends the file with a "complete" line.
+ *  Once complete, any name missing from the mapping is a content name.
+ *  @author Samarth Bhutani
+ */
+public class BlobIds {
+
+    /** Line marking that every blob of the repository has been mapped. */
+    private static final String COMPLETE = "complete";
+
+    /** The mapping of the current repository, loaded on first use. */
+    private static HashMap<String, String> _map;
+    /** True if the mapping covers every blob. */
+    private static boolean _complete;
+
+    /** Returns the file holding the mapping.
+     * @return File */
+    private static File file() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "BlobIds");
+    }
+
+    /** Loads the mapping if it is not loaded yet. */
+    private static void load() {
+        if (_map != null) {
+            return;
+        }
+        _map = new HashMap<>();
+        _complete = false;
+        File f = file();
+        if (!f.isFile()) {
+            return;
+        }
+        for (String line : Utils.readContentsAsString(f).split("\n")) {
+            if (line.equals(COMPLETE)) {
+                _complete = true;
+            } else if (line.length() == 2 * Utils.UID_LENGTH + 1) {
+                _map.put(line.substring(0, Utils.UID_LENGTH),
+                        line.substring(Utils.UID_LENGTH + 1));
+            }
+        }
+    }
+
+    /** Drops the mapping held in memory, so it is read again on next use. */
+    static synchronized void unload() {
+        _map = null;
+    }
+
+    /** Appends LINES to the mapping file.
+     * @param lines lines without their newline */
+    private static void append(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        try {
+            Files.write(file().toPath(),
+                    text.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Starts an empty, complete mapping for a new repository,
+     * which only ever holds blobs named by content. */
+    public static void create() {
+        Utils.writeContents(file(), COMPLETE + "\n");
+        _map = null;
+    }
+
+    /** Returns the content name of a stored blob, which is NAME itself
+     * for blobs stored since blobs are named by content.
+     * @param name name of a stored blob
+     * @return String */
+    public static synchronized String contentId(String name) {
+        load();
+        String mapped = _map.get(name);
+        if (mapped != null) {
+            return mapped;
+        }
+        if (_complete || !ObjectStore.contains(ObjectStore.BLOBS, name)) {
+            return name;
+        }
+        String id = Blob.hashStored(name);
+        _map.put(name, id);
+        ArrayList<String> line = new ArrayList<>();
+        line.add(name + " " + id);
+        append(line);
+        return id;
+    }
+
+    /** Returns true if the stored blob NAME has the contents named ID.
+     * Unlike sameContent this never reads the blob named ID.
+     * @param name name of a stored blob, old or new, or null
+     * @param id content name of a blob
+     * @return boolean */
+    public static boolean matches(String name, String id) {
+        return name != null && (name.equals(id) || contentId(name).equals(id));
+    }
+
+    /** Returns true if two blob names, old or new, denote the same contents.
+     * @param a name of a blob, or null
+     * @param b name of a blob, or null
+     * @return boolean */
+    public static boolean sameContent(String a, String b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.equals(b) || contentId(a).equals(contentId(b));
+    }
+
+    /** Maps every stored blob, loose or packed, to its content name
+     * and marks the mapping complete. Prints the number of old names found. */
+    public static void migrate() {
+        load();
+        ArrayList<String> names = new ArrayList<>(Pack.ids(Pack.BLOB));
+        names.addAll(ObjectStore.looseIds(ObjectStore.BLOBS));
+        ArrayList<String> lines = new ArrayList<>();
+        for (String name : names) {
+            if (_map.containsKey(name)) {
+                continue;
+            }
+            String id = Blob.hashStored(name);
+            if (!id.equals(name)) {
+                _map.put(name, id);
+                lines.add(name + " " + id);
+            }
+        }
+        int mapped = lines.size();
+        if (!_complete) {
+            lines.add(COMPLETE);
+            _complete = true;
+        }
+        append(lines);
+        System.out.println("Mapped " + mapped + " blob ids.");
+    }
+}
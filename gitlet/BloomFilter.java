@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/** An on-disk Bloom filter over the names of every stored commit and blob.
+ * It answers "definitely not stored" without touching the object store,
+ *  so new objects can be written without an exists() call on the folders
+ *  or a lookup in the pack. A "maybe stored" answer still has to be checked.
+ * The filter lives in .gitlet/ObjectFilter and is memory-mapped:
+ *  [magic "GBLM"][hashes : 4 bytes][bits : 8 bytes][count : 8 bytes][bit array]
+ *  Bit positions come from double hashing of the first 16 bytes of the sha1.
+ *  When count outgrows the bit array the filter is rebuilt twice as large
+ *  from the object store, and it is rebuilt as well if the file is missing.
+ *  @author Samarth Bhutani
+ */
+public class BloomFilter {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47424c4d;
+    /** Size of the header in bytes. */
+    private static final int HEADER = 24;
+    /** Number of bits set for every object. */
+    private static final int HASHES = 7;
+    /** Bits per object, giving about 1% false positives with HASHES. */
+    private static final int BITS_PER_OBJECT = 10;
+    /** Size of the smallest bit array. */
+    private static final long MIN_BITS = 1L << 16;
+
+    /** Bit array of the current repository, with the header. */
+    private static MappedByteBuffer _filter;
+    /** Number of bits in _filter. */
+    private static long _bits;
+    /** The file currently mapped. */
+    private static File _mapped;
+
+    /** Returns the file of the filter.
+     * @return File */
+    private static File file() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "ObjectFilter");
+    }
+
+    /** Maps the filter, building it first if it does not exist. */
+    private static void load() {
+        File f = file();
+        if (_filter != null && f.equals(_mapped)) {
+            return;
+        }
+        if (!f.isFile()) {
+            rebuild(0);
+            return;
+        }
+        map(f);
+    }
+
+    /** Unmaps the filter, which is mapped again on next use, in case
+     * another process rebuilt it. */
+    static synchronized void unload() {
+        _filter = null;
+        _mapped = null;
+    }
+
+    /** Maps the file F.
+     * @param f the filter file */
+    private static void map(File f) {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            _filter = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    0, raf.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_filter.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("corrupt object filter");
+        }
+        _bits = _filter.getLong(8);
+        _mapped = f;
+    }
+
+    /** Writes a new filter holding every stored object, sized for at least
+     * MINIMUM objects, and maps it.
+     * @param minimum number of objects the filter must have room for */
+    private static synchronized void rebuild(long minimum) {
+        List<String> ids = ObjectStore.allIds();
+        long objects = Math.max(minimum, 2L * ids.size());
+        long bits = MIN_BITS;
+        while (bits < objects * BITS_PER_OBJECT) {
+            bits <<= 1;
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + (int) (bits / 8));
+        out.putInt(MAGIC).putInt(HASHES).putLong(bits).putLong(0);
+        _filter = null;
+        _bits = bits;
+        for (String id : ids) {
+            set(out, id);
+        }
+        out.putLong(16, ids.size());
+        File tmp = Utils.join(file().getParentFile(), "ObjectFilter.tmp");
+        Utils.writeContents(tmp, out.array());
+        if (!tmp.renameTo(file())) {
+            throw new IllegalArgumentException("cannot write object filter");
+        }
+        map(file());
+    }
+
+    /** Sets the bits of ID in BUF.
+     * @param buf the filter with its header
+     * @param id sha1 name of an object */
+    private static void set(ByteBuffer buf, String id) {
+        long[] h = hashes(id);
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Math.floorMod(h[0] + i * h[1], _bits);
+            int at = HEADER + (int) (bit >>> 3);
+            buf.put(at, (byte) (buf.get(at) | (1 << (bit & 7))));
+        }
+    }
+
+    /** Returns the two base hashes of ID.
+     * @param id sha1 name of an object
+     * @return long[] */
+    private static long[] hashes(String id) {
+        ByteBuffer raw = ByteBuffer.wrap(Utils.fromHex(id));
+        return new long[] {raw.getLong(0), raw.getLong(8) | 1};
+    }
+
+    /** Returns false if ID is definitely not stored.
+     * @param id sha1 name of an object
+     * @return boolean */
+    public static synchronized boolean mightContain(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return true;
+        }
+        load();
+        long[] h = hashes(id);
+        for (int i = 0; i < HASHES; i += 1) {
+            long bit = Math.floorMod(h[0] + i * h[1], _bits);
+            if ((_filter.get(HEADER + (int) (bit >>> 3))
+                    & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Records that ID is stored.
+     * @param id sha1 name of an object */
+    public static synchronized void add(String id) {
+        load();
+        long count = _filter.getLong(16) + 1;
+        if (count * BITS_PER_OBJECT > _bits) {
+            rebuild(2 * count);
+            return;
+        }
+        set(_filter, id);
+        _filter.putLong(16, count);
+    }
+}
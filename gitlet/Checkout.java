@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Moves the working directory from the files of one commit to those of another,
+ * as done by checkout of a branch, reset and merge.
+ * Only the differences between the two commits are applied: files tracked by the
+ *  first commit and not by the second are deleted, and files whose blob differs
+ *  between the two are written. Files with the same blob in both commits are not
+ *  touched, so switching between commits which differ in one file writes one file,
+ *  and between commits with trees, folders with the same tree are not even read,
+ *  see Commit.diff.
+ * A file renamed between the two commits with the same blob, see Renames.exact, is
+ *  moved to its new name instead of being written again, if it is unchanged in the
+ *  working directory.
+ * The writes run in parallel on at most THREADS threads.
+ * If metrics are asked for, see Utils.metrics, the number of files written, moved
+ *  and deleted and the bytes written are reported on standard error.
+ *  @author Samarth Bhutani
+ */
+public class Checkout {
+
+    /** Largest number of threads writing files, twice the number of processors
+     * so that threads waiting on the disk leave the processors busy. */
+    private static final int THREADS =
+            2 * Runtime.getRuntime().availableProcessors();
+
+    /** The working directory. */
+    private final File cwd;
+    /** Files to be written which the commit checked out so far does not track. */
+    private final HashSet<String> added = new HashSet<>();
+    /** Files to be written : blob. */
+    private final HashMap<String, String> writes = new HashMap<>();
+    /** Files to be deleted. */
+    private final ArrayList<String> deletes = new ArrayList<>();
+    /** Files to be written which may be moved from a file to be deleted
+     * instead : file to be deleted. */
+    private final Map<String, String> moves;
+    /** Number of files moved. */
+    private int moved;
+
+    /** Computes the changes taking the working directory from FROM to TO.
+     * @param from the commit checked out so far
+     * @param to the commit to be checked out */
+    public Checkout(Commit from, Commit to) {
+        this.cwd = new File(System.getProperty("user.dir"));
+        Map<String, String[]> changes = Commit.diff(from, to);
+        this.moves = Renames.exact(changes);
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            String old = e.getValue()[0];
+            String blob = e.getValue()[1];
+            if (blob == null) {
+                deletes.add(e.getKey());
+            } else if (!BlobIds.sameContent(old, blob)) {
+                writes.put(e.getKey(), blob);
+                if (old == null) {
+                    added.add(e.getKey());
+                }
+            }
+        }
+    }
+
+    /** Returns true if a file of the working directory which is not tracked
+     * by the commit checked out so far would be overwritten.
+     * @return boolean */
+    public boolean overwritesUntracked() {
+        for (String name : added) {
+            if (Utils.join(cwd, name).exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Moves, deletes and writes the files, and records them in the StatCache. */
+    public void run() {
+        long start = System.nanoTime();
+        for (Map.Entry<String, String> m : moves.entrySet()) {
+            if (move(m.getValue(), m.getKey(), writes.get(m.getKey()))) {
+                writes.remove(m.getKey());
+                moved += 1;
+            }
+        }
+        for (String name : deletes) {
+            File f = Utils.join(cwd, name);
+            f.delete();
+            StatCache.forget(name);
+            for (File dir = f.getParentFile(); !dir.equals(cwd)
+                    && dir.delete(); dir = dir.getParentFile()) {
+                continue;
+            }
+        }
+        AtomicLong bytes = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(THREADS, writes.size())));
+        try {
+            ArrayList<Future<?>> done = new ArrayList<>();
+            for (Map.Entry<String, String> e : writes.entrySet()) {
+                done.add(pool.submit(() -> {
+                    File k = Utils.join(cwd, e.getKey());
+                    k.getParentFile().mkdirs();
+                    Blob.writeTo(e.getValue(), k);
+                    StatCache.record(e.getKey(), k, e.getValue());
+                    bytes.addAndGet(k.length());
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        StatCache.save();
+        if (Utils.metrics()) {
+            System.err.println("checkout: " + writes.size()
+                    + " files written, " + moved + " moved, "
+                    + (deletes.size() - moved) + " deleted, "
+                    + bytes.get() + " bytes written in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+    }
+
+    /** Moves the file SOURCE of the working directory to DEST if it still
+     * holds BLOB, as its stat data shows without reading it. The blob recorded
+     * for SOURCE may be named the other way, old or by content, from BLOB.
+     * @param source file to be deleted
+     * @param dest file to be written
+     * @param blob blob of both files
+     * @return boolean true if the file was moved */
+    private boolean move(String source, String dest, String blob) {
+        File src = Utils.join(cwd, source);
+        File dst = Utils.join(cwd, dest);
+        if (blob == null || dst.exists()
+                || !BlobIds.sameContent(blob, StatCache.lookup(source, src))) {
+            return false;
+        }
+        try {
+            dst.getParentFile().mkdirs();
+            Files.move(src.toPath(), dst.toPath());
+        } catch (IOException excp) {
+            return false;
+        }
+        StatCache.forget(source);
+        StatCache.record(dest, dst, blob);
+        return true;
+    }
+}
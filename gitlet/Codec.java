@@ -0,0 +1,537 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** A compact binary encoding of the objects gitlet stores, used instead of
+ * Java serialization. Every encoded object starts with the header
+ *  [magic "GL" : 2 bytes][version : 1 byte][type : 1 byte]
+ * followed by
+ *  Commit       : [message][timestamp][parent][refs], or [message][timestamp][parent][tree]
+ *  MergeCommit  : [message][timestamp][parent][parent2][refs], or with [tree] likewise
+ *  Blob         : [length : 8 bytes][contents]
+ *  DeltaBlob    : [base][depth : 4 bytes][length : 4 bytes][delta]
+ *  StagedObject : [count : 4 bytes] and count entries [file name][blob or 0 for a removal]
+ *  Tree         : [refs] of its files followed by [refs] of its sub-folders and their trees
+ * Strings are [length : 4 bytes][UTF-8 bytes], a timestamp is 8 bytes of milliseconds,
+ *  a hash is [1][20 raw bytes] or [0] when absent, and refs are [count : 4 bytes]
+ *  followed by [file name][blob : 20 raw bytes] sorted by file name,
+ *  so equal objects always encode to the same bytes.
+ * Commits with a tree have their own types, and only hold the name of the root tree.
+ * Objects written with Java serialization by earlier versions are still read
+ *  by Utils.deserialize, which only hands data starting with the magic to this class.
+ *  @author Samarth Bhutani
+ */
+public class Codec {
+
+    /** First byte of the magic. */
+    private static final byte MAGIC_0 = 'G';
+    /** Second byte of the magic. */
+    private static final byte MAGIC_1 = 'L';
+    /** Version of the encoding. */
+    private static final byte VERSION = 1;
+    /** Size of the header. */
+    private static final int HEADER = 4;
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+    /** Typical length of a file name, to size the output of refs at once. */
+    private static final int REF_GUESS = 32;
+    /** Number of bytes at the start of an encoded DeltaBlob which name its base. */
+    static final int DELTA_HEAD = HEADER + 1 + SHA_BYTES;
+    /** Timestamp written for a commit without one. */
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    /** Type of a Commit. */
+    private static final byte COMMIT = 1;
+    /** Type of a MergeCommit. */
+    private static final byte MERGE_COMMIT = 2;
+    /** Type of a Blob. */
+    private static final byte BLOB = 3;
+    /** Type of a DeltaBlob. */
+    private static final byte DELTA_BLOB = 4;
+    /** Type of a StagedObject. */
+    private static final byte STAGED_OBJECT = 5;
+    /** Type of a Tree. */
+    private static final byte TREE = 6;
+    /** Type of a Commit with a tree. */
+    private static final byte TREE_COMMIT = 7;
+    /** Type of a MergeCommit with a tree. */
+    private static final byte TREE_MERGE_COMMIT = 8;
+
+    /** Returns true if OBJ is one of the classes this encoding covers.
+     * @param obj object to be written
+     * @return boolean */
+    static boolean supports(Serializable obj) {
+        return obj instanceof Commit || obj instanceof Blob
+                || obj instanceof DeltaBlob || obj instanceof StagedObject
+                || obj instanceof Tree;
+    }
+
+    /** Returns true if DATA was written by encode.
+     * @param data stored bytes
+     * @return boolean */
+    static boolean isEncoded(byte[] data) {
+        return data.length >= HEADER && data[0] == MAGIC_0
+                && data[1] == MAGIC_1;
+    }
+
+    /** Returns the bytes which come before the contents in the encoding of
+     * a Blob of the given length, so a file can be hashed without building the Blob.
+     * @param length length of the contents
+     * @return byte[] */
+    static byte[] blobPrefix(long length) {
+        return ByteBuffer.allocate(HEADER + 8)
+                .put(MAGIC_0).put(MAGIC_1).put(VERSION).put(BLOB)
+                .putLong(length).array();
+    }
+
+    /** Encodes an object.
+     * @param obj a Commit, MergeCommit, Blob, DeltaBlob, StagedObject or Tree
+     * @return byte[] */
+    static byte[] encode(Serializable obj) {
+        if (obj instanceof Blob) {
+            byte[] contents = ((Blob) obj).getContent();
+            byte[] prefix = blobPrefix(contents.length);
+            byte[] result = new byte[prefix.length + contents.length];
+            System.arraycopy(prefix, 0, result, 0, prefix.length);
+            System.arraycopy(contents, 0, result, prefix.length,
+                    contents.length);
+            return result;
+        }
+        Output out = new Output();
+        out.put(MAGIC_0).put(MAGIC_1).put(VERSION);
+        if (obj instanceof Commit) {
+            encodeCommit(out, (Commit) obj);
+        } else if (obj instanceof DeltaBlob) {
+            DeltaBlob d = (DeltaBlob) obj;
+            out.put(DELTA_BLOB);
+            writeHash(out, d.getBase());
+            out.putInt(d.getDepth()).putInt(d.getDelta().length)
+                    .put(d.getDelta());
+        } else if (obj instanceof StagedObject) {
+            out.put(STAGED_OBJECT);
+            HashMap<String, String> items =
+                    ((StagedObject) obj).getStagedItems();
+            out.putInt(items.size());
+            for (Map.Entry<String, String> e : sorted(items)) {
+                writeString(out, e.getKey());
+                String blob = e.getValue();
+                writeHash(out, blob.isEmpty() ? null : blob);
+            }
+        } else if (obj instanceof Tree) {
+            out.put(TREE);
+            writeRefs(out, ((Tree) obj).getBlobs());
+            writeRefs(out, ((Tree) obj).getTrees());
+        } else {
+            throw new IllegalArgumentException("cannot encode "
+                    + obj.getClass().getName());
+        }
+        return out.toByteArray();
+    }
+
+    /** Writes the fields of a Commit or MergeCommit after the version byte.
+     * A commit with a tree must have written it, see Commit.writeTree.
+     * @param out destination
+     * @param c the commit */
+    private static void encodeCommit(Output out, Commit c) {
+        boolean merge = c instanceof MergeCommit;
+        boolean tree = c.getTree() != null;
+        if (tree && c.hasPendingRefs()) {
+            throw new IllegalArgumentException("tree of commit not written");
+        }
+        if (tree) {
+            out.put(merge ? TREE_MERGE_COMMIT : TREE_COMMIT);
+        } else {
+            out.put(merge ? MERGE_COMMIT : COMMIT);
+        }
+        writeString(out, c.getMessage());
+        out.putLong(c.getTimestamp() == null
+                ? NO_TIME : c.getTimestamp().getTime());
+        writeHash(out, c.getParent());
+        if (merge) {
+            writeHash(out, ((MergeCommit) c).getParent2());
+        }
+        if (tree) {
+            out.putHex(c.getTree());
+        } else {
+            writeRefs(out, c.getRefs());
+        }
+    }
+
+    /** Writes file names and sha1 names sorted by file name.
+     * The refs of a Tree are kept sorted and are written in their own order.
+     * @param out destination
+     * @param refs file name : sha1 name */
+    private static void writeRefs(Output out, Map<String, String> refs) {
+        out.putInt(refs.size());
+        out.reserve(refs.size() * (4 + REF_GUESS + SHA_BYTES));
+        for (Map.Entry<String, String> e : sorted(refs)) {
+            writeString(out, e.getKey());
+            out.putHex(e.getValue());
+        }
+    }
+
+    /** Reads file names and sha1 names written by writeRefs.
+     * @param in source
+     * @param refs map the names are put into */
+    private static void readRefs(ByteBuffer in, Map<String, String> refs) {
+        byte[] raw = new byte[SHA_BYTES];
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String name = readString(in);
+            in.get(raw);
+            refs.put(name, Utils.toHex(raw));
+        }
+    }
+
+    /** Reads file names and sha1 names written by writeRefs into a TreeMap.
+     * They were written sorted, so the TreeMap is built from them at once
+     * instead of by one put each, unless they turn out not to be sorted.
+     * @param in source
+     * @return TreeMap file name : sha1 name */
+    private static TreeMap<String, String> readSortedRefs(ByteBuffer in) {
+        int count = in.getInt(in.position());
+        SortedRefs read = new SortedRefs(count);
+        readRefs(in, read);
+        TreeMap<String, String> result = new TreeMap<>();
+        if (read.sorted) {
+            result.putAll(read);
+        } else {
+            for (Map.Entry<String, String> e : read.entries) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the base of an encoded DeltaBlob from the first DELTA_HEAD bytes
+     * of its encoding, so the rest of it need not be read.
+     * @param head start of stored bytes written by encode
+     * @return String sha1 name of the base, or null if HEAD is not the start
+     *  of a DeltaBlob */
+    static String deltaBase(byte[] head) {
+        if (head.length < DELTA_HEAD || !isEncoded(head)
+                || head[3] != DELTA_BLOB) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(head);
+        in.position(HEADER);
+        return readHash(in);
+    }
+
+    /** Decodes an object written by encode.
+     * @param data stored bytes starting with the magic
+     * @return Serializable the decoded object */
+    static Serializable decode(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        in.position(2);
+        if (in.get() != VERSION) {
+            throw new IllegalArgumentException("unknown object version");
+        }
+        byte type = in.get();
+        switch (type) {
+        case BLOB:
+            int length = (int) in.getLong();
+            byte[] contents = new byte[length];
+            in.get(contents);
+            return new Blob(contents, 0);
+        case DELTA_BLOB:
+            String base = readHash(in);
+            int depth = in.getInt();
+            byte[] delta = new byte[in.getInt()];
+            in.get(delta);
+            return new DeltaBlob(base, delta, depth);
+        case STAGED_OBJECT:
+            HashMap<String, String> items = new HashMap<>();
+            for (int n = in.getInt(); n > 0; n -= 1) {
+                String name = readString(in);
+                String blob = readHash(in);
+                items.put(name, blob == null ? "" : blob);
+            }
+            return new StagedObject(items);
+        case TREE:
+            TreeMap<String, String> blobs = readSortedRefs(in);
+            TreeMap<String, String> trees = readSortedRefs(in);
+            return new Tree(blobs, trees);
+        case COMMIT:
+        case MERGE_COMMIT:
+        case TREE_COMMIT:
+        case TREE_MERGE_COMMIT:
+            return decodeCommit(in, type);
+        default:
+            throw new IllegalArgumentException("unknown object type " + type);
+        }
+    }
+
+    /** Decodes the fields of a Commit or MergeCommit after the type byte.
+     * @param in source
+     * @param type type of the commit
+     * @return Commit */
+    private static Commit decodeCommit(ByteBuffer in, byte type) {
+        boolean merge = type == MERGE_COMMIT || type == TREE_MERGE_COMMIT;
+        String message = readString(in);
+        long time = in.getLong();
+        Date timestamp = time == NO_TIME ? null : new Date(time);
+        String parent = readHash(in);
+        String parent2 = merge ? readHash(in) : null;
+        if (type == TREE_COMMIT || type == TREE_MERGE_COMMIT) {
+            byte[] raw = new byte[SHA_BYTES];
+            in.get(raw);
+            String tree = Utils.toHex(raw);
+            if (merge) {
+                return new MergeCommit(message, timestamp, parent, parent2,
+                        tree);
+            }
+            return new Commit(message, timestamp, parent, tree);
+        }
+        int count = in.getInt(in.position());
+        HashMap<String, String> refs = new HashMap<>(count * 4 / 3 + 1);
+        readRefs(in, refs);
+        PersistentMap<String, String> files = PersistentMap.of(refs);
+        if (merge) {
+            return new MergeCommit(message, timestamp, parent, parent2, files);
+        }
+        return new Commit(message, timestamp, parent, files);
+    }
+
+    /** Returns the entries of MAP in the order of their keys, which is the
+     * order of MAP itself if it is a SortedMap in the natural order.
+     * @param map file name : blob name
+     * @return Collection of entries */
+    private static Collection<Map.Entry<String, String>> sorted(
+            Map<String, String> map) {
+        if (map instanceof SortedMap
+                && ((SortedMap<String, String>) map).comparator() == null) {
+            return map.entrySet();
+        }
+        ArrayList<Map.Entry<String, String>> entries =
+                new ArrayList<>(map.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        return entries;
+    }
+
+    /** Writes a length-prefixed UTF-8 string.
+     * @param out destination
+     * @param s the string */
+    private static void writeString(Output out, String s) {
+        out.putString(s);
+    }
+
+    /** Reads a length-prefixed UTF-8 string.
+     * @param in source
+     * @return String */
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.position(), length,
+                StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /** Writes an optional sha1 as a presence byte and its 20 raw bytes.
+     * @param out destination
+     * @param id sha1 name, or null */
+    private static void writeHash(Output out, String id) {
+        if (id == null) {
+            out.put((byte) 0);
+        } else {
+            out.put((byte) 1).putHex(id);
+        }
+    }
+
+    /** Reads an optional sha1 written by writeHash.
+     * @param in source
+     * @return String sha1 name, or null */
+    private static String readHash(ByteBuffer in) {
+        if (in.get() == 0) {
+            return null;
+        }
+        byte[] raw = new byte[SHA_BYTES];
+        in.get(raw);
+        return Utils.toHex(raw);
+    }
+
+    /** Refs in the order they were read, seen as a SortedMap, from which
+     * TreeMap.putAll builds a tree in linear time. Only the methods putAll
+     * uses are supported. */
+    private static class SortedRefs extends AbstractMap<String, String>
+            implements SortedMap<String, String> {
+        /** The refs read. */
+        private final ArrayList<Map.Entry<String, String>> entries;
+        /** True while every name read is greater than the one before. */
+        private boolean sorted = true;
+
+        /** Creates an empty list of refs.
+         * @param count number of refs expected */
+        SortedRefs(int count) {
+            this.entries = new ArrayList<>(Math.max(0, count));
+        }
+
+        @Override
+        public String put(String name, String id) {
+            if (!entries.isEmpty() && entries.get(entries.size() - 1)
+                    .getKey().compareTo(name) >= 0) {
+                sorted = false;
+            }
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(name, id));
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return entries.iterator();
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        @Override
+        public String firstKey() {
+            return entries.get(0).getKey();
+        }
+
+        @Override
+        public String lastKey() {
+            return entries.get(entries.size() - 1).getKey();
+        }
+
+        @Override
+        public SortedMap<String, String> subMap(String from, String to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<String, String> headMap(String to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<String, String> tailMap(String from) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** A growable byte array, cheaper than a DataOutputStream
+     * over a ByteArrayOutputStream which synchronizes on every byte. */
+    private static class Output {
+        /** The bytes written so far, followed by free space. */
+        private byte[] buf = new byte[256];
+        /** Number of bytes written. */
+        private int len;
+
+        /** Makes room for N more bytes.
+         * @param n number of bytes about to be written */
+        private void reserve(int n) {
+            if (len + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + n));
+            }
+        }
+
+        /** Writes a byte.
+         * @param b the byte
+         * @return this */
+        Output put(byte b) {
+            reserve(1);
+            buf[len++] = b;
+            return this;
+        }
+
+        /** Writes bytes.
+         * @param b the bytes
+         * @return this */
+        Output put(byte[] b) {
+            reserve(b.length);
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+            return this;
+        }
+
+        /** Writes a big-endian int.
+         * @param v the int
+         * @return this */
+        Output putInt(int v) {
+            reserve(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[len++] = (byte) (v >>> shift);
+            }
+            return this;
+        }
+
+        /** Writes a big-endian long.
+         * @param v the long
+         * @return this */
+        Output putLong(long v) {
+            reserve(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[len++] = (byte) (v >>> shift);
+            }
+            return this;
+        }
+
+        /** Writes the length of the UTF-8 bytes of S and those bytes, copying
+         * ASCII strings directly rather than encoding them first.
+         * @param s the string
+         * @return this */
+        Output putString(String s) {
+            int n = s.length();
+            reserve(4 + n);
+            for (int i = 0; i < n; i += 1) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+                    return putInt(utf.length).put(utf);
+                }
+                buf[len + 4 + i] = (byte) c;
+            }
+            putInt(n);
+            len += n;
+            return this;
+        }
+
+        /** Writes the raw bytes of a hexadecimal sha1 name.
+         * @param id sha1 name
+         * @return this */
+        Output putHex(String id) {
+            reserve(SHA_BYTES);
+            Utils.fromHex(id, buf, len);
+            len += SHA_BYTES;
+            return this;
+        }
+
+        /** Returns the bytes written.
+         * @return byte[] */
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+}
@@ -1,27 +1,64 @@
 package gitlet;
 
-import java.io.File;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /** A commit class for saving different commits.
- * A commit consists of a message, date, parent and hashmap with references to files:blobs
+ * A commit consists of a message, date, parent and map with references to files:blobs
+ * Commits made since trees were introduced only hold the name of their root Tree,
+ *  share it with their parent until files are put or removed, and write only the
+ *  trees along the changed paths, see writeTree. Their map is built from the
+ *  trees the first time getRefs is called, and getRef reads only the trees along one path.
+ * The map is a PersistentMap, which a new commit shares with the commit it is made
+ *  from, so putting or removing a file copies O(log n) nodes instead of every ref.
  *  @author Samarth Bhutani
  */
 public class Commit implements Serializable {
 
+    /** Fixed so that objects written before this class changed stay readable. */
+    private static final long serialVersionUID = 7042929279634057344L;
+    /** Largest total weight of the commits kept in the cache. */
+    private static final long CACHE_WEIGHT = 1 << 18;
+    /** Recently read commits, least recently used first. Commits are named by
+     * their contents, so a cached commit never goes stale. */
+    private static final LinkedHashMap<String, Commit> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of the commits in CACHE, see weight. */
+    private static long _cachedWeight;
+    /** Number of commits found in the cache. */
+    private static long _hits;
+    /** Number of commits read from the object store. */
+    private static long _misses;
+
     /** The message associated with the commit. */
     private String message;
     /** The time and date at which the commit was made. */
     private Date timestamp;
     /** The sha1 name of the parent commit. */
     private String parent;
-    /** A Hashmap which contains the file name : blob name */
+    /** The file name : blob name of a commit read from an object written with
+     * Java serialization, which are moved to files by getRefs. */
     private HashMap<String, String> refs;
+    /** The file name : blob name, or null until getRefs is called
+     * for a commit with a tree or read with Java serialization. */
+    private transient PersistentMap<String, String> files;
+    /** The sha1 name of the root Tree, or null for commits which keep all their refs. */
+    private String tree;
+    /** Files put or removed since the tree was written : blob name, or null for a removal. */
+    private transient TreeMap<String, String> pending;
+    /** Weight the commit is counted with in CACHE, or 0 if it is not cached. */
+    private transient long counted;
 
     /** Creates a commit for the first time without a parent .
      * @param message1 message associated with the commit.
@@ -32,83 +69,173 @@ public class Commit implements Serializable {
         if (this.parent == null) {
             this.timestamp = new Date(0);
         }
-        this.refs = new HashMap<>();
+        this.files = PersistentMap.empty();
+    }
+
+    /** Creates a commit from decoded fields, see Codec.
+     * @param message1 message associated with the commit
+     * @param timestamp1 time at which the commit was made
+     * @param parent1 name of the parent of that commit
+     * @param files1 file name : blob name */
+    Commit(String message1, Date timestamp1, String parent1,
+           PersistentMap<String, String> files1) {
+        this.message = message1;
+        this.timestamp = timestamp1;
+        this.parent = parent1;
+        this.files = files1;
+    }
+
+    /** Creates a commit with a tree from decoded fields, see Codec.
+     * @param message1 message associated with the commit
+     * @param timestamp1 time at which the commit was made
+     * @param parent1 name of the parent of that commit
+     * @param tree1 name of the root tree */
+    Commit(String message1, Date timestamp1, String parent1, String tree1) {
+        this.message = message1;
+        this.timestamp = timestamp1;
+        this.parent = parent1;
+        this.tree = tree1;
     }
 
     /** Creates a new commit from a previous commit.
+     * The new commit shares the tree and the map of files of the old commit
+     *  and copies only the files put or removed since its tree was written.
      * @param old the old commit which is generally copied and then edited.
      * @param message1 the message associated with this new commit.
      * @param parent1 sha1 name of the parent of this new commit*/
     public Commit(Commit old, String message1, String parent1) {
         this.message = message1;
         this.parent = parent1;
-        if (old.refs == null) {
-            this.refs = new HashMap<>();
+        if (old.tree != null) {
+            this.tree = old.tree;
+            this.files = old.files;
+            this.pending = new TreeMap<>();
+            if (old.pending != null) {
+                this.pending.putAll(old.pending);
+            }
         } else {
-            this.refs = new HashMap<>();
-            this.refs.putAll(old.refs);
+            old.getRefs();
+            this.files = old.files;
         }
         this.timestamp = new Date();
 
     }
 
     /** Finds the splitting point when given the name of the current commit and another commit in separate branches.
+     * The search runs over the CommitGraph and does not read any commit.
      * @param curr name of the current commit or commit1.
      * @param given name of the given commit or commit2.
      * @return String name of commit where the two commits from different branches split off*/
     public static String findSplit(String curr, String given) {
-
-        File cwd = new File(System.getProperty("user.dir"));
-        ArrayList<String> tab = new ArrayList<>();
-        tab = fillTab(tab, given);
-        if (tab.contains(curr)) {
+        String split = CommitGraph.mergeBase(curr, given);
+        if (curr.equals(split)) {
             System.out.println("Current branch fast-forwarded.");
         }
-        File commitOldAddress;
-        Commit ans;
-        do {
-            commitOldAddress = Utils.join(cwd, ".gitlet", "Commits", curr);
-            ans = Utils.readObject(commitOldAddress, Commit.class);
-            if (tab.get(0).compareTo(curr) == 0) {
-                String k = "Given branch is an ancestor of the current branch.";
-                System.out.println(k);
-            }
-            if (tab.contains(curr)) {
-                return curr;
-            }
-            curr = ans.getParent();
-            if (ans instanceof MergeCommit) {
-                if (tab.contains(((MergeCommit) ans).getParent2())) {
-                    return ((MergeCommit) ans).getParent2();
-                }
-            }
-        } while (curr != null);
-        return null;
-    }
-
-    /** Helper function for findSplit which finds all the previous commits
-     *  which can be compared to in this case to find the split point.
-     *  Also splits off if the merge is merge commit and multiple parents have to be added
-     * @param tab an empty arraylist which is slowly filled with the parent commits of the given commit
-     * @param given given commit name
-     * @return Arraylist all the previous parents from the given commit including merge parents and their ancestors*/
-    public static ArrayList<String> fillTab(ArrayList<String> tab,
-                                             String given) {
-        File cwd = new File(System.getProperty("user.dir"));
-        File commitOldAddress;
-        Commit ans;
-        do {
-            commitOldAddress = Utils.join(cwd, ".gitlet", "Commits", given);
-            ans = Utils.readObject(commitOldAddress, Commit.class);
-            if (!tab.contains(given)) {
-                tab.add(given);
-            }
-            given = ans.getParent();
-            if (ans instanceof MergeCommit) {
-                fillTab(tab, ((MergeCommit) ans).getParent2());
-            }
-        } while (given != null);
-        return tab;
+        if (given.equals(split)) {
+            String k = "Given branch is an ancestor of the current branch.";
+            System.out.println(k);
+        }
+        return split;
+    }
+
+    /** Returns a commit from the cache or the object store, loose or packed.
+     * The commit returned may be shared, and is never to be changed.
+     * @param name sha1 name of the commit
+     * @return Commit */
+    public static Commit getCommit(String name) {
+        Commit result = cached(name);
+        if (result != null) {
+            return result;
+        }
+        result = ObjectStore.readObject(ObjectStore.COMMITS, name,
+                Commit.class);
+        remember(name, result);
+        return result;
+    }
+
+    /** Returns a commit from the cache, counting a hit or a miss.
+     * @param name sha1 name of the commit
+     * @return Commit or null if it is not cached */
+    private static synchronized Commit cached(String name) {
+        Commit result = CACHE.get(name);
+        if (result == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return result;
+    }
+
+    /** Keeps a commit in the cache, evicting the least recently used ones
+     * once the total weight grows over CACHE_WEIGHT.
+     * @param name sha1 name of the commit
+     * @param commit the commit */
+    private static synchronized void remember(String name, Commit commit) {
+        if (CACHE.containsKey(name)) {
+            return;
+        }
+        CACHE.put(name, commit);
+        commit.counted = commit.weight();
+        _cachedWeight += commit.counted;
+        evict();
+    }
+
+    /** Counts COMMIT again with the refs getRefs just loaded into it,
+     * if it is cached, and evicts commits if the cache grew too heavy.
+     * @param commit a commit whose refs were just loaded */
+    private static synchronized void reweigh(Commit commit) {
+        if (commit.counted == 0) {
+            return;
+        }
+        long weight = commit.weight();
+        _cachedWeight += weight - commit.counted;
+        commit.counted = weight;
+        evict();
+    }
+
+    /** Evicts the least recently used commits until the total weight
+     * is at most CACHE_WEIGHT. */
+    private static synchronized void evict() {
+        Iterator<Commit> it = CACHE.values().iterator();
+        while (_cachedWeight > CACHE_WEIGHT && it.hasNext()) {
+            Commit c = it.next();
+            _cachedWeight -= c.counted;
+            c.counted = 0;
+            it.remove();
+        }
+    }
+
+    /** Returns the weight of the commit in the cache: one, plus the number
+     * of refs it holds. A commit with a tree holds none until getRefs loads
+     * all of them into a map of its own, after which it is weighed again,
+     * see reweigh.
+     * @return long */
+    private long weight() {
+        if (files != null) {
+            return 1 + files.size();
+        } else if (refs != null) {
+            return 1 + refs.size();
+        }
+        return 1;
+    }
+
+    /** Returns the number of commits found in the cache so far.
+     * @return long */
+    static synchronized long cacheHits() {
+        return _hits;
+    }
+
+    /** Returns the number of commits read from the object store so far.
+     * @return long */
+    static synchronized long cacheMisses() {
+        return _misses;
+    }
+
+    /** Returns true if a commit with the given name exists.
+     * @param name sha1 name of the commit
+     * @return boolean */
+    public static boolean exists(String name) {
+        return ObjectStore.contains(ObjectStore.COMMITS, name);
     }
 
     /** String for saving parent commit.
@@ -126,10 +253,138 @@ public class Commit implements Serializable {
     public String getParent() {
         return this.parent;
     }
-    /** String for saving parent commit.
-     * @return String type*/
-    public HashMap<String, String> getRefs() {
-        return refs;
+    /** Returns all the files of the commit, which are read-only, see putRef.
+     * For a commit with a tree this reads every tree the first time.
+     * Synchronized since cached commits are shared between threads.
+     * @return Map file name : blob name */
+    public Map<String, String> getRefs() {
+        PersistentMap<String, String> result;
+        synchronized (this) {
+            if (files != null) {
+                return files;
+            } else if (tree == null) {
+                files = refs == null ? PersistentMap.empty()
+                        : PersistentMap.of(refs);
+                refs = null;
+            } else {
+                HashMap<String, String> all = new HashMap<>();
+                Tree.flatten(tree, "", all);
+                files = PersistentMap.of(all);
+                if (pending != null) {
+                    for (Map.Entry<String, String> e : pending.entrySet()) {
+                        files = e.getValue() == null
+                                ? files.minus(e.getKey())
+                                : files.plus(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            result = files;
+        }
+        reweigh(this);
+        return result;
+    }
+
+    /** Returns the blob of one file of the commit.
+     * @param name path of the file
+     * @return String blob name, or null if the commit has no such file */
+    public String getRef(String name) {
+        if (files != null || tree == null) {
+            return getRefs().get(name);
+        }
+        if (pending != null && pending.containsKey(name)) {
+            return pending.get(name);
+        }
+        return Tree.lookup(tree, name);
+    }
+
+    /** Puts a file in the commit.
+     * @param name path of the file
+     * @param blob blob name */
+    public void putRef(String name, String blob) {
+        change(name, blob);
+    }
+
+    /** Removes a file from the commit.
+     * @param name path of the file */
+    public void removeRef(String name) {
+        change(name, null);
+    }
+
+    /** Records a file put or removed.
+     * @param name path of the file
+     * @param blob blob name, or null for a removal */
+    private void change(String name, String blob) {
+        if (pending == null) {
+            pending = new TreeMap<>();
+        }
+        pending.put(name, blob);
+        if (files != null) {
+            files = blob == null ? files.minus(name) : files.plus(name, blob);
+        }
+    }
+
+    /** Returns the sha1 name of the root tree.
+     * @return String or null for a commit without a tree */
+    public String getTree() {
+        return tree;
+    }
+
+    /** Returns true if files were put or removed since the tree was written.
+     * @return boolean */
+    boolean hasPendingRefs() {
+        return pending != null && !pending.isEmpty();
+    }
+
+    /** Writes the trees of the files put or removed, so the commit can be named.
+     * A commit whose parent had no tree gets one holding all its files.
+     * @return List of the new trees, to be written with the commit, see ObjectStore.writeCommit */
+    public List<Pack.Record> writeTree() {
+        ArrayList<Pack.Record> out = new ArrayList<>();
+        if (tree == null) {
+            tree = Tree.update(null, new TreeMap<>(getRefs()), out);
+        } else if (hasPendingRefs()) {
+            tree = Tree.update(tree, pending, out);
+        }
+        pending = null;
+        return out;
+    }
+
+    /** Returns the names of the objects the commit refers to:
+     * the blobs of its files and, for a commit with a tree, its trees.
+     * @return Collection of sha1 names */
+    public Collection<String> objects() {
+        if (tree == null) {
+            return getRefs().values();
+        }
+        ArrayList<String> out = new ArrayList<>();
+        Tree.objects(tree, out);
+        return out;
+    }
+
+    /** Returns the files whose blob differs between two commits.
+     * Between commits with trees, folders with the same tree are skipped unread.
+     * @param a first commit
+     * @param b second commit
+     * @return Map path : {blob in A or null, blob in B or null} */
+    public static Map<String, String[]> diff(Commit a, Commit b) {
+        TreeMap<String, String[]> out = new TreeMap<>();
+        if (a.tree != null && b.tree != null && !a.hasPendingRefs()
+                && !b.hasPendingRefs()) {
+            Tree.diff(a.tree, b.tree, "", out);
+            return out;
+        }
+        Map<String, String> ra = a.getRefs();
+        Map<String, String> rb = b.getRefs();
+        TreeSet<String> names = new TreeSet<>(ra.keySet());
+        names.addAll(rb.keySet());
+        for (String name : names) {
+            String x = ra.get(name);
+            String y = rb.get(name);
+            if (x == null || !x.equals(y)) {
+                out.put(name, new String[] {x, y});
+            }
+        }
+        return out;
     }
 
     @Override
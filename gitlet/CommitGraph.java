@@ -0,0 +1,389 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** The shape of the history: for every commit, the positions of its parents
+ * and its generation number, kept in .gitlet/CommitGraph so that ancestry
+ * questions never have to read a Commit.
+ * The generation of a root commit is 1 and that of any other commit is one more
+ *  than the largest generation of its parents, so an ancestor always has a smaller
+ *  generation than its descendants.
+ * File layout: [magic "GCGR"][version : 4 bytes] followed by one entry per commit
+ *  [sha1 : 20 bytes][parent : 4 bytes][second parent : 4 bytes][generation : 4 bytes]
+ *  where parents are positions of earlier entries, or -1. Entries are only ever
+ *  appended, parents before children, by ObjectStore.writeCommit. Commits written
+ *  before the file existed are added the first time they are looked up.
+ *  @author Samarth Bhutani
+ */
+public class CommitGraph {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434752;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the header. */
+    private static final int HEADER = 8;
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+    /** Size of one entry. */
+    private static final int ENTRY = SHA_BYTES + 12;
+    /** Paint of commits reached from the first commit of mergeBase. */
+    private static final int PARENT1 = 1;
+    /** Paint of commits reached from the second commit of mergeBase. */
+    private static final int PARENT2 = 2;
+    /** Paint of commits below a common ancestor. */
+    private static final int STALE = 4;
+
+    /** Names of the commits in the order of the file. */
+    private static ArrayList<String> _ids;
+    /** Position of every commit in the file. */
+    private static HashMap<String, Integer> _position;
+    /** First parent of every commit, or -1. */
+    private static int[] _parent1;
+    /** Second parent of every commit, or -1. */
+    private static int[] _parent2;
+    /** Generation of every commit. */
+    private static int[] _generation;
+    /** The file currently loaded. */
+    private static File _loaded;
+
+    /** Returns the file of the graph.
+     * @return File */
+    private static File file() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "CommitGraph");
+    }
+
+    /** Loads the graph if it is not loaded yet. */
+    private static void load() {
+        File f = file();
+        if (_ids != null && f.equals(_loaded)) {
+            return;
+        }
+        _loaded = f;
+        _ids = new ArrayList<>();
+        _position = new HashMap<>();
+        _parent1 = new int[16];
+        _parent2 = new int[16];
+        _generation = new int[16];
+        if (!f.isFile() || f.length() < HEADER) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(f));
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IllegalArgumentException("corrupt commit graph");
+        }
+        byte[] raw = new byte[SHA_BYTES];
+        while (in.remaining() >= ENTRY) {
+            in.get(raw);
+            remember(Utils.toHex(raw), in.getInt(), in.getInt(), in.getInt());
+        }
+    }
+
+    /** Drops the graph held in memory; the next lookup reads the file again. */
+    static void unload() {
+        _ids = null;
+        _loaded = null;
+    }
+
+    /** Adds an entry to the loaded graph.
+     * @param id sha1 name of the commit
+     * @param p1 position of the first parent, or -1
+     * @param p2 position of the second parent, or -1
+     * @param gen generation of the commit
+     * @return int position of the commit */
+    private static int remember(String id, int p1, int p2, int gen) {
+        int n = _ids.size();
+        if (n == _parent1.length) {
+            _parent1 = Arrays.copyOf(_parent1, 2 * n);
+            _parent2 = Arrays.copyOf(_parent2, 2 * n);
+            _generation = Arrays.copyOf(_generation, 2 * n);
+        }
+        _ids.add(id);
+        _position.put(id, n);
+        _parent1[n] = p1;
+        _parent2[n] = p2;
+        _generation[n] = gen;
+        return n;
+    }
+
+    /** Appends the entries of positions FROM onwards to the file.
+     * @param from first position to be written */
+    private static void flush(int from) {
+        flush(from, file());
+    }
+
+    /** Appends the entries of positions FROM onwards to F, right after the
+     * entry before FROM, so that an entry a crash left partly written, which
+     * load skips, is overwritten rather than followed.
+     * @param from first position to be written
+     * @param f the file of the graph, or a new file replacing it */
+    private static void flush(int from, File f) {
+        int n = _ids.size() - from;
+        if (n <= 0) {
+            return;
+        }
+        boolean fresh = !f.isFile() || f.length() < HEADER;
+        ByteBuffer out = ByteBuffer.allocate((fresh ? HEADER : 0) + n * ENTRY);
+        if (fresh) {
+            out.putInt(MAGIC).putInt(VERSION);
+        }
+        for (int i = from; i < _ids.size(); i += 1) {
+            out.put(Utils.fromHex(_ids.get(i))).putInt(_parent1[i])
+                    .putInt(_parent2[i]).putInt(_generation[i]);
+        }
+        long at = fresh ? 0 : HEADER + (long) from * ENTRY;
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ch.truncate(at);
+            out.flip();
+            while (out.hasRemaining()) {
+                ch.write(out, at + out.position());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction tx = Transaction.open();
+        if (tx != null) {
+            tx.sync(f);
+        }
+    }
+
+    /** Records a commit that has just been written.
+     * Its parents must be stored already.
+     * @param id sha1 name of the commit
+     * @param commit the commit */
+    public static void add(String id, Commit commit) {
+        add(Collections.singletonMap(id, commit));
+    }
+
+    /** Records commits that have just been written with a single write of
+     * the file. Each parent must be stored already or come before its
+     * children in COMMITS.
+     * @param commits sha1 name : commit, in the order they were made */
+    public static void add(Map<String, Commit> commits) {
+        load();
+        int from = _ids.size();
+        for (Map.Entry<String, Commit> e : commits.entrySet()) {
+            if (_position.containsKey(e.getKey())) {
+                continue;
+            }
+            Commit commit = e.getValue();
+            String second = commit instanceof MergeCommit
+                    ? ((MergeCommit) commit).getParent2() : null;
+            int p1 = commit.getParent() == null ? -1
+                    : locate(commit.getParent());
+            int p2 = second == null ? -1 : locate(second);
+            remember(e.getKey(), p1, p2, 1 + Math.max(gen(p1), gen(p2)));
+        }
+        flush(from);
+    }
+
+    /** Drops the commits which are not in KEEP, as gc does once it has
+     * removed them. KEEP holds the parents of every commit it holds,
+     * so the generations of the commits left do not change.
+     * @param keep names of the objects left in the repository */
+    static void retain(Set<String> keep) {
+        load();
+        ArrayList<String> ids = _ids;
+        int[] parent1 = _parent1;
+        int[] parent2 = _parent2;
+        int[] generation = _generation;
+        _ids = new ArrayList<>();
+        _position = new HashMap<>();
+        _parent1 = new int[16];
+        _parent2 = new int[16];
+        _generation = new int[16];
+        int[] moved = new int[ids.size()];
+        for (int i = 0; i < ids.size(); i += 1) {
+            if (!keep.contains(ids.get(i))) {
+                moved[i] = -1;
+                continue;
+            }
+            moved[i] = remember(ids.get(i),
+                    parent1[i] < 0 ? -1 : moved[parent1[i]],
+                    parent2[i] < 0 ? -1 : moved[parent2[i]], generation[i]);
+        }
+        File tmp = Utils.join(file().getParentFile(), "CommitGraph.tmp");
+        tmp.delete();
+        flush(0, tmp);
+        if (!tmp.isFile()) {
+            file().delete();
+        } else {
+            try {
+                Files.move(tmp.toPath(), file().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns the generation at position I, 0 for -1.
+     * @param i position of a commit or -1
+     * @return int */
+    private static int gen(int i) {
+        return i < 0 ? 0 : _generation[i];
+    }
+
+    /** Returns the position of a commit, first adding it and any of its
+     * ancestors missing from the graph. Only those missing commits are read.
+     * @param id sha1 name of a stored commit
+     * @return int */
+    private static int locate(String id) {
+        Integer known = _position.get(id);
+        if (known != null) {
+            return known;
+        }
+        int from = _ids.size();
+        HashMap<String, String[]> parents = new HashMap<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (_position.containsKey(top)) {
+                stack.pop();
+                continue;
+            }
+            String[] ps = parents.get(top);
+            if (ps == null) {
+                Commit c = Commit.getCommit(top);
+                ps = new String[] {c.getParent(), c instanceof MergeCommit
+                        ? ((MergeCommit) c).getParent2() : null};
+                parents.put(top, ps);
+            }
+            boolean ready = true;
+            for (String p : ps) {
+                if (p != null && !_position.containsKey(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                int p1 = ps[0] == null ? -1 : _position.get(ps[0]);
+                int p2 = ps[1] == null ? -1 : _position.get(ps[1]);
+                remember(top, p1, p2, 1 + Math.max(gen(p1), gen(p2)));
+            }
+        }
+        flush(from);
+        return _position.get(id);
+    }
+
+    /** Returns the generation number of a commit.
+     * @param id sha1 name of a stored commit
+     * @return int */
+    public static int generation(String id) {
+        load();
+        return _generation[locate(id)];
+    }
+
+    /** Returns the position of a commit in the graph, adding it if needed.
+     * Positions start at 0 and parents always come before their children.
+     * @param id sha1 name of a stored commit
+     * @return int */
+    static int position(String id) {
+        load();
+        return locate(id);
+    }
+
+    /** Returns the number of commits in the graph.
+     * @return int */
+    static int size() {
+        load();
+        return _ids.size();
+    }
+
+    /** Returns the name of the commit at position I.
+     * @param i position of a commit
+     * @return String */
+    static String idAt(int i) {
+        return _ids.get(i);
+    }
+
+    /** Returns the positions of the parents of the commit at position I,
+     * -1 standing for a missing parent.
+     * @param i position of a commit
+     * @return int[] {first parent, second parent} */
+    static int[] parentsAt(int i) {
+        return new int[] {_parent1[i], _parent2[i]};
+    }
+
+    /** Returns the latest common ancestor of two commits.
+     * Walks down from both commits at once in order of decreasing generation,
+     *  painting every commit with the side it was reached from, as Git does.
+     *  A commit painted from both sides is a common ancestor and everything below
+     *  it is marked stale; the walk ends when only stale commits are left.
+     *  Commits leave the queue by decreasing generation, so the first common
+     *  ancestor found is a latest one.
+     * @param a sha1 name of the first commit
+     * @param b sha1 name of the second commit
+     * @return String sha1 name of the split point, or null if the histories are unrelated */
+    public static String mergeBase(String a, String b) {
+        load();
+        int ia = locate(a);
+        int ib = locate(b);
+        if (ia == ib) {
+            return a;
+        }
+        int[] paint = new int[_ids.size()];
+        boolean[] queued = new boolean[_ids.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) ->
+                _generation[x] != _generation[y]
+                        ? Integer.compare(_generation[y], _generation[x])
+                        : Integer.compare(y, x));
+        paint[ia] = PARENT1;
+        paint[ib] = PARENT2;
+        queued[ia] = true;
+        queued[ib] = true;
+        queue.add(ia);
+        queue.add(ib);
+        int best = -1;
+        int active = 2;
+        while (active > 0) {
+            int c = queue.poll();
+            queued[c] = false;
+            int flags = paint[c];
+            if ((flags & STALE) == 0) {
+                active -= 1;
+            }
+            if (flags == (PARENT1 | PARENT2)) {
+                if (best < 0) {
+                    best = c;
+                }
+                flags |= STALE;
+            }
+            for (int p : new int[] {_parent1[c], _parent2[c]}) {
+                if (p < 0 || (paint[p] & flags) == flags) {
+                    continue;
+                }
+                boolean wasActive = queued[p] && (paint[p] & STALE) == 0;
+                paint[p] |= flags;
+                boolean isActive = (paint[p] & STALE) == 0;
+                if (!queued[p]) {
+                    queued[p] = true;
+                    queue.add(p);
+                    active += isActive ? 1 : 0;
+                } else if (wasActive && !isActive) {
+                    active -= 1;
+                }
+            }
+        }
+        return best < 0 ? null : _ids.get(best);
+    }
+}
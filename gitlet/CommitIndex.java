@@ -0,0 +1,226 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/** A sorted index of the names of all commits, used to resolve abbreviated
+ * commit ids with a binary search instead of a listing of the object store.
+ * The index is kept in .gitlet/CommitIndex and is memory-mapped:
+ *  [magic "GCIX"][version : 4 bytes][count : 4 bytes][count sorted sha1 : 20 bytes each]
+ *  ObjectStore.writeCommit merges every new commit in, and the index is
+ *  built from the object store the first time it is used in a repository
+ *  which does not have one yet.
+ *  @author Samarth Bhutani
+ */
+public class CommitIndex {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x47434958;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the header. */
+    private static final int HEADER = 12;
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+
+    /** The index of the current repository, mapped on first use. */
+    private static MappedByteBuffer _index;
+    /** Number of commits in _index. */
+    private static int _count;
+    /** The file currently mapped. */
+    private static File _mapped;
+
+    /** Returns the file of the index.
+     * @return File */
+    private static File file() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "CommitIndex");
+    }
+
+    /** Maps the index, building it first if it does not exist. */
+    private static void load() {
+        File f = file();
+        if (_index != null && f.equals(_mapped)) {
+            return;
+        }
+        if (!f.isFile()) {
+            List<String> ids = ObjectStore.commitIds();
+            byte[][] keys = new byte[ids.size()][];
+            for (int i = 0; i < keys.length; i += 1) {
+                keys[i] = Utils.fromHex(ids.get(i));
+            }
+            Arrays.sort(keys, Arrays::compareUnsigned);
+            write(keys, 0);
+        }
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ)) {
+            _index = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_index.getInt(0) != MAGIC || _index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("corrupt commit index");
+        }
+        _count = _index.getInt(8);
+        _mapped = f;
+    }
+
+    /** Unmaps the index, which is mapped again on next use. */
+    static void unload() {
+        _index = null;
+        _mapped = null;
+    }
+
+    /** Writes an index holding the first N entries of the current index, if any,
+     * merged with the sorted raw sha1 KEYS, and unmaps the current index.
+     * @param keys sorted raw sha1 names to be added
+     * @param n number of entries of the current index to keep */
+    private static void write(byte[][] keys, int n) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER
+                + (n + keys.length) * SHA_BYTES);
+        out.putInt(MAGIC).putInt(VERSION).putInt(n + keys.length);
+        int i = 0;
+        int j = 0;
+        byte[] raw = new byte[SHA_BYTES];
+        while (i < n || j < keys.length) {
+            if (i < n) {
+                _index.get(HEADER + i * SHA_BYTES, raw);
+            }
+            if (j == keys.length
+                    || (i < n && Arrays.compareUnsigned(raw, keys[j]) < 0)) {
+                out.put(raw);
+                i += 1;
+            } else {
+                out.put(keys[j]);
+                j += 1;
+            }
+        }
+        File tmp = Utils.join(file().getParentFile(), "CommitIndex.tmp");
+        Utils.writeContents(tmp, out.array());
+        try {
+            Files.move(tmp.toPath(), file().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction tx = Transaction.open();
+        if (tx != null) {
+            tx.sync(file());
+            tx.sync(file().getParentFile());
+        }
+        _index = null;
+        _mapped = null;
+    }
+
+    /** Adds the commits named IDS to the index.
+     * @param ids sha1 names of commits which have just been stored */
+    static void add(Collection<String> ids) {
+        load();
+        ArrayList<byte[]> fresh = new ArrayList<>();
+        for (String id : ids) {
+            if (find(id) < 0) {
+                fresh.add(Utils.fromHex(id));
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        byte[][] keys = fresh.toArray(new byte[0][]);
+        Arrays.sort(keys, Arrays::compareUnsigned);
+        write(keys, _count);
+    }
+
+    /** Drops the commits which are not in KEEP, as gc does once it has
+     * removed them.
+     * @param keep names of the objects left in the repository */
+    static void retain(Set<String> keep) {
+        load();
+        ArrayList<byte[]> left = new ArrayList<>();
+        for (int i = 0; i < _count; i += 1) {
+            byte[] raw = new byte[SHA_BYTES];
+            _index.get(HEADER + i * SHA_BYTES, raw);
+            if (keep.contains(Utils.toHex(raw))) {
+                left.add(raw);
+            }
+        }
+        if (left.size() < _count) {
+            write(left.toArray(new byte[0][]), 0);
+        }
+    }
+
+    /** Returns the position of the commit named ID, or -1.
+     * @param id sha1 name
+     * @return int */
+    private static int find(String id) {
+        int i = lowerBound(id);
+        return i < _count && compareAt(id, i) == 0
+                && id.length() == Utils.UID_LENGTH ? i : -1;
+    }
+
+    /** Compares the hexadecimal PREFIX with the start of entry I.
+     * @param prefix hexadecimal digits, at most a full sha1
+     * @param i position of an entry
+     * @return int negative, zero or positive like compareTo */
+    private static int compareAt(String prefix, int i) {
+        int base = HEADER + i * SHA_BYTES;
+        for (int k = 0; k < prefix.length(); k += 1) {
+            int b = _index.get(base + k / 2) & 0xff;
+            int digit = k % 2 == 0 ? b >>> 4 : b & 0xf;
+            int c = Character.digit(prefix.charAt(k), 16) - digit;
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the position of the first entry whose name is not less than PREFIX.
+     * @param prefix hexadecimal digits
+     * @return int */
+    private static int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(prefix, mid) > 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the names of at most LIMIT commits starting with PREFIX,
+     * so a limit of 2 tells a unique prefix from an ambiguous one.
+     * @param prefix an abbreviated or full commit id
+     * @param limit largest number of names returned
+     * @return List of sha1 names */
+    public static List<String> lookup(String prefix, int limit) {
+        ArrayList<String> result = new ArrayList<>();
+        String p = prefix.toLowerCase();
+        if (p.length() > Utils.UID_LENGTH || !p.matches("[0-9a-f]+")) {
+            return result;
+        }
+        load();
+        byte[] raw = new byte[SHA_BYTES];
+        for (int i = lowerBound(p); i < _count && result.size() < limit
+                && compareAt(p, i) == 0; i += 1) {
+            _index.get(HEADER + i * SHA_BYTES, raw);
+            result.add(Utils.toHex(raw));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,393 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/** A long-running process which runs gitlet commands for one repository, so
+ * they pay neither for starting a JVM nor for reading the indexes again.
+ * The daemon listens on the Unix domain socket .gitlet/daemon.sock and runs one
+ *  command at a time. Main hands a command to it instead of running it when the
+ *  environment variable GITLET_DAEMON (or the property gitlet.daemon) is set and
+ *  a daemon is listening, and runs it itself otherwise.
+ * A request is [argument count : 4 bytes] followed by the arguments, the working
+ *  directory and 1 if GITLET_METRICS is set or 0, strings being [length : 4 bytes]
+ *  and UTF-8 bytes. The reply is a sequence of frames [stream : 1 byte]
+ *  [length : 4 bytes][bytes] carrying what the command wrote to standard output
+ *  (stream 1) and standard error (stream 2) in the order it wrote it, ended by a
+ *  frame [0][exit code : 4 bytes].
+ * The pack index, commit graph, commit index, bitmaps, Bloom filter, stat index,
+ *  staging area and blob id mapping stay loaded between commands, and so do the
+ *  caches of decoded trees and blobs, which are named by content and never stale.
+ *  Before each command the size, modification time and inode of every file those
+ *  are loaded from are compared with what they were after the previous command,
+ *  and if another process changed any of them, all of them are loaded again.
+ *  @author Samarth Bhutani
+ */
+public class Daemon {
+
+    /** Frame carrying the exit code. */
+    private static final byte EXIT = 0;
+    /** Frame carrying standard output. */
+    private static final byte OUT = 1;
+    /** Frame carrying standard error. */
+    private static final byte ERR = 2;
+    /** Size of the buffers of the socket streams. */
+    private static final int BUFFER = 1 << 16;
+    /** Files under .gitlet which the daemon keeps loaded. The Pack folder
+     * changes when a segment of the pack index is added. */
+    private static final String[] LOADED = {"Pack", "Pack/objects.idx",
+        "CommitGraph", "CommitIndex", "Bitmaps", "ObjectFilter", "Index",
+        "BlobIds", "Staging Area/Add", "Staging Area/Remove",
+        "Staging Area/Journal"};
+
+    /** True in the process of a daemon, whose commands are never forwarded
+     * since it answers one request at a time. */
+    private static boolean _serving;
+
+    /** The repository served. */
+    private final File repo;
+    /** Stat data of the LOADED files after the last command. */
+    private List<Object> stamps;
+    /** True once asked to stop. */
+    private boolean stopped;
+
+    /** An output stream writing each write as one frame of a reply. */
+    private static class FrameStream extends OutputStream {
+        /** The reply. */
+        private final DataOutputStream reply;
+        /** The stream the frames are for, OUT or ERR. */
+        private final byte stream;
+
+        /** Creates a stream.
+         * @param reply1 the reply
+         * @param stream1 OUT or ERR */
+        FrameStream(DataOutputStream reply1, byte stream1) {
+            this.reply = reply1;
+            this.stream = stream1;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (reply) {
+                reply.writeByte(stream);
+                reply.writeInt(len);
+                reply.write(b, off, len);
+            }
+        }
+    }
+
+    /** Creates a daemon for the repository in the current directory. */
+    private Daemon() {
+        File cwd = new File(System.getProperty("user.dir"));
+        this.repo = Utils.join(cwd, ".gitlet");
+    }
+
+    /** Returns the socket of the repository in the current directory.
+     * @return File */
+    private static File socket() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "daemon.sock");
+    }
+
+    /** Returns a connection to the daemon of the repository in the
+     * current directory.
+     * @return SocketChannel or null if no daemon is listening */
+    private static SocketChannel connect() {
+        File f = socket();
+        if (!f.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(f.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Runs ARGS on the daemon if GITLET_DAEMON is set and a daemon is
+     * listening, copying what it writes to standard output and standard error
+     * and exiting with its exit code if that is not 0. Import reads standard
+     * input, which is not passed to the daemon, so it always runs here.
+     * Nothing is forwarded from the daemon itself, which would wait forever
+     * on its own reply.
+     * @param args the arguments of Main
+     * @return boolean false if the command was not run, so Main runs it */
+    static boolean forward(String[] args) {
+        if (_serving || System.getenv("GITLET_DAEMON") == null
+                && System.getProperty("gitlet.daemon") == null
+                || args[0].equals("import")) {
+            return false;
+        }
+        SocketChannel ch = connect();
+        if (ch == null) {
+            return false;
+        }
+        int code = request(ch, args);
+        if (code != 0) {
+            System.exit(code);
+        }
+        return true;
+    }
+
+    /** Asks the daemon of the repository in the current directory to stop. */
+    static void stop() {
+        SocketChannel ch = connect();
+        if (ch == null) {
+            System.out.println("No daemon is running.");
+            return;
+        }
+        request(ch, new String[] {"daemon", "--stop"});
+    }
+
+    /** Sends ARGS over CH and copies the reply to standard output and error.
+     * @param ch a connection to the daemon
+     * @param args the arguments of Main
+     * @return int the exit code of the command */
+    private static int request(SocketChannel ch, String[] args) {
+        try (ch) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(ch)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                writeString(out, arg);
+            }
+            writeString(out, System.getProperty("user.dir"));
+            out.writeBoolean(System.getenv("GITLET_METRICS") != null
+                    || System.getProperty("gitlet.metrics") != null);
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(ch), BUFFER));
+            byte[] buf = new byte[BUFFER];
+            while (true) {
+                byte stream = in.readByte();
+                if (stream == EXIT) {
+                    int code = in.readInt();
+                    System.out.flush();
+                    System.err.flush();
+                    return code;
+                }
+                PrintStream dest = stream == OUT ? System.out : System.err;
+                for (int left = in.readInt(); left > 0;) {
+                    int n = in.read(buf, 0, Math.min(left, buf.length));
+                    if (n < 0) {
+                        throw new IOException("daemon closed the connection");
+                    }
+                    dest.write(buf, 0, n);
+                    left -= n;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Serves the repository in the current directory until stopped.
+     * Prints a message and returns if there is no repository or a daemon
+     * is already running. */
+    static void serve() {
+        Daemon d = new Daemon();
+        if (!d.repo.isDirectory()) {
+            System.out.println("Not in an initialized Gitlet directory.");
+            return;
+        }
+        SocketChannel running = connect();
+        if (running != null) {
+            try {
+                running.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            System.out.println("A daemon is already running.");
+            return;
+        }
+        File f = socket();
+        f.delete();
+        try (ServerSocketChannel server = ServerSocketChannel.open(
+                StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(f.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(f::delete));
+            d.stamps = d.stamps();
+            _serving = true;
+            while (!d.stopped) {
+                try (SocketChannel ch = server.accept()) {
+                    d.answer(ch);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            f.delete();
+        }
+    }
+
+    /** Reads one request from CH, runs it and writes the reply.
+     * @param ch a connection from a client
+     * @throws IOException if the client goes away */
+    private void answer(SocketChannel ch) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(ch)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = readString(in);
+        }
+        String cwd = readString(in);
+        boolean metrics = in.readBoolean();
+        DataOutputStream reply = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(ch), BUFFER));
+        int code = 0;
+        if (args.length == 2 && args[0].equals("daemon")
+                && args[1].equals("--stop")) {
+            stopped = true;
+        } else {
+            code = run(args, cwd, metrics, reply);
+        }
+        reply.writeByte(EXIT);
+        reply.writeInt(code);
+        reply.flush();
+    }
+
+    /** Runs a command as Main would in a process of its own.
+     * @param args the arguments of Main
+     * @param cwd the working directory of the client
+     * @param metrics true if the client asked for metrics
+     * @param reply where output is written
+     * @return int the exit code */
+    private int run(String[] args, String cwd, boolean metrics,
+                    DataOutputStream reply) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        String dir = System.getProperty("user.dir");
+        String wasMetrics = System.getProperty("gitlet.metrics");
+        PrintStream commandOut = new PrintStream(new FrameStream(reply, OUT));
+        PrintStream commandErr = new PrintStream(new FrameStream(reply, ERR));
+        System.setOut(commandOut);
+        System.setErr(commandErr);
+        System.setProperty("user.dir", cwd);
+        if (metrics) {
+            System.setProperty("gitlet.metrics", "true");
+        } else {
+            System.setProperty("gitlet.metrics", "false");
+        }
+        int code = 0;
+        try {
+            if (!stamps().equals(stamps)) {
+                unload();
+            }
+            Main.main(args);
+        } catch (Throwable t) {
+            for (Throwable c = t; c != null; c = c.getCause()) {
+                trim(c);
+            }
+            commandErr.print("Exception in thread \"main\" ");
+            t.printStackTrace(commandErr);
+            code = 1;
+        } finally {
+            commandOut.flush();
+            commandErr.flush();
+            System.setOut(out);
+            System.setErr(err);
+            System.setProperty("user.dir", dir);
+            if (wasMetrics == null) {
+                System.clearProperty("gitlet.metrics");
+            } else {
+                System.setProperty("gitlet.metrics", wasMetrics);
+            }
+            stamps = stamps();
+        }
+        return code;
+    }
+
+    /** Drops the frames of the daemon from the stack trace of T, so it reads
+     * as if Main had been run in a process of its own.
+     * @param t an exception thrown by a command */
+    private static void trim(Throwable t) {
+        StackTraceElement[] trace = t.getStackTrace();
+        for (int i = 0; i < trace.length; i += 1) {
+            if (trace[i].getClassName().equals(Daemon.class.getName())) {
+                t.setStackTrace(Arrays.copyOf(trace, i));
+                return;
+            }
+        }
+    }
+
+    /** Returns the size, modification time and file key of every file of
+     * LOADED, so two calls return equal lists unless one of them changed.
+     * @return List */
+    private List<Object> stamps() {
+        ArrayList<Object> result = new ArrayList<>();
+        for (String name : LOADED) {
+            File f = new File(repo, name);
+            try {
+                BasicFileAttributes a = Files.readAttributes(f.toPath(),
+                        BasicFileAttributes.class);
+                result.add(a.size());
+                result.add(a.lastModifiedTime());
+                result.add(Objects.requireNonNullElse(a.fileKey(), ""));
+            } catch (IOException excp) {
+                result.add(null);
+            }
+        }
+        return result;
+    }
+
+    /** Drops everything loaded from the files of LOADED. */
+    private static void unload() {
+        Pack.unload();
+        CommitGraph.unload();
+        CommitIndex.unload();
+        BitmapIndex.unload();
+        BloomFilter.unload();
+        StatCache.unload();
+        StagingLog.unload();
+        BlobIds.unload();
+    }
+
+    /** Writes S as its length and UTF-8 bytes.
+     * @param out destination
+     * @param s a string
+     * @throws IOException if writing fails */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf.length);
+        out.write(utf);
+    }
+
+    /** Reads a string written by writeString.
+     * @param in source
+     * @return String
+     * @throws IOException if reading fails */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] utf = new byte[in.readInt()];
+        in.readFully(utf);
+        return new String(utf, StandardCharsets.UTF_8);
+    }
+}
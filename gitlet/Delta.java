@@ -0,0 +1,187 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+/** Binary deltas between two versions of a file.
+ * A delta turns a base into a target with a list of instructions:
+ *  [base length : varint][target length : varint] followed by
+ *  copy   : [1xxxxxxx][offset : varint][length : varint], copies bytes of the base
+ *  insert : [0nnnnnnn][n bytes], inserts n (1 to 127) literal bytes
+ * Matches are found by indexing the base in blocks of BLOCK bytes
+ *  and rolling a hash over the target, in the spirit of Git's diff-delta.
+ *  @author Samarth Bhutani
+ */
+public class Delta {
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    /** Longest run of literal bytes a single insert can carry. */
+    private static final int MAX_INSERT = 127;
+    /** Marker bit of a copy instruction. */
+    private static final int COPY = 0x80;
+
+    /** Returns a delta which rebuilds TARGET from BASE.
+     * @param base the older version
+     * @param target the newer version
+     * @return byte[] the delta */
+    public static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        if (base.length < BLOCK || target.length < BLOCK) {
+            writeInsert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+        int slots = Integer.highestOneBit(base.length / BLOCK) << 2;
+        int mask = slots - 1;
+        int[] table = new int[slots];
+        for (int off = base.length - BLOCK - base.length % BLOCK;
+             off >= 0; off -= BLOCK) {
+            table[hash(base, off) & mask] = off + 1;
+        }
+        int pow = 1;
+        for (int k = 1; k < BLOCK; k += 1) {
+            pow *= PRIME;
+        }
+        int pending = 0;
+        int i = 0;
+        int h = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            int cand = table[h & mask] - 1;
+            if (cand >= 0 && equal(base, cand, target, i, BLOCK)) {
+                int b = cand;
+                int t = i;
+                while (b > 0 && t > pending && base[b - 1] == target[t - 1]) {
+                    b -= 1;
+                    t -= 1;
+                }
+                int len = i - t + BLOCK;
+                while (b + len < base.length && t + len < target.length
+                        && base[b + len] == target[t + len]) {
+                    len += 1;
+                }
+                writeInsert(out, target, pending, t);
+                out.write(COPY);
+                writeVarint(out, b);
+                writeVarint(out, len);
+                i = t + len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - target[i] * pow) * PRIME + target[i + BLOCK];
+            }
+            i += 1;
+        }
+        writeInsert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Rebuilds the target of a delta.
+     * @param base the version the delta was made against
+     * @param delta the delta returned by create
+     * @return byte[] the target */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw new IllegalArgumentException("delta does not match its base");
+        }
+        byte[] target = new byte[readVarint(delta, pos)];
+        int t = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if ((op & COPY) != 0) {
+                int off = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, off, target, t, len);
+                t += len;
+            } else {
+                System.arraycopy(delta, pos[0], target, t, op);
+                pos[0] += op;
+                t += op;
+            }
+        }
+        if (t != target.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return target;
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA starting at OFF.
+     * @param data bytes
+     * @param off start of the block
+     * @return int */
+    private static int hash(byte[] data, int off) {
+        int h = 0;
+        for (int k = off; k < off + BLOCK; k += 1) {
+            h = h * PRIME + data[k];
+        }
+        return h;
+    }
+
+    /** Returns true if LEN bytes of A at AOFF equal those of B at BOFF.
+     * @param a first array
+     * @param aoff offset in a
+     * @param b second array
+     * @param boff offset in b
+     * @param len number of bytes
+     * @return boolean */
+    private static boolean equal(byte[] a, int aoff, byte[] b, int boff,
+                                 int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[aoff + k] != b[boff + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the bytes FROM to TO of DATA as insert instructions.
+     * @param out the delta
+     * @param data target bytes
+     * @param from first byte
+     * @param to one past the last byte */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data,
+                                    int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    /** Writes V as an unsigned LEB128 varint.
+     * @param out the delta
+     * @param v non-negative value */
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /** Reads an unsigned LEB128 varint from DATA at POS[0] and advances POS[0].
+     * @param data the delta
+     * @param pos single element array holding the read position
+     * @return int */
+    private static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+}
@@ -0,0 +1,49 @@
+package gitlet;
+
+import java.io.Serializable;
+
+/** The stored form of a blob kept as a delta against another blob.
+ * It is saved under the name of the full Blob it stands for,
+ *  and Blob.getBlob rebuilds the contents transparently.
+ *  @author Samarth Bhutani
+ */
+public class DeltaBlob implements Serializable {
+
+    /** Fixed so that stored objects stay readable as this class changes. */
+    private static final long serialVersionUID = 1L;
+
+    /** The sha1 name of the blob the delta was made against. */
+    private String base;
+    /** Instructions rebuilding the contents from the base, see Delta. */
+    private byte[] delta;
+    /** Number of deltas to apply to rebuild the contents, 1 if the base is a full Blob. */
+    private int depth;
+
+    /** Creates the delta form of a blob.
+     * @param base1 sha1 name of the base blob
+     * @param delta1 delta from the contents of the base
+     * @param depth1 length of the delta chain ending in this blob */
+    public DeltaBlob(String base1, byte[] delta1, int depth1) {
+        this.base = base1;
+        this.delta = delta1;
+        this.depth = depth1;
+    }
+
+    /** Returns the name of the base blob.
+     * @return String */
+    public String getBase() {
+        return this.base;
+    }
+
+    /** Returns the delta against the base.
+     * @return byte[] */
+    public byte[] getDelta() {
+        return this.delta;
+    }
+
+    /** Returns the length of the delta chain ending in this blob.
+     * @return int */
+    public int getDepth() {
+        return this.depth;
+    }
+}
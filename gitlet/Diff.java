@@ -0,0 +1,238 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Line diffs between versions of a file, after Myers, "An O(ND) Difference
+ * Algorithm and Its Variations", in its linear space variant.
+ * Files are compared as bytes and never decoded: a line is the bytes up to and
+ *  including a newline, and the lines of the files compared are numbered so that
+ *  equal lines get equal numbers, after which only ints are compared.
+ * match finds a longest common subsequence of two numbered files in O((N+M)D)
+ *  time, D being the number of lines inserted or deleted, and O(N+M) space:
+ *  rather than keeping the paths of every D to walk back along them, it searches
+ *  from both ends for a snake in the middle of the edit script and does the same
+ *  on either side of it.
+ *  @author Samarth Bhutani
+ */
+public class Diff {
+
+    /** Number of bytes looked at for a NUL byte to tell binary files from text. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** A line of a file, compared by its bytes. */
+    private static final class Line {
+        /** The file. */
+        private final byte[] text;
+        /** Offset of the line. */
+        private final int start;
+        /** Offset after the line. */
+        private final int end;
+        /** Hash of the bytes of the line. */
+        private final int hash;
+
+        /** Creates a line.
+         * @param text1 the file
+         * @param start1 offset of the line
+         * @param end1 offset after the line */
+        Line(byte[] text1, int start1, int end1) {
+            this.text = text1;
+            this.start = start1;
+            this.end = end1;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + text[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Line)) {
+                return false;
+            }
+            Line l = (Line) o;
+            return hash == l.hash && Arrays.equals(text, start, end,
+                    l.text, l.start, l.end);
+        }
+    }
+
+    /** Returns true if TEXT looks binary, that is holds a NUL byte
+     * in its first BINARY_PROBE bytes, as git decides.
+     * @param text contents of a file
+     * @return boolean */
+    public static boolean isBinary(byte[] text) {
+        for (int i = 0; i < Math.min(text.length, BINARY_PROBE); i += 1) {
+            if (text[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the offsets at which the lines of TEXT start, followed by the
+     * length of TEXT, so line i is the bytes from result[i] to result[i + 1].
+     * @param text contents of a file
+     * @return int[] of one more element than there are lines */
+    public static int[] lineStarts(byte[] text) {
+        int lines = 0;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n' || i == text.length - 1) {
+                lines += 1;
+            }
+        }
+        int[] result = new int[lines + 1];
+        int line = 1;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n' || i == text.length - 1) {
+                result[line] = i + 1;
+                line += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Numbers the lines of TEXTS so that equal lines, in the same file or not,
+     * get the same number.
+     * @param texts contents of the files
+     * @param starts line offsets of each file, see lineStarts
+     * @return int[][] numbers of the lines of each file */
+    public static int[][] number(byte[][] texts, int[][] starts) {
+        HashMap<Line, Integer> numbers = new HashMap<>();
+        int[][] result = new int[texts.length][];
+        for (int f = 0; f < texts.length; f += 1) {
+            result[f] = new int[starts[f].length - 1];
+            for (int i = 0; i < result[f].length; i += 1) {
+                Line l = new Line(texts[f], starts[f][i], starts[f][i + 1]);
+                Integer n = numbers.putIfAbsent(l, numbers.size());
+                result[f][i] = n == null ? numbers.size() - 1 : n;
+            }
+        }
+        return result;
+    }
+
+    /** Returns a longest common subsequence of A and B as, for every line of A,
+     * the line of B it is matched with or -1 if it was deleted.
+     * @param a numbered lines of the first file
+     * @param b numbered lines of the second file
+     * @return int[] of the length of A */
+    public static int[] match(int[] a, int[] b) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        int size = (a.length + b.length + 1) / 2 + 2;
+        int[] forward = new int[2 * size + 1];
+        int[] backward = new int[2 * size + 1];
+        match(a, 0, a.length, b, 0, b.length, forward, backward, result);
+        return result;
+    }
+
+    /** Matches lines A0 to A1 of A with lines B0 to B1 of B, by dropping their
+     * common first and last lines, finding a middle snake of the rest and
+     * matching the lines before and after it in the same way.
+     * @param a numbered lines of the first file
+     * @param a0 first line of A
+     * @param a1 line after the last of A
+     * @param b numbered lines of the second file
+     * @param b0 first line of B
+     * @param b1 line after the last of B
+     * @param forward furthest forward paths, shared by every call
+     * @param backward furthest backward paths, shared by every call
+     * @param result line of B matched with each line of A */
+    private static void match(int[] a, int a0, int a1, int[] b, int b0,
+                              int b1, int[] forward, int[] backward,
+                              int[] result) {
+        while (a0 < a1 && b0 < b1 && a[a0] == b[b0]) {
+            result[a0] = b0;
+            a0 += 1;
+            b0 += 1;
+        }
+        while (a0 < a1 && b0 < b1 && a[a1 - 1] == b[b1 - 1]) {
+            a1 -= 1;
+            b1 -= 1;
+            result[a1] = b1;
+        }
+        if (a0 == a1 || b0 == b1) {
+            return;
+        }
+        int[] snake = middleSnake(a, a0, a1, b, b0, b1, forward, backward);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            result[x] = y;
+        }
+        match(a, a0, snake[0], b, b0, snake[1], forward, backward, result);
+        match(a, snake[2], a1, b, snake[3], b1, forward, backward, result);
+    }
+
+    /** Returns a snake in the middle of a shortest edit script from lines A0
+     * to A1 of A to lines B0 to B1 of B, by running the greedy algorithm of
+     * Myers from both ends until the paths meet, in O(N + M) space.
+     * @param a numbered lines of the first file
+     * @param a0 first line of A
+     * @param a1 line after the last of A
+     * @param b numbered lines of the second file
+     * @param b0 first line of B
+     * @param b1 line after the last of B
+     * @param vf furthest x of the forward path on each diagonal
+     * @param vb furthest distance from the end of the backward path
+     *           on each diagonal
+     * @return int[] {x, y, u, v}, the snake going from (x, y) to (u, v) */
+    private static int[] middleSnake(int[] a, int a0, int a1, int[] b,
+                                     int b0, int b1, int[] vf, int[] vb) {
+        int n = a1 - a0;
+        int m = b1 - b0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int off = vf.length / 2;
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1])) {
+                    x = vf[off + k + 1];
+                } else {
+                    x = vf[off + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[a0 + x] == b[b0 + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[off + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1
+                        && x + vb[off + c] >= n) {
+                    return new int[] {a0 + x0, b0 + y0, a0 + x, b0 + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && vb[off + k - 1] < vb[off + k + 1])) {
+                    x = vb[off + k + 1];
+                } else {
+                    x = vb[off + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m
+                        && a[a1 - 1 - x] == b[b1 - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[off + k] = x;
+                int c = delta - k;
+                if (!odd && c >= -d && c <= d && x + vf[off + c] >= n) {
+                    return new int[] {a1 - x, b1 - y, a1 - x0, b1 - y0};
+                }
+            }
+        }
+        throw new IllegalArgumentException("no middle snake");
+    }
+}
@@ -0,0 +1,207 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/** Removes the objects no branch and no staged file can reach, as gc does.
+ * Marking starts from the head of every branch and the blobs staged for addition,
+ *  and follows parents, trees, blobs and the bases of blobs stored as deltas. The
+ *  heads are walked in parallel on the common ForkJoinPool, and so is the second
+ *  parent of a merge, all sharing one concurrent set of marked names, so a commit
+ *  or tree reached from several heads is read once and the walk that reaches a
+ *  marked commit stops there.
+ * Objects written less than the grace period ago are kept even when unreachable,
+ *  together with everything they reach, so a commit or an add running at the same
+ *  time does not lose the objects it has written but not yet referenced. Loose
+ *  objects are dated by their files, packed ones by the times file of the Pack.
+ * The rest is swept: loose files are deleted, and the pack is rewritten without
+ *  them, after which the CommitGraph, CommitIndex and MessageIndex drop the commits
+ *  removed. A dry run only reports what would be removed.
+ *  @author Samarth Bhutani
+ */
+public class GarbageCollector {
+
+    /** Names of the objects marked so far. */
+    private final Set<String> marked = ConcurrentHashMap.newKeySet();
+    /** Objects written at or after this time, in milliseconds, are kept. */
+    private final long cutoff;
+    /** True to only report what would be removed. */
+    private final boolean dryRun;
+
+    /** Walks the history from a commit, marking every commit, tree and blob
+     * on the way and forking a new walk for the second parent of a merge. */
+    private final class Walk extends RecursiveAction {
+        /** Fixed since tasks are serializable, though never serialized. */
+        private static final long serialVersionUID = 1L;
+        /** The first commit of the walk. */
+        private final String start;
+
+        /** Creates a walk.
+         * @param start1 sha1 name of the first commit */
+        Walk(String start1) {
+            this.start = start1;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<Walk> forked = new ArrayList<>();
+            String id = start;
+            while (id != null && marked.add(id)) {
+                Commit c = Commit.getCommit(id);
+                if (c.getTree() != null) {
+                    markTree(c.getTree());
+                } else {
+                    for (String blob : c.getRefs().values()) {
+                        markBlob(blob);
+                    }
+                }
+                if (c instanceof MergeCommit) {
+                    Walk w = new Walk(((MergeCommit) c).getParent2());
+                    w.fork();
+                    forked.add(w);
+                }
+                id = c.getParent();
+            }
+            for (Walk w : forked) {
+                w.join();
+            }
+        }
+    }
+
+    /** Creates a collector.
+     * @param cutoff1 time from which written objects are kept, in milliseconds
+     * @param dryRun1 true to only report what would be removed */
+    public GarbageCollector(long cutoff1, boolean dryRun1) {
+        this.cutoff = cutoff1;
+        this.dryRun = dryRun1;
+    }
+
+    /** Marks everything reachable from HEADS, the staging area and the
+     * objects written since the cutoff, removes the rest and prints how many
+     * objects and bytes were removed, or would be in a dry run.
+     * @param heads sha1 names of the branch heads */
+    public void run(Collection<String> heads) {
+        ArrayList<String> blobs = new ArrayList<>();
+        for (String blob : StagingLog.additions().getStagedItems().values()) {
+            if (!blob.isEmpty()) {
+                blobs.add(blob);
+            }
+        }
+        mark(heads, new ArrayList<>(), blobs);
+        int reachable = marked.size();
+
+        LinkedHashMap<String, File> old = new LinkedHashMap<>();
+        ArrayList<String> commits = new ArrayList<>();
+        ArrayList<String> trees = new ArrayList<>();
+        blobs.clear();
+        for (String kind : new String[] {ObjectStore.COMMITS,
+                                         ObjectStore.BLOBS}) {
+            for (String id : ObjectStore.looseIds(kind)) {
+                File f = ObjectStore.loose(kind, id);
+                if (marked.contains(id)) {
+                    continue;
+                } else if (f.lastModified() < cutoff) {
+                    old.put(id, f);
+                } else if (kind.equals(ObjectStore.COMMITS)) {
+                    commits.add(id);
+                } else {
+                    blobs.add(id);
+                }
+            }
+        }
+        for (String id : Pack.appendedSince(cutoff)) {
+            if (marked.contains(id)) {
+                continue;
+            }
+            byte type = Pack.find(id).getType();
+            if (type == Pack.COMMIT) {
+                commits.add(id);
+            } else if (type == Pack.TREE) {
+                trees.add(id);
+            } else {
+                blobs.add(id);
+            }
+        }
+        mark(commits, trees, blobs);
+        int recent = marked.size() - reachable;
+
+        long removed = 0;
+        long bytes = 0;
+        for (Map.Entry<String, File> e : old.entrySet()) {
+            if (!marked.contains(e.getKey())) {
+                removed += 1;
+                bytes += e.getValue().length();
+                if (!dryRun) {
+                    ObjectStore.removeLoose(e.getValue());
+                }
+            }
+        }
+        long[] packed = Pack.prune(marked, dryRun);
+        removed += packed[0];
+        bytes += packed[1];
+        if (!dryRun && removed > 0) {
+            CommitGraph.retain(marked);
+            CommitIndex.retain(marked);
+            MessageIndex.retain(marked);
+        }
+        System.out.println((dryRun ? "Would remove " : "Removed ") + removed
+                + " objects, " + bytes + " bytes.");
+        if (recent > 0) {
+            System.out.println("Kept " + recent + " unreachable objects"
+                    + " written within the grace period.");
+        }
+    }
+
+    /** Marks the commits COMMITS, the trees TREES, the blobs BLOBS and
+     * everything they reach, one task for each of them.
+     * @param commits sha1 names of commits
+     * @param trees sha1 names of trees
+     * @param blobs sha1 names of blobs */
+    private void mark(Collection<String> commits, Collection<String> trees,
+                      Collection<String> blobs) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (String c : commits) {
+            tasks.add(new Walk(c));
+        }
+        for (String t : trees) {
+            tasks.add(ForkJoinTask.adapt(() -> markTree(t)));
+        }
+        for (String b : blobs) {
+            tasks.add(ForkJoinTask.adapt(() -> markBlob(b)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /** Marks a tree, its sub-folders and their blobs. Sub-folders already
+     * marked, as the folders a commit shares with its parent are, are not read.
+     * @param id sha1 name of a tree */
+    private void markTree(String id) {
+        if (!marked.add(id)) {
+            return;
+        }
+        Tree t = Tree.read(id);
+        for (String blob : t.getBlobs().values()) {
+            markBlob(blob);
+        }
+        for (String sub : t.getTrees().values()) {
+            markTree(sub);
+        }
+    }
+
+    /** Marks a blob and the chain of blobs it is a delta against.
+     * @param id sha1 name of a blob */
+    private void markBlob(String id) {
+        String blob = id;
+        while (blob != null && marked.add(blob)) {
+            blob = Blob.deltaBase(blob);
+        }
+    }
+}
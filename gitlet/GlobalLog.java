@@ -0,0 +1,202 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/** Prints global-log over many commits at once.
+ * Commits are read and formatted in chunks of CHUNK on the common fork-join pool,
+ *  at most WINDOW chunks ahead of the one being written, and every chunk is written
+ *  in order through a single buffered stream as soon as it is ready, so the first
+ *  commits appear before the last ones have been read.
+ * Ordering by date has to see every commit first and is printed at the end.
+ *  @author Samarth Bhutani
+ */
+public class GlobalLog {
+
+    /** Number of commits formatted by one task. */
+    private static final int CHUNK = 256;
+    /** Number of chunks in flight per thread of the pool. */
+    private static final int WINDOW = 4;
+    /** Size of the output buffer. */
+    private static final int BUFFER = 1 << 16;
+    /** Line separator used by println. */
+    private static final String NL = System.lineSeparator();
+
+    /** Largest number of commits printed, or -1 for all. */
+    private final int maxCount;
+    /** Earliest commit time printed, or null. */
+    private final Date since;
+    /** Latest commit time printed, or null. */
+    private final Date until;
+    /** True to print the newest commits first. */
+    private final boolean dateOrder;
+    /** True to print in the opposite order. */
+    private final boolean reverse;
+
+    /** Creates a printer.
+     * @param maxCount1 largest number of commits printed, or -1 for all
+     * @param since1 earliest commit time printed, or null
+     * @param until1 latest commit time printed, or null
+     * @param dateOrder1 true to print the newest commits first
+     * @param reverse1 true to print in the opposite order */
+    public GlobalLog(int maxCount1, Date since1, Date until1,
+                     boolean dateOrder1, boolean reverse1) {
+        this.maxCount = maxCount1;
+        this.since = since1;
+        this.until = until1;
+        this.dateOrder = dateOrder1;
+        this.reverse = reverse1;
+    }
+
+    /** Parses a date given as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss in local time.
+     * @param text the date
+     * @return Date or null if TEXT is not a date */
+    public static Date parseDate(String text) {
+        for (String pattern : new String[] {"yyyy-MM-dd HH:mm:ss",
+                                            "yyyy-MM-dd"}) {
+            SimpleDateFormat form = new SimpleDateFormat(pattern);
+            form.setLenient(false);
+            try {
+                return form.parse(text);
+            } catch (ParseException excp) {
+                continue;
+            }
+        }
+        return null;
+    }
+
+    /** A printed commit. */
+    private static class Entry {
+        /** Time of the commit. */
+        private final long time;
+        /** The text printed for the commit. */
+        private final byte[] text;
+
+        /** Creates an entry.
+         * @param time1 time of the commit
+         * @param text1 the text printed */
+        Entry(long time1, byte[] text1) {
+            this.time = time1;
+            this.text = text1;
+        }
+    }
+
+    /** Prints the commits named IDS to standard output.
+     * @param ids sha1 names of commits, in the order they are printed without ordering options */
+    public void print(List<String> ids) {
+        List<String> order = new ArrayList<>(ids);
+        if (reverse && !dateOrder) {
+            Collections.reverse(order);
+        }
+        boolean filtered = since != null || until != null;
+        if (maxCount >= 0 && !filtered && !dateOrder) {
+            order = order.subList(0, Math.min(maxCount, order.size()));
+        }
+        OutputStream out = new BufferedOutputStream(System.out, BUFFER);
+        try {
+            if (dateOrder) {
+                printByDate(order, out);
+            } else {
+                printStreaming(order, out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Prints the commits in the order of IDS, chunk by chunk.
+     * @param ids sha1 names of commits
+     * @param out destination
+     * @throws IOException if writing fails */
+    private void printStreaming(List<String> ids, OutputStream out)
+            throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int window = WINDOW * pool.getParallelism();
+        ArrayDeque<ForkJoinTask<List<Entry>>> pending = new ArrayDeque<>();
+        int next = 0;
+        int printed = 0;
+        while (next < ids.size() || !pending.isEmpty()) {
+            while (pending.size() < window && next < ids.size()) {
+                List<String> chunk = ids.subList(next,
+                        Math.min(next + CHUNK, ids.size()));
+                pending.add(pool.submit(() -> format(chunk)));
+                next += CHUNK;
+            }
+            for (Entry e : pending.poll().join()) {
+                if (maxCount >= 0 && printed == maxCount) {
+                    break;
+                }
+                out.write(e.text);
+                printed += 1;
+            }
+            out.flush();
+            if (maxCount >= 0 && printed == maxCount) {
+                for (ForkJoinTask<List<Entry>> t : pending) {
+                    t.cancel(false);
+                }
+                return;
+            }
+        }
+    }
+
+    /** Prints the commits newest first, or oldest first if reversed.
+     * Commits with the same time keep the order of IDS.
+     * @param ids sha1 names of commits
+     * @param out destination
+     * @throws IOException if writing fails */
+    private void printByDate(List<String> ids, OutputStream out)
+            throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        ArrayList<ForkJoinTask<List<Entry>>> tasks = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += CHUNK) {
+            List<String> chunk = ids.subList(i, Math.min(i + CHUNK,
+                    ids.size()));
+            tasks.add(pool.submit(() -> format(chunk)));
+        }
+        ArrayList<Entry> all = new ArrayList<>();
+        for (ForkJoinTask<List<Entry>> t : tasks) {
+            all.addAll(t.join());
+        }
+        Comparator<Entry> oldest = Comparator.comparingLong(e -> e.time);
+        all.sort(reverse ? oldest : oldest.reversed());
+        int n = maxCount >= 0 ? Math.min(maxCount, all.size()) : all.size();
+        for (int i = 0; i < n; i += 1) {
+            out.write(all.get(i).text);
+        }
+    }
+
+    /** Reads the commits named IDS and formats those within the time range.
+     * @param ids sha1 names of commits
+     * @return List of entries in the order of IDS */
+    private List<Entry> format(List<String> ids) {
+        ArrayList<Entry> result = new ArrayList<>(ids.size());
+        StringBuilder text = new StringBuilder();
+        for (String id : ids) {
+            Commit c = Commit.getCommit(id);
+            long time = c.getTimestamp().getTime();
+            if ((since != null && time < since.getTime())
+                    || (until != null && time > until.getTime())) {
+                continue;
+            }
+            text.setLength(0);
+            text.append("=== ").append(NL).append("commit ").append(id)
+                    .append(NL).append(c).append(NL).append(NL);
+            result.add(new Entry(time,
+                    text.toString().getBytes(Charset.defaultCharset())));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,504 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Reads a history from a stream in the format of git fast-import and stores
+ * it, as import does. The commands understood are
+ *  blob, followed by an optional mark :N and the data of the blob;
+ *  commit BRANCH, followed by an optional mark, optional author and committer
+ *   lines, the data of the message, an optional from REF, an optional merge REF
+ *   and the changes: M MODE REF PATH, M MODE inline PATH followed by data,
+ *   D PATH and deleteall;
+ *  reset BRANCH, followed by an optional from REF;
+ *  checkpoint, progress TEXT and done.
+ * Data is data N followed by N bytes, or data <<END followed by lines up to END.
+ *  A REF is a mark, a full commit id or a branch, and branches may be written
+ *  refs/heads/NAME. The newline git ends messages with is dropped. Commits are dated by the seconds of their committer line,
+ *  the author is ignored, and a commit without from starts from the head of its
+ *  branch, or from the initial commit with no files for a new branch.
+ * Everything is written into the Pack in one batch, see Pack.begin: the blobs,
+ *  trees and commit of each command with a single write, and nothing is synced
+ *  or indexed until a checkpoint, which syncs the pack, indexes the objects and
+ *  commits written since the last one and then moves the branches. A checkpoint
+ *  is made every CHECKPOINT_OBJECTS objects, when the stream asks for one and at
+ *  the end, so a stream cut short leaves the branches at the last checkpoint.
+ * Only objects and branches are written here. The branch checked out is not
+ *  moved, its head as of the last checkpoint being left to Repo.import_stream,
+ *  which moves it together with the working directory, see checkedOutHead.
+ *  @author Samarth Bhutani
+ */
+public class Importer {
+
+    /** Number of objects written after which a checkpoint is made. */
+    private static final int CHECKPOINT_OBJECTS = 1 << 18;
+    /** Prefix of the branch names of git. */
+    private static final String HEADS = "refs/heads/";
+
+    /** The stream. */
+    private final BufferedInputStream in;
+    /** A line read too far, to be read again, or null. */
+    private String peeked;
+    /** Number of the last line read. */
+    private int lineNumber;
+    /** Mark : sha1 name of the blob or commit it marks. */
+    private final HashMap<String, String> marks = new HashMap<>();
+    /** Branch changed by the stream : its head, or null after a reset
+     * without a commit to start from. */
+    private final LinkedHashMap<String, String> branches =
+            new LinkedHashMap<>();
+    /** Commit : its root tree, for the commits the stream started from. */
+    private final HashMap<String, String> trees = new HashMap<>();
+    /** Commits written since the last checkpoint, in order. */
+    private final LinkedHashMap<String, Commit> commits =
+            new LinkedHashMap<>();
+    /** The initial commit, parent of the first commit of a new branch. */
+    private final String initial;
+    /** Name of the branch checked out, which checkpoints do not move. */
+    private final String checkedOut;
+    /** Head of the branch checked out as of the last checkpoint,
+     * or null if the stream did not move it. */
+    private String checkedOutHead;
+    /** Objects written since the last checkpoint. */
+    private int written;
+    /** Commits imported. */
+    private int commitCount;
+    /** Blobs imported. */
+    private int blobCount;
+
+    /** Creates an importer.
+     * @param in1 the stream
+     * @param checkedOut1 name of the branch checked out */
+    public Importer(InputStream in1, String checkedOut1) {
+        this.in = new BufferedInputStream(in1, 1 << 16);
+        this.checkedOut = checkedOut1;
+        Commit root = new Commit("initial commit", null);
+        this.initial = Utils.sha1(Utils.serialize(root));
+    }
+
+    /** Reads the whole stream and stores what it describes. Prints the number
+     * of commits and blobs imported, or the error the import stopped at,
+     * the stream being malformed or the disk failing. */
+    public void run() {
+        boolean done = false;
+        Pack.begin();
+        try {
+            for (String line = next(); line != null; line = next()) {
+                if (line.equals("blob")) {
+                    blob();
+                } else if (line.startsWith("commit ")) {
+                    commit(branch(line.substring(7)));
+                } else if (line.startsWith("reset ")) {
+                    reset(branch(line.substring(6)));
+                } else if (line.equals("checkpoint")) {
+                    checkpoint();
+                } else if (line.startsWith("progress ")) {
+                    System.out.println(line.substring(9));
+                } else if (line.equals("done")) {
+                    break;
+                } else if (!line.isEmpty()) {
+                    throw error("unknown command " + line);
+                }
+                if (written >= CHECKPOINT_OBJECTS) {
+                    checkpoint();
+                }
+            }
+            checkpoint();
+            done = true;
+        } catch (IllegalArgumentException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            Pack.end(done);
+        }
+        if (done) {
+            System.out.println("Imported " + commitCount + " commits and "
+                    + blobCount + " blobs.");
+        }
+    }
+
+    /** Reads a blob command. */
+    private void blob() {
+        String mark = mark();
+        String id = store(data());
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    /** Reads a commit command and writes the commit with its new blobs and
+     * trees, and makes it the head of BRANCH.
+     * @param branch name of the branch */
+    private void commit(String branch) {
+        String mark = null;
+        String message = null;
+        Date date = new Date();
+        String parent = null;
+        boolean parentGiven = false;
+        String second = null;
+        boolean deleteAll = false;
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String line = next(); line != null; line = next()) {
+            if (line.startsWith("mark ")) {
+                mark = line.substring(5);
+            } else if (line.startsWith("author ")) {
+                continue;
+            } else if (line.startsWith("committer ")) {
+                date = date(line);
+            } else if (line.startsWith("data ")) {
+                peeked = line;
+                message = new String(data(), StandardCharsets.UTF_8);
+                if (message.endsWith("\n")) {
+                    message = message.substring(0, message.length() - 1);
+                }
+            } else if (line.startsWith("from ")) {
+                parent = resolve(line.substring(5));
+                parentGiven = true;
+            } else if (line.startsWith("merge ")) {
+                if (second != null) {
+                    throw error("more than one merge");
+                }
+                second = resolve(line.substring(6));
+            } else if (line.startsWith("M ")) {
+                modify(line, changes);
+            } else if (line.startsWith("D ")) {
+                changes.put(path(line.substring(2)), null);
+            } else if (line.equals("deleteall")) {
+                deleteAll = true;
+                changes.clear();
+            } else if (!line.isEmpty()) {
+                peeked = line;
+                break;
+            }
+        }
+        if (message == null) {
+            throw error("commit without a message");
+        }
+        if (!parentGiven) {
+            parent = head(branch);
+        }
+        if (parent == null) {
+            parent = initial;
+        }
+        ArrayList<Pack.Record> records = new ArrayList<>();
+        String tree = Tree.update(deleteAll ? null : tree(parent), changes,
+                records);
+        Commit c = second == null ? new Commit(message, date, parent, tree)
+                : new MergeCommit(message, date, parent, second, tree);
+        byte[] encoded = Utils.serialize(c);
+        String id = Utils.sha1(encoded);
+        records.add(new Pack.Record(id, Pack.COMMIT, encoded));
+        Pack.append(records);
+        written += records.size();
+        commitCount += 1;
+        trees.put(id, tree);
+        commits.put(id, c);
+        branches.put(branch, id);
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+    }
+
+    /** Reads an M command into CHANGES, storing an inline blob.
+     * @param line the command
+     * @param changes path : blob name, or null for a removal */
+    private void modify(String line, Map<String, String> changes) {
+        int modeEnd = line.indexOf(' ', 2);
+        int refEnd = modeEnd < 0 ? -1 : line.indexOf(' ', modeEnd + 1);
+        if (refEnd < 0) {
+            throw error("bad file command " + line);
+        }
+        String mode = line.substring(2, modeEnd);
+        if (mode.equals("040000") || mode.equals("160000")) {
+            throw error("unsupported file mode " + mode);
+        }
+        String ref = line.substring(modeEnd + 1, refEnd);
+        String path = path(line.substring(refEnd + 1));
+        String blob;
+        if (ref.equals("inline")) {
+            blob = store(data());
+        } else {
+            blob = ref.startsWith(":") ? marks.get(ref) : ref;
+            if (!ObjectStore.contains(ObjectStore.BLOBS, blob)) {
+                throw error("no such blob " + ref);
+            }
+        }
+        changes.put(path, blob);
+    }
+
+    /** Reads a reset command.
+     * @param branch name of the branch */
+    private void reset(String branch) {
+        String line = next();
+        if (line != null && line.startsWith("from ")) {
+            branches.put(branch, resolve(line.substring(5)));
+        } else {
+            peeked = line;
+            branches.put(branch, null);
+        }
+    }
+
+    /** Syncs the pack, records the commits written since the last checkpoint
+     * and moves the branches to their new heads, all in one Transaction,
+     * except for the branch checked out, whose new head is only kept. */
+    private void checkpoint() {
+        File dir = Utils.join(new File(System.getProperty("user.dir")),
+                ".gitlet", "Branches");
+        try (Transaction tx = Transaction.begin()) {
+            Pack.checkpoint();
+            ObjectStore.record(commits);
+            for (Map.Entry<String, String> e : branches.entrySet()) {
+                if (e.getValue() == null) {
+                    continue;
+                } else if (e.getKey().equals(checkedOut)) {
+                    checkedOutHead = e.getValue();
+                } else {
+                    tx.write(Utils.join(dir, e.getKey()), e.getValue());
+                }
+            }
+            tx.commit();
+        }
+        commits.clear();
+        written = 0;
+    }
+
+    /** Returns the head the stream gave the branch checked out as of the last
+     * checkpoint, which is stored but not yet written to the branch,
+     * or null if the stream did not move it.
+     * @return String */
+    public String checkedOutHead() {
+        return checkedOutHead;
+    }
+
+    /** Stores a blob unless it is stored already. Blobs over
+     * Blob.STREAM_THRESHOLD are written loose, as commit leaves them.
+     * @param contents contents of the blob
+     * @return String its sha1 name */
+    private String store(byte[] contents) {
+        Blob blob = new Blob(contents, 0);
+        String id = blob.getId();
+        if (contents.length > Blob.STREAM_THRESHOLD) {
+            ObjectStore.writeLoose(ObjectStore.BLOBS, id, blob);
+        } else {
+            Pack.append(Collections.singletonList(new Pack.Record(id,
+                    Pack.BLOB, Utils.serialize(blob))));
+        }
+        written += 1;
+        blobCount += 1;
+        return id;
+    }
+
+    /** Returns the root tree of the commit ID. A commit made before trees
+     * gets a tree holding its files.
+     * @param id sha1 name of a commit
+     * @return String sha1 name of the tree, or null for a commit without files */
+    private String tree(String id) {
+        if (trees.containsKey(id)) {
+            return trees.get(id);
+        }
+        Commit c = Commit.getCommit(id);
+        String tree = c.getTree();
+        if (tree == null && !c.getRefs().isEmpty()) {
+            ArrayList<Pack.Record> records = new ArrayList<>();
+            tree = Tree.update(null, new TreeMap<>(c.getRefs()), records);
+            Pack.append(records);
+            written += records.size();
+        }
+        trees.put(id, tree);
+        return tree;
+    }
+
+    /** Returns the head of BRANCH as moved by the stream, or as stored.
+     * @param branch name of a branch
+     * @return String sha1 name of a commit, or null for a new branch */
+    private String head(String branch) {
+        if (branches.containsKey(branch)) {
+            return branches.get(branch);
+        }
+        File f = Utils.join(new File(System.getProperty("user.dir")),
+                ".gitlet", "Branches", branch);
+        return f.isFile() ? Utils.readContentsAsString(f) : null;
+    }
+
+    /** Returns the commit named by REF, a mark, a commit id or a branch.
+     * @param ref the reference
+     * @return String sha1 name of a stored commit */
+    private String resolve(String ref) {
+        String id;
+        if (ref.startsWith(":")) {
+            id = marks.get(ref);
+        } else if (ref.length() == Utils.UID_LENGTH && Commit.exists(ref)) {
+            id = ref;
+        } else {
+            id = head(branch(ref));
+        }
+        if (id == null || !Commit.exists(id)) {
+            throw error("no such commit " + ref);
+        }
+        return id;
+    }
+
+    /** Returns the name of a branch written REF, without refs/heads/.
+     * @param ref the name in the stream
+     * @return String */
+    private String branch(String ref) {
+        String name = ref.startsWith(HEADS) ? ref.substring(HEADS.length())
+                : ref;
+        if (name.isEmpty() || name.contains("/")) {
+            throw error("unsupported branch name " + ref);
+        }
+        return name;
+    }
+
+    /** Reads an optional mark command.
+     * @return String the mark, or null if the next line is not a mark */
+    private String mark() {
+        String line = next();
+        if (line != null && line.startsWith("mark ")) {
+            return line.substring(5);
+        }
+        peeked = line;
+        return null;
+    }
+
+    /** Returns the date of a committer line, NAME <EMAIL> SECONDS ZONE.
+     * @param line the line
+     * @return Date */
+    private Date date(String line) {
+        String[] when = line.substring(line.lastIndexOf('>') + 1).trim()
+                .split(" ");
+        try {
+            return new Date(Long.parseLong(when[0]) * 1000);
+        } catch (NumberFormatException excp) {
+            throw error("bad date " + line);
+        }
+    }
+
+    /** Returns a path as written in a file command, unquoting a path
+     * written between double quotes with C escapes.
+     * @param s the path in the stream
+     * @return String */
+    private String path(String s) {
+        if (!s.startsWith("\"")) {
+            return s;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        int i = 1;
+        for (; i < b.length && b[i] != '"'; i += 1) {
+            if (b[i] != '\\' || i + 1 == b.length) {
+                out.write(b[i]);
+                continue;
+            }
+            i += 1;
+            if (b[i] >= '0' && b[i] <= '7' && i + 2 < b.length) {
+                out.write(Integer.parseInt(new String(b, i, 3,
+                        StandardCharsets.US_ASCII), 8));
+                i += 2;
+            } else if (b[i] == 'n') {
+                out.write('\n');
+            } else if (b[i] == 't') {
+                out.write('\t');
+            } else {
+                out.write(b[i]);
+            }
+        }
+        if (i != b.length - 1) {
+            throw error("bad path " + s);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** Reads a data command and the bytes it announces, and the newline
+     * which may follow them.
+     * @return byte[] */
+    private byte[] data() {
+        String line = next();
+        if (line == null || !line.startsWith("data ")) {
+            throw error("expected data");
+        }
+        String size = line.substring(5);
+        try {
+            if (size.startsWith("<<")) {
+                String end = size.substring(2);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (String l = readLine(); !end.equals(l); l = readLine()) {
+                    if (l == null) {
+                        throw error("unterminated data");
+                    }
+                    out.write(l.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+                return out.toByteArray();
+            }
+            int n = Integer.parseInt(size);
+            byte[] result = in.readNBytes(n);
+            if (result.length != n) {
+                throw error("truncated data");
+            }
+            in.mark(1);
+            if (in.read() != '\n') {
+                in.reset();
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("bad data " + line);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the next line which is not a comment.
+     * @return String without its newline, or null at the end of the stream */
+    private String next() {
+        if (peeked != null) {
+            String line = peeked;
+            peeked = null;
+            return line;
+        }
+        try {
+            String line = readLine();
+            while (line != null && line.startsWith("#")) {
+                line = readLine();
+            }
+            return line;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads a line of the stream.
+     * @return String without its newline, or null at the end of the stream
+     * @throws IOException if reading fails */
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b < 0) {
+            return null;
+        }
+        while (b >= 0 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        lineNumber += 1;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the error the import stops at.
+     * @param msg what is wrong
+     * @return IllegalArgumentException */
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException("Import stopped at line "
+                + lineNumber + ": " + msg + ".");
+    }
+}
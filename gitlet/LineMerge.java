@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+/** Three-way merge of the lines of a file, as diff3 does.
+ * The current and given versions are each matched with the version at the split
+ *  point by Diff.match. Lines of the split version matched in both are kept, and
+ *  between two such lines the changes of one side are taken if the other side left
+ *  the lines alone, or if both sides made the same change. Only where both sides
+ *  changed the same lines differently is a conflict written, and lines both sides
+ *  agree on at its start and end are left out of it.
+ * Binary files, see Diff.isBinary, are not merged by lines: the whole file is
+ *  a conflict, as before.
+ *  @author Samarth Bhutani
+ */
+public class LineMerge {
+
+    /** Marker starting the lines of the current version in a conflict. */
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes();
+    /** Marker between the two versions in a conflict. */
+    private static final byte[] SEPARATOR = "=======\n".getBytes();
+    /** Marker ending the lines of the given version in a conflict. */
+    private static final byte[] THEIRS = ">>>>>>>\n".getBytes();
+
+    /** The versions at the split point, current and given. */
+    private final byte[][] texts;
+    /** Line offsets of each version, see Diff.lineStarts. */
+    private final int[][] starts;
+    /** Numbered lines of each version, see Diff.number. */
+    private final int[][] lines;
+    /** The merged file. */
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /** True if the last byte written ends a line. */
+    private boolean lineEnded = true;
+    /** Number of conflicts written. */
+    private int conflicts;
+
+    /** Merges the changes between BASE and OURS and between BASE and THEIRS.
+     * @param base the version at the split point, empty if there is none
+     * @param ours the current version
+     * @param theirs the given version */
+    public LineMerge(byte[] base, byte[] ours, byte[] theirs) {
+        this.texts = new byte[][] {base, ours, theirs};
+        this.starts = new int[3][];
+        if (Diff.isBinary(base) || Diff.isBinary(ours)
+                || Diff.isBinary(theirs)) {
+            this.lines = null;
+            conflict(out, ours, theirs);
+            conflicts = 1;
+            return;
+        }
+        for (int i = 0; i < 3; i += 1) {
+            starts[i] = Diff.lineStarts(texts[i]);
+        }
+        this.lines = Diff.number(texts, starts);
+        merge();
+    }
+
+    /** Returns the whole-file conflict between OURS and THEIRS.
+     * @param ours the current version, or null if it was removed
+     * @param theirs the given version, or null if it was removed
+     * @return byte[] */
+    public static byte[] conflictOf(byte[] ours, byte[] theirs) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        conflict(result, ours == null ? new byte[0] : ours,
+                theirs == null ? new byte[0] : theirs);
+        return result.toByteArray();
+    }
+
+    /** Returns the merged file.
+     * @return byte[] */
+    public byte[] getContents() {
+        return out.toByteArray();
+    }
+
+    /** Returns true if both sides changed some lines differently.
+     * @return boolean */
+    public boolean hasConflicts() {
+        return conflicts > 0;
+    }
+
+    /** Walks the lines of the split version kept by both sides,
+     * merging the changes between each two of them. */
+    private void merge() {
+        int n = lines[0].length;
+        int[] mo = Diff.match(lines[0], lines[1]);
+        int[] mt = Diff.match(lines[0], lines[2]);
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        for (int m = 0; m <= n; m += 1) {
+            if (m < n && (mo[m] < 0 || mt[m] < 0)) {
+                continue;
+            }
+            int jo = m < n ? mo[m] : lines[1].length;
+            int kt = m < n ? mt[m] : lines[2].length;
+            chunk(i, m, j, jo, k, kt);
+            if (m < n) {
+                write(0, m, m + 1);
+                i = m + 1;
+                j = jo + 1;
+                k = kt + 1;
+            }
+        }
+    }
+
+    /** Merges the lines from I0 to I1 of the split version, replaced by the
+     * lines from J0 to J1 of the current one and K0 to K1 of the given one.
+     * @param i0 first line of the split version
+     * @param i1 line after the last of the split version
+     * @param j0 first line of the current version
+     * @param j1 line after the last of the current version
+     * @param k0 first line of the given version
+     * @param k1 line after the last of the given version */
+    private void chunk(int i0, int i1, int j0, int j1, int k0, int k1) {
+        if (same(0, i0, i1, 1, j0, j1)) {
+            write(2, k0, k1);
+        } else if (same(0, i0, i1, 2, k0, k1)
+                || same(1, j0, j1, 2, k0, k1)) {
+            write(1, j0, j1);
+        } else {
+            int pre = 0;
+            while (j0 + pre < j1 && k0 + pre < k1
+                    && lines[1][j0 + pre] == lines[2][k0 + pre]) {
+                pre += 1;
+            }
+            int post = 0;
+            while (j1 - post > j0 + pre && k1 - post > k0 + pre
+                    && lines[1][j1 - post - 1] == lines[2][k1 - post - 1]) {
+                post += 1;
+            }
+            write(1, j0, j0 + pre);
+            marker(OURS);
+            write(1, j0 + pre, j1 - post);
+            marker(SEPARATOR);
+            write(2, k0 + pre, k1 - post);
+            marker(THEIRS);
+            write(1, j1 - post, j1);
+            conflicts += 1;
+        }
+    }
+
+    /** Returns true if lines A0 to A1 of version A equal lines B0 to B1 of B.
+     * @param a index of the first version
+     * @param a0 first line in A
+     * @param a1 line after the last in A
+     * @param b index of the second version
+     * @param b0 first line in B
+     * @param b1 line after the last in B
+     * @return boolean */
+    private boolean same(int a, int a0, int a1, int b, int b0, int b1) {
+        if (a1 - a0 != b1 - b0) {
+            return false;
+        }
+        for (int i = 0; i < a1 - a0; i += 1) {
+            if (lines[a][a0 + i] != lines[b][b0 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes lines FROM to TO of version V.
+     * @param v index of the version
+     * @param from first line
+     * @param to line after the last */
+    private void write(int v, int from, int to) {
+        if (from < to) {
+            out.write(texts[v], starts[v][from],
+                    starts[v][to] - starts[v][from]);
+            lineEnded = texts[v][starts[v][to] - 1] == '\n';
+        }
+    }
+
+    /** Writes the conflict marker MARKER on a line of its own.
+     * @param marker the marker, ending in a newline */
+    private void marker(byte[] marker) {
+        if (!lineEnded) {
+            out.write('\n');
+        }
+        out.writeBytes(marker);
+        lineEnded = true;
+    }
+
+    /** Writes a whole-file conflict between OURS and THEIRS to DEST,
+     * in the format conflicts were written in before lines were merged.
+     * @param dest destination
+     * @param ours the current version
+     * @param theirs the given version */
+    private static void conflict(ByteArrayOutputStream dest, byte[] ours,
+                                 byte[] theirs) {
+        dest.writeBytes(OURS);
+        dest.writeBytes(ours);
+        dest.writeBytes(SEPARATOR);
+        dest.writeBytes(theirs);
+        dest.writeBytes(THEIRS);
+    }
+}
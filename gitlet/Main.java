@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /** Driver class for Gitlet, the tiny version-control system similar to GIT
  * used for saving and merging files when working with others
  *  @author Samarth Bhutani
@@ -8,22 +10,51 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      * init : initiates a GIT repository in the location where it is called
-     * add [file name] : adds file to the staging area
+     * add [file name] ... : adds files, folders or glob patterns to the staging area
      * commit [file name]: saved all the files in the staging area and removes the ones which are staged to be removed
      * log : returns the log of the current branch
      * rm [file name] : removes the given file
-     * global-log : return the list of all commits ever made
+     * global-log [options] : return the list of all commits ever made,
+     *     options being --max-count [n], --since [date], --until [date], --date-order and --reverse
      * find ["message"] : returns the commit with the given message
+     * find --prefix|--substring|--regex ["text"] : returns the commits whose message starts with, contains or matches text
      * status : returns the current status of the GIT repository
      * branch [branch name] : creates a new branch with the given name
      * rm-branch [branch name] : removes the given branch
      * reset [commit id] : resets back to the given commit id.
      * merge [branch name] : merges the content in the current branch with the given branch
+     * repack : folds loose commits and blobs into the pack
+     * migrate-blob-ids : maps blob names from before blobs were named by content
+     * migrate-layout : fans loose objects out into sub-folders
+     * write-bitmaps : writes the reachability bitmaps of the branch heads
+     * count-objects : counts stored objects and those reachable from a branch
+     * count-objects [branch name] [branch name] : counts objects in the first branch but not the second
+     * diff [--staged | commit id commit id] : prints the changes of the working directory, staging area or a commit
+     * gc [--dry-run] [--grace seconds] : removes the objects no branch or staged file can reach
+     * import : reads commits, blobs and branches from standard input in the format of git fast-import
+     * daemon [--stop] : serves the commands run in this repository with GITLET_DAEMON set, or stops doing so
      * checkout -- [file name] : checkout the version of the given file in the latest commit
      * checkout [commit id] -- [file name] : checkout the version of the given file in the given commit
      * chekcout [branch name] : checkout the entire content of the latest commit in the given branch.
      */
     public static void main(String... args) {
+        if (args.length > 0 && !args[0].equals("daemon")
+                && Daemon.forward(args)) {
+            return;
+        }
+        long hits = Commit.cacheHits();
+        long misses = Commit.cacheMisses();
+        run(args);
+        if (Utils.metrics()) {
+            System.err.println("commit cache: "
+                    + (Commit.cacheHits() - hits) + " hits, "
+                    + (Commit.cacheMisses() - misses) + " misses");
+        }
+    }
+
+    /** Runs the command ARGS, see main.
+     * @param args the command and its operands */
+    private static void run(String... args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
         } else if (args[0].equals("init")) {
@@ -34,8 +65,8 @@ public class Main {
             Repo.init();
         } else if (args[0].equals("add")) {
             Repo ans = new Repo();
-            ans.error_check(2, args.length);
-            ans.add(args[1]);
+            ans.error_check(Math.max(2, args.length), args.length);
+            ans.add(Arrays.copyOfRange(args, 1, args.length));
         } else if (args[0].equals("commit")) {
             Repo ans = new Repo();
             ans.error_check(2, args.length);
@@ -50,12 +81,17 @@ public class Main {
             ans.rm(args[1]);
         } else if (args[0].equals("global-log")) {
             Repo ans = new Repo();
-            ans.error_check(1, args.length);
-            ans.global_log();
+            ans.error_check(args.length, args.length);
+            ans.global_log(Arrays.copyOfRange(args, 1, args.length));
         } else if (args[0].equals("find")) {
             Repo ans = new Repo();
-            ans.error_check(2, args.length);
-            ans.find(args[1]);
+            if (args.length == 3) {
+                ans.error_check(3, args.length);
+                ans.find(args[1], args[2]);
+            } else {
+                ans.error_check(2, args.length);
+                ans.find(args[1]);
+            }
         } else if (args[0].equals("status")) {
             Repo ans = new Repo();
             ans.error_check(1, args.length);
@@ -76,6 +112,51 @@ public class Main {
             Repo ans = new Repo();
             ans.error_check(2, args.length);
             ans.merge(args[1]);
+        } else if (args[0].equals("repack")) {
+            Repo ans = new Repo();
+            ans.error_check(1, args.length);
+            ans.repack();
+        } else if (args[0].equals("migrate-blob-ids")) {
+            Repo ans = new Repo();
+            ans.error_check(1, args.length);
+            ans.migrate_blob_ids();
+        } else if (args[0].equals("migrate-layout")) {
+            Repo ans = new Repo();
+            ans.error_check(1, args.length);
+            ans.migrate_layout();
+        } else if (args[0].equals("write-bitmaps")) {
+            Repo ans = new Repo();
+            ans.error_check(1, args.length);
+            ans.write_bitmaps();
+        } else if (args[0].equals("count-objects")) {
+            Repo ans = new Repo();
+            if (args.length == 3) {
+                ans.error_check(3, args.length);
+                ans.count_objects(args[1], args[2]);
+            } else {
+                ans.error_check(1, args.length);
+                ans.count_objects();
+            }
+        } else if (args[0].equals("diff")) {
+            Repo ans = new Repo();
+            ans.error_check(args.length, args.length);
+            ans.diff(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args[0].equals("gc")) {
+            Repo ans = new Repo();
+            ans.error_check(args.length, args.length);
+            ans.gc(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args[0].equals("import")) {
+            Repo ans = new Repo();
+            ans.error_check(1, args.length);
+            ans.import_stream();
+        } else if (args[0].equals("daemon")) {
+            if (args.length == 1) {
+                Daemon.serve();
+            } else if (args.length == 2 && args[1].equals("--stop")) {
+                Daemon.stop();
+            } else {
+                System.out.println("Incorrect operands.");
+            }
         } else if (args[0].equals("checkout")) {
             if (args.length > 4 || args.length < 2) {
                 System.out.println("Incorrect operands.");
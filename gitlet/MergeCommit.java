@@ -2,12 +2,16 @@ package gitlet;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 
 /** A commit made by a merge.
  *  @author Samarth Bhutani
  */
 public class MergeCommit extends Commit {
 
+    /** Fixed so that objects written before this class changed stay readable. */
+    private static final long serialVersionUID = 6363728362021825324L;
+
     /** String for saving the second parent of the commit. */
     private String parent2;
 
@@ -22,6 +26,30 @@ public class MergeCommit extends Commit {
         this.parent2 = parent_2;
     }
 
+    /** Creates a merge commit from decoded fields, see Codec.
+     * @param message the message associated to this commit
+     * @param timestamp time at which the commit was made
+     * @param parent the first parent of the commit
+     * @param parent_2 the second parent of the commit
+     * @param files file name : blob name */
+    MergeCommit(String message, Date timestamp, String parent,
+                String parent_2, PersistentMap<String, String> files) {
+        super(message, timestamp, parent, files);
+        this.parent2 = parent_2;
+    }
+
+    /** Creates a merge commit with a tree from decoded fields, see Codec.
+     * @param message the message associated to this commit
+     * @param timestamp time at which the commit was made
+     * @param parent the first parent of the commit
+     * @param parent_2 the second parent of the commit
+     * @param tree name of the root tree */
+    MergeCommit(String message, Date timestamp, String parent,
+                String parent_2, String tree) {
+        super(message, timestamp, parent, tree);
+        this.parent2 = parent_2;
+    }
+
     /** Returns the second parent of the commit.
      * @return String with the name of the second parent. */
     public String getParent2() {
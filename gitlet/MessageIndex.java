@@ -0,0 +1,551 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/** An index of commit messages which answers find without reading commits.
+ * It is made of two files in .gitlet/Messages:
+ *  log : every commit as [sha1 : 20 bytes][length : 4 bytes][UTF-8 message],
+ *        appended by ObjectStore.writeCommit.
+ *  trigrams : an inverted index from every 3-byte sequence of a message to the
+ *        entries of the log containing it, covering the log up to some offset:
+ *        [magic "GTRI"][version : 4 bytes][entries : 4 bytes][log end : 8 bytes]
+ *        [trigrams : 4 bytes][entries offsets : 8 bytes each]
+ *        [trigrams sorted, as (trigram, first posting, posting count) : 12 bytes each]
+ *        [postings : 4 bytes each, entry numbers in increasing order]
+ * A search looks up the trigrams of the text every match must contain,
+ *  intersects their postings, and checks only those entries and the ones
+ *  appended since the trigrams were written. The trigrams are rewritten once
+ *  that unindexed tail of the log grows past TAIL_BYTES.
+ * An entry a crash left partly written at the end of the log is ignored when
+ *  the log is read, and overwritten by the next entries appended.
+ *  @author Samarth Bhutani
+ */
+public class MessageIndex {
+
+    /** Magic number at the start of the trigrams file. */
+    private static final int MAGIC = 0x47545249;
+    /** Version of the trigrams file. */
+    private static final int VERSION = 1;
+    /** Size of the header of the trigrams file. */
+    private static final int HEADER = 24;
+    /** Size of one trigram entry. */
+    private static final int TRIGRAM = 12;
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+    /** Size of the unindexed part of the log which triggers a rewrite. */
+    private static final long TAIL_BYTES = 64 * 1024;
+
+    /** Returns the folder of the index.
+     * @return File */
+    private static File dir() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "Messages");
+    }
+
+    /** Returns the log of messages.
+     * @return File */
+    private static File logFile() {
+        return Utils.join(dir(), "log");
+    }
+
+    /** Returns the trigram index.
+     * @return File */
+    private static File trigramFile() {
+        return Utils.join(dir(), "trigrams");
+    }
+
+    /** Maps F for reading.
+     * @param f an existing file
+     * @return MappedByteBuffer */
+    private static MappedByteBuffer map(File f) {
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Records the message of a commit which has just been stored.
+     * A repository without an index gets one built from every stored commit.
+     * @param id sha1 name of the commit
+     * @param message message of the commit */
+    static void add(String id, String message) {
+        add(Collections.singletonMap(id, message));
+    }
+
+    /** Records the messages of commits which have just been stored with a
+     * single write of the log.
+     * @param messages sha1 name of a commit : its message */
+    static void add(Map<String, String> messages) {
+        if (!logFile().isFile()) {
+            build();
+            return;
+        }
+        Output out = new Output();
+        for (Map.Entry<String, String> e : messages.entrySet()) {
+            byte[] utf = e.getValue().getBytes(StandardCharsets.UTF_8);
+            out.put(Utils.fromHex(e.getKey())).putInt(utf.length).put(utf);
+        }
+        long at = logEnd(map(logFile()), (int) indexedEnd());
+        try (FileChannel ch = FileChannel.open(logFile().toPath(),
+                StandardOpenOption.WRITE)) {
+            ch.truncate(at);
+            ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+            while (bytes.hasRemaining()) {
+                ch.write(bytes, at + bytes.position());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction tx = Transaction.open();
+        if (tx != null) {
+            tx.sync(logFile());
+        }
+        if (logFile().length() - indexedEnd() > TAIL_BYTES) {
+            writeTrigrams();
+            if (tx != null) {
+                tx.sync(trigramFile());
+                tx.sync(dir());
+            }
+        }
+    }
+
+    /** Returns the end of the last whole entry of LOG, reading it from the
+     * entry at FROM, so that an entry cut short by a crash is left out.
+     * @param log the mapped log
+     * @param from offset of an entry, or the end of the log
+     * @return int */
+    private static int logEnd(ByteBuffer log, int from) {
+        int pos = Math.min(from, log.limit());
+        while (log.limit() - pos >= SHA_BYTES + 4) {
+            int length = log.getInt(pos + SHA_BYTES);
+            if (length < 0 || log.limit() - pos - SHA_BYTES - 4 < length) {
+                break;
+            }
+            pos += SHA_BYTES + 4 + length;
+        }
+        return pos;
+    }
+
+    /** Writes the log from every stored commit, then the trigrams. */
+    private static void build() {
+        dir().mkdirs();
+        Output out = new Output();
+        for (String id : ObjectStore.commitIds()) {
+            byte[] utf = Commit.getCommit(id).getMessage()
+                    .getBytes(StandardCharsets.UTF_8);
+            out.put(Utils.fromHex(id)).putInt(utf.length).put(utf);
+        }
+        Utils.writeContents(logFile(), out.toByteArray());
+        writeTrigrams();
+    }
+
+    /** Drops the commits which are not in KEEP from the log, as gc does once
+     * it has removed them, and rewrites the trigrams if any were dropped.
+     * @param keep names of the objects left in the repository */
+    static void retain(Set<String> keep) {
+        if (!logFile().isFile()) {
+            return;
+        }
+        MappedByteBuffer log = map(logFile());
+        Output out = new Output();
+        byte[] raw = new byte[SHA_BYTES];
+        int pos = 0;
+        int whole = logEnd(log, 0);
+        while (pos < whole) {
+            int end = pos + SHA_BYTES + 4 + log.getInt(pos + SHA_BYTES);
+            log.get(pos, raw);
+            if (keep.contains(Utils.toHex(raw))) {
+                byte[] entry = new byte[end - pos];
+                log.get(pos, entry);
+                out.put(entry);
+            }
+            pos = end;
+        }
+        byte[] left = out.toByteArray();
+        if (left.length == log.limit()) {
+            return;
+        }
+        File tmp = Utils.join(dir(), "log.tmp");
+        Utils.writeContents(tmp, left);
+        try {
+            Files.move(tmp.toPath(), logFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeTrigrams();
+    }
+
+    /** Returns the offset of the log up to which the trigrams reach.
+     * @return long */
+    private static long indexedEnd() {
+        File f = trigramFile();
+        if (!f.isFile()) {
+            return 0;
+        }
+        return map(f).getLong(12);
+    }
+
+    /** Rewrites the trigrams over the whole log. */
+    private static void writeTrigrams() {
+        MappedByteBuffer log = map(logFile());
+        ArrayList<Long> offsets = new ArrayList<>();
+        HashMap<Integer, IntList> postings = new HashMap<>();
+        int pos = 0;
+        int whole = logEnd(log, 0);
+        while (pos < whole) {
+            int n = offsets.size();
+            offsets.add((long) pos);
+            int length = log.getInt(pos + SHA_BYTES);
+            int start = pos + SHA_BYTES + 4;
+            for (int k = start; k + 3 <= start + length; k += 1) {
+                int t = trigram(log.get(k), log.get(k + 1), log.get(k + 2));
+                IntList list = postings.computeIfAbsent(t, x -> new IntList());
+                if (list.size == 0 || list.items[list.size - 1] != n) {
+                    list.add(n);
+                }
+            }
+            pos = start + length;
+        }
+        Integer[] grams = postings.keySet().toArray(new Integer[0]);
+        Arrays.sort(grams);
+        int total = 0;
+        for (IntList list : postings.values()) {
+            total += list.size;
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + 8 * offsets.size()
+                + TRIGRAM * grams.length + 4 * total);
+        out.putInt(MAGIC).putInt(VERSION).putInt(offsets.size())
+                .putLong(pos).putInt(grams.length);
+        for (long off : offsets) {
+            out.putLong(off);
+        }
+        int first = 0;
+        for (int t : grams) {
+            IntList list = postings.get(t);
+            out.putInt(t).putInt(first).putInt(list.size);
+            first += list.size;
+        }
+        for (int t : grams) {
+            IntList list = postings.get(t);
+            for (int i = 0; i < list.size; i += 1) {
+                out.putInt(list.items[i]);
+            }
+        }
+        File tmp = Utils.join(dir(), "trigrams.tmp");
+        Utils.writeContents(tmp, out.array());
+        try {
+            Files.move(tmp.toPath(), trigramFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Packs three bytes into a trigram.
+     * @param a first byte
+     * @param b second byte
+     * @param c third byte
+     * @return int */
+    private static int trigram(byte a, byte b, byte c) {
+        return ((a & 0xff) << 16) | ((b & 0xff) << 8) | (c & 0xff);
+    }
+
+    /** Returns the commits whose message is exactly MESSAGE.
+     * @param message the message
+     * @return List of sha1 names in sorted order */
+    public static List<String> exact(String message) {
+        return search(Collections.singletonList(message), message::equals);
+    }
+
+    /** Returns the commits whose message starts with TEXT.
+     * @param text start of the message
+     * @return List of sha1 names in sorted order */
+    public static List<String> prefix(String text) {
+        return search(Collections.singletonList(text), m -> m.startsWith(text));
+    }
+
+    /** Returns the commits whose message contains TEXT.
+     * @param text part of the message
+     * @return List of sha1 names in sorted order */
+    public static List<String> substring(String text) {
+        return search(Collections.singletonList(text), m -> m.contains(text));
+    }
+
+    /** Returns the commits whose message contains a match of the regular
+     * expression REGEX. Only messages containing every literal the
+     * expression requires, see literals, are matched against it.
+     * @param regex a regular expression, see java.util.regex.Pattern
+     * @return List of sha1 names in sorted order */
+    public static List<String> regex(String regex) {
+        Pattern p = Pattern.compile(regex);
+        return search(literals(regex), m -> p.matcher(m).find());
+    }
+
+    /** Returns runs of characters every match of REGEX contains.
+     * Only characters outside groups and classes which are not made optional
+     *  by a quantifier are taken, and nothing at all if the expression has an
+     *  alternation, inline flags or escapes naming characters by code,
+     *  so the result is safe rather than complete.
+     * @param regex a regular expression which compiles
+     * @return List of literal strings */
+    static List<String> literals(String regex) {
+        ArrayList<String> result = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(?")
+                || Pattern.compile("\\\\[xuc0-7pPNkQ]").matcher(regex).find()) {
+            return result;
+        }
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i += 1) {
+            char c = regex.charAt(i);
+            boolean literal = false;
+            if (c == '\\') {
+                i += 1;
+                c = regex.charAt(i);
+                literal = depth == 0 && !Character.isLetterOrDigit(c);
+            } else if (c == '[') {
+                i = classEnd(regex, i);
+            } else if (c == '(') {
+                depth += 1;
+            } else if (c == ')') {
+                depth -= 1;
+            } else {
+                literal = depth == 0 && ".^$*+?{}".indexOf(c) < 0;
+            }
+            char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            if (literal && next != '?' && next != '*' && next != '{') {
+                run.append(c);
+            } else {
+                if (run.length() > 0) {
+                    result.add(run.toString());
+                }
+                run.setLength(0);
+            }
+        }
+        if (run.length() > 0) {
+            result.add(run.toString());
+        }
+        return result;
+    }
+
+    /** Returns the position of the bracket closing the character class
+     * which opens at position I of REGEX.
+     * @param regex a regular expression which compiles
+     * @param i position of an opening bracket
+     * @return int */
+    private static int classEnd(String regex, int i) {
+        int depth = 0;
+        int k = i;
+        while (true) {
+            char c = regex.charAt(k);
+            if (c == '\\') {
+                k += 1;
+            } else if (c == '[') {
+                depth += 1;
+                if (regex.startsWith("^", k + 1)) {
+                    k += 1;
+                }
+                if (regex.startsWith("]", k + 1)) {
+                    k += 1;
+                }
+            } else if (c == ']') {
+                depth -= 1;
+                if (depth == 0) {
+                    return k;
+                }
+            }
+            k += 1;
+        }
+    }
+
+    /** Returns the commits whose message passes TEST, checking only entries
+     * whose message contains all trigrams of every string of REQUIRED.
+     * @param required strings every matching message contains
+     * @param test check of a message
+     * @return List of sha1 names in sorted order */
+    private static List<String> search(List<String> required,
+                                       Predicate<String> test) {
+        if (!logFile().isFile()) {
+            build();
+        }
+        MappedByteBuffer log = map(logFile());
+        ByteBuffer tri = trigramFile().isFile() ? map(trigramFile()) : null;
+        int indexed = tri == null ? 0 : tri.getInt(8);
+        long end = tri == null ? 0 : tri.getLong(12);
+        int[] candidates = null;
+        for (String s : required) {
+            byte[] utf = s.getBytes(StandardCharsets.UTF_8);
+            for (int k = 0; k + 3 <= utf.length; k += 1) {
+                int[] post = postings(tri,
+                        trigram(utf[k], utf[k + 1], utf[k + 2]));
+                candidates = candidates == null ? post
+                        : intersect(candidates, post);
+            }
+        }
+        TreeSet<String> result = new TreeSet<>();
+        if (candidates == null) {
+            for (int n = 0; n < indexed; n += 1) {
+                check(log, (int) tri.getLong(HEADER + 8 * n), test, result);
+            }
+        } else {
+            for (int n : candidates) {
+                check(log, (int) tri.getLong(HEADER + 8 * n), test, result);
+            }
+        }
+        int pos = (int) end;
+        int whole = logEnd(log, pos);
+        while (pos < whole) {
+            pos = check(log, pos, test, result);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Adds the commit of the log entry at POS to RESULT if its message passes TEST.
+     * @param log the mapped log
+     * @param pos offset of an entry
+     * @param test check of a message
+     * @param result names of the matching commits
+     * @return int offset of the next entry */
+    private static int check(ByteBuffer log, int pos, Predicate<String> test,
+                             TreeSet<String> result) {
+        int length = log.getInt(pos + SHA_BYTES);
+        byte[] utf = new byte[length];
+        log.get(pos + SHA_BYTES + 4, utf);
+        if (test.test(new String(utf, StandardCharsets.UTF_8))) {
+            byte[] raw = new byte[SHA_BYTES];
+            log.get(pos, raw);
+            result.add(Utils.toHex(raw));
+        }
+        return pos + SHA_BYTES + 4 + length;
+    }
+
+    /** Returns the entries whose message contains trigram T.
+     * @param tri the mapped trigrams, or null
+     * @param t a trigram
+     * @return int[] entry numbers in increasing order */
+    private static int[] postings(ByteBuffer tri, int t) {
+        if (tri == null) {
+            return new int[0];
+        }
+        int entries = tri.getInt(8);
+        int grams = tri.getInt(20);
+        int table = HEADER + 8 * entries;
+        int lists = table + TRIGRAM * grams;
+        int lo = 0;
+        int hi = grams - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int g = tri.getInt(table + TRIGRAM * mid);
+            if (g == t) {
+                int first = tri.getInt(table + TRIGRAM * mid + 4);
+                int[] result = new int[tri.getInt(table + TRIGRAM * mid + 8)];
+                for (int i = 0; i < result.length; i += 1) {
+                    result[i] = tri.getInt(lists + 4 * (first + i));
+                }
+                return result;
+            } else if (g < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return new int[0];
+    }
+
+    /** Returns the numbers found in both sorted arrays.
+     * @param a increasing numbers
+     * @param b increasing numbers
+     * @return int[] */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[n++] = a[i];
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** A growable list of ints. */
+    private static class IntList {
+        /** The ints, followed by free space. */
+        private int[] items = new int[4];
+        /** Number of ints. */
+        private int size;
+
+        /** Adds an int.
+         * @param v the int */
+        void add(int v) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, 2 * size);
+            }
+            items[size++] = v;
+        }
+    }
+
+    /** A growable byte array. */
+    private static class Output {
+        /** The bytes written so far, followed by free space. */
+        private byte[] buf = new byte[4096];
+        /** Number of bytes written. */
+        private int len;
+
+        /** Writes bytes.
+         * @param b the bytes
+         * @return this */
+        Output put(byte[] b) {
+            if (len + b.length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length,
+                        len + b.length));
+            }
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+            return this;
+        }
+
+        /** Writes a big-endian int.
+         * @param v the int
+         * @return this */
+        Output putInt(int v) {
+            return put(ByteBuffer.allocate(4).putInt(v).array());
+        }
+
+        /** Returns the bytes written.
+         * @return byte[] */
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+    }
+}
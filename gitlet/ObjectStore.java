@@ -0,0 +1,403 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The object database of a repository.
+ * Objects are either loose (one file per object in .gitlet/Commits or .gitlet/Blobs)
+ *  or folded into the Pack. Readers go through this class and do not need to know which.
+ * Loose objects are fanned out over 256 sub-folders named by the first two digits
+ *  of their sha1 (Blobs/ab/cdef...) so no folder grows past a few thousand entries.
+ *  Repositories created before keep a flat layout until migrate-layout is run;
+ *  the file .gitlet/Layout marks a fanned-out repository.
+ *  @author Samarth Bhutani
+ */
+public class ObjectStore {
+
+    /** Folder name, and kind, of commit objects. */
+    static final String COMMITS = "Commits";
+    /** Folder name, and kind, of blob objects. */
+    static final String BLOBS = "Blobs";
+    /** Kind of tree objects, which only live in the pack. */
+    static final String TREES = "Trees";
+
+    /** Content of the Layout file of a fanned-out repository. */
+    private static final String FAN_OUT = "fan-out";
+
+    /** Returns the file marking the layout of loose objects.
+     * @return File */
+    private static File layout() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "Layout");
+    }
+
+    /** Returns true if loose objects are fanned out into sub-folders.
+     * @return boolean */
+    static boolean fannedOut() {
+        return layout().isFile();
+    }
+
+    /** Marks a new repository as fanned out. */
+    static void createLayout() {
+        Utils.writeContents(layout(), FAN_OUT);
+    }
+
+    /** Returns the loose file of an object, which may not exist.
+     * @param kind COMMITS or BLOBS
+     * @param id sha1 name of the object
+     * @return File */
+    static File loose(String kind, String id) {
+        if (fannedOut() && id.length() > 2) {
+            return Utils.join(dir(kind), id.substring(0, 2), id.substring(2));
+        }
+        return Utils.join(dir(kind), id);
+    }
+
+    /** Returns the loose file an object is written to,
+     * creating its sub-folder if needed.
+     * @param kind COMMITS or BLOBS
+     * @param id sha1 name of the object
+     * @return File */
+    static File looseForWrite(String kind, String id) {
+        File f = loose(kind, id);
+        File parent = f.getParentFile();
+        if (!parent.isDirectory()) {
+            parent.mkdirs();
+        }
+        return f;
+    }
+
+    /** Returns the names of all loose objects of a kind.
+     * @param kind COMMITS or BLOBS
+     * @return List of sha1 names */
+    static List<String> looseIds(String kind) {
+        return looseIds(kind, "");
+    }
+
+    /** Returns the names of the loose objects of a kind starting with PREFIX.
+     * In a fanned-out repository a prefix of two or more digits lists a single sub-folder.
+     * @param kind COMMITS or BLOBS
+     * @param prefix start of the names, may be empty
+     * @return List of sha1 names */
+    static List<String> looseIds(String kind, String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        File dir = dir(kind);
+        if (!fannedOut()) {
+            List<String> names = Utils.plainFilenamesIn(dir);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.length() == Utils.UID_LENGTH
+                            && name.startsWith(prefix)) {
+                        result.add(name);
+                    }
+                }
+            }
+            return result;
+        }
+        String[] subs = prefix.length() >= 2
+                ? new String[] {prefix.substring(0, 2)} : dir.list();
+        if (subs == null) {
+            return result;
+        }
+        for (String sub : subs) {
+            if (sub.length() != 2 || !sub.startsWith(prefix)
+                    && !prefix.startsWith(sub)) {
+                continue;
+            }
+            List<String> names = Utils.plainFilenamesIn(Utils.join(dir, sub));
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String id = sub + name;
+                if (id.length() == Utils.UID_LENGTH && id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names of every stored object, loose or packed.
+     * @return List of sha1 names */
+    static List<String> allIds() {
+        ArrayList<String> result = new ArrayList<>(Pack.ids(Pack.COMMIT));
+        result.addAll(Pack.ids(Pack.BLOB));
+        result.addAll(Pack.ids(Pack.TREE));
+        result.addAll(looseIds(COMMITS));
+        result.addAll(looseIds(BLOBS));
+        return result;
+    }
+
+    /** Moves the loose objects of a flat repository into fanned-out
+     * sub-folders and marks the repository as fanned out.
+     * Prints the number of objects moved. */
+    static void migrateLayout() {
+        if (fannedOut()) {
+            System.out.println("Objects are already fanned out.");
+            return;
+        }
+        int moved = 0;
+        for (String kind : new String[] {COMMITS, BLOBS}) {
+            File dir = dir(kind);
+            for (String id : looseIds(kind)) {
+                File sub = Utils.join(dir, id.substring(0, 2));
+                if (!sub.isDirectory()) {
+                    sub.mkdir();
+                }
+                File dest = Utils.join(sub, id.substring(2));
+                if (!Utils.join(dir, id).renameTo(dest)) {
+                    throw new IllegalArgumentException("cannot move " + id);
+                }
+                moved += 1;
+            }
+        }
+        createLayout();
+        System.out.println("Moved " + moved + " objects.");
+    }
+
+    /** Returns true if the object is certainly not stored yet.
+     * The Bloom filter answers most such questions without a lookup,
+     *  so writers of new objects skip the exists() call on the folders.
+     * @param kind COMMITS or BLOBS
+     * @param id sha1 name of the object
+     * @return boolean */
+    static boolean isNew(String kind, String id) {
+        return !BloomFilter.mightContain(id) || !contains(kind, id);
+    }
+
+    /** Returns the folder holding the loose objects of a kind.
+     * @param kind COMMITS or BLOBS
+     * @return File */
+    static File dir(String kind) {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", kind);
+    }
+
+    /** Returns the pack record type of a kind.
+     * @param kind COMMITS, BLOBS or TREES
+     * @return byte */
+    private static byte type(String kind) {
+        if (kind.equals(TREES)) {
+            return Pack.TREE;
+        }
+        return kind.equals(COMMITS) ? Pack.COMMIT : Pack.BLOB;
+    }
+
+    /** Returns true if the object exists, loose or packed.
+     * @param kind COMMITS, BLOBS or TREES
+     * @param id sha1 name of the object
+     * @return boolean */
+    static boolean contains(String kind, String id) {
+        if (id == null || id.isEmpty()) {
+            return false;
+        }
+        Pack.Entry e = Pack.find(id);
+        if (e != null && e.getType() == type(kind)) {
+            return true;
+        }
+        return loose(kind, id).isFile();
+    }
+
+    /** Returns the serialized bytes of an object.
+     * Throws IllegalArgumentException if the object does not exist.
+     * @param kind COMMITS, BLOBS or TREES
+     * @param id sha1 name of the object
+     * @return byte[] */
+    static byte[] read(String kind, String id) {
+        Pack.Entry e = Pack.find(id);
+        if (e != null && e.getType() == type(kind)) {
+            return Pack.read(e);
+        }
+        File f = loose(kind, id);
+        if (!f.isFile()) {
+            throw new IllegalArgumentException("no such object " + id);
+        }
+        return Utils.readContents(f);
+    }
+
+    /** Returns the first LIMIT serialized bytes of an object, or all of them
+     * if there are fewer. Throws IllegalArgumentException if the object does not exist.
+     * @param kind COMMITS, BLOBS or TREES
+     * @param id sha1 name of the object
+     * @param limit largest number of bytes to read
+     * @return byte[] */
+    static byte[] readHead(String kind, String id, int limit) {
+        Pack.Entry e = Pack.find(id);
+        if (e != null && e.getType() == type(kind)) {
+            return Pack.read(e, limit);
+        }
+        File f = loose(kind, id);
+        try (FileChannel in = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer result = ByteBuffer.allocate(
+                    (int) Math.min(in.size(), limit));
+            while (result.hasRemaining()) {
+                if (in.read(result) < 0) {
+                    throw new IOException("truncated object " + id);
+                }
+            }
+            return result.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns an object of type T read from the store.
+     * @param kind COMMITS, BLOBS or TREES
+     * @param id sha1 name of the object
+     * @param expectedClass class of the object
+     * @param <T> type of the object
+     * @return T */
+    static <T extends Serializable> T readObject(String kind, String id,
+                                                 Class<T> expectedClass) {
+        return Utils.deserialize(read(kind, id), expectedClass);
+    }
+
+    /** Writes an object as a loose file unless it already exists.
+     * @param kind COMMITS or BLOBS
+     * @param id sha1 name of the object
+     * @param obj the object */
+    static void writeLoose(String kind, String id, Serializable obj) {
+        if (!isNew(kind, id)) {
+            return;
+        }
+        File f = looseForWrite(kind, id);
+        try {
+            f.createNewFile();
+        } catch (IOException exp) {
+            throw new IllegalArgumentException();
+        }
+        Utils.writeObject(f, obj);
+        BloomFilter.add(id);
+    }
+
+    /** Writes a new commit which has no new trees, see writeCommit below.
+     * @param id sha1 name of the commit
+     * @param commit the commit
+     * @param blobs names of the blobs introduced by the commit */
+    static void writeCommit(String id, Commit commit,
+                            Collection<String> blobs) {
+        writeCommit(id, commit, blobs, Collections.emptyList());
+    }
+
+    /** Writes a new commit together with the loose blobs and the trees it introduces
+     * into the pack with a single sequential write,
+     * then removes the loose copies of those blobs and records the commit
+     * in the CommitGraph, the CommitIndex and the MessageIndex.
+     * Inside a Transaction the loose copies are only removed once it is committed,
+     *  when the pack holding them is known to be on the disk.
+     * Blobs over Blob.STREAM_THRESHOLD stay loose so they can be streamed.
+     * @param id sha1 name of the commit
+     * @param commit the commit
+     * @param blobs names of the blobs introduced by the commit
+     * @param trees the trees introduced by the commit, see Commit.writeTree */
+    static void writeCommit(String id, Commit commit,
+                            Collection<String> blobs,
+                            List<Pack.Record> trees) {
+        ArrayList<Pack.Record> records = new ArrayList<>(trees);
+        ArrayList<File> folded = new ArrayList<>();
+        for (String b : blobs) {
+            File f = loose(BLOBS, b);
+            if (f.isFile() && f.length() <= Blob.STREAM_THRESHOLD) {
+                records.add(new Pack.Record(b, Pack.BLOB,
+                        Utils.readContents(f)));
+                folded.add(f);
+            }
+        }
+        records.add(new Pack.Record(id, Pack.COMMIT,
+                Utils.serialize(commit)));
+        Pack.append(records);
+        Transaction tx = Transaction.open();
+        if (tx == null) {
+            for (File f : folded) {
+                removeLoose(f);
+            }
+        } else {
+            tx.afterCommit(() -> folded.forEach(ObjectStore::removeLoose));
+        }
+        record(Collections.singletonMap(id, commit));
+    }
+
+    /** Records commits which have just been stored in the CommitGraph,
+     * the CommitIndex and the MessageIndex, with one write of each.
+     * @param commits sha1 name : commit, parents before their children */
+    static void record(Map<String, Commit> commits) {
+        CommitGraph.add(commits);
+        CommitIndex.add(commits.keySet());
+        LinkedHashMap<String, String> messages = new LinkedHashMap<>();
+        for (Map.Entry<String, Commit> e : commits.entrySet()) {
+            messages.put(e.getKey(), e.getValue().getMessage());
+        }
+        MessageIndex.add(messages);
+    }
+
+    /** Deletes a loose object file, and its sub-folder once empty.
+     * @param f loose file of an object */
+    static void removeLoose(File f) {
+        f.delete();
+        if (fannedOut()) {
+            f.getParentFile().delete();
+        }
+    }
+
+    /** Returns the names of all commits, loose or packed.
+     * @return List of sha1 names */
+    static List<String> commitIds() {
+        return commitIds("");
+    }
+
+    /** Returns the names of the commits starting with PREFIX, loose or packed.
+     * @param prefix start of the names, may be empty
+     * @return List of sha1 names */
+    static List<String> commitIds(String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String name : Pack.ids(Pack.COMMIT)) {
+            if (name.startsWith(prefix)) {
+                result.add(name);
+            }
+        }
+        for (String name : looseIds(COMMITS, prefix)) {
+            if (Pack.find(name) == null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /** Folds every loose commit and blob into the pack and deletes the loose files.
+     * Blobs over Blob.STREAM_THRESHOLD stay loose. The segments of the pack
+     * index are folded into its main index.
+     * Prints the number of objects that were packed. */
+    static void repack() {
+        ArrayList<Pack.Record> records = new ArrayList<>();
+        ArrayList<File> folded = new ArrayList<>();
+        for (String kind : new String[] {BLOBS, COMMITS}) {
+            for (String name : looseIds(kind)) {
+                File f = loose(kind, name);
+                if (f.length() > Blob.STREAM_THRESHOLD) {
+                    continue;
+                }
+                records.add(new Pack.Record(name, type(kind),
+                        Utils.readContents(f)));
+                folded.add(f);
+            }
+        }
+        Pack.append(records);
+        Pack.compact();
+        for (File f : folded) {
+            removeLoose(f);
+        }
+        System.out.println("Packed " + folded.size() + " objects.");
+    }
+}
@@ -0,0 +1,957 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** An append-only pack which stores many objects in a single data file.
+ * Every object is a record in the data file:
+ *  [type : 1 byte][length : 4 bytes][payload : length bytes]
+ * and is found through an index file with one fixed-width entry per object,
+ * sorted by SHA-1, so a lookup is a binary search over a memory-mapped file
+ * instead of a directory listing or a file per object.
+ * Index layout:
+ *  [magic "GPIX"][version : 4 bytes][count : 4 bytes]
+ *  followed by count entries of
+ *  [sha1 : 20 bytes][type : 1 byte][offset : 8 bytes][length : 4 bytes]
+ * Each append writes the entries of its records to a small segment of the index,
+ *  objects.idx.FIRST-LAST, in the same layout, instead of rewriting the main index,
+ *  objects.idx, so a commit writes in proportion to its own objects. A lookup
+ *  searches the segments from the newest and then the main index. The two newest
+ *  segments are merged while the older holds at most twice as many entries as
+ *  the newer, which keeps O(log n) segments, each entry being rewritten O(log n)
+ *  times. The segments are folded into the main index only by repack and gc.
+ *  FIRST and LAST number the appends a segment holds, so a segment left behind by
+ *  a merge cut short is known to be covered by the merged one and is ignored.
+ * A times file records when each part of the data file was appended, one
+ *  [offset : 8 bytes][milliseconds : 8 bytes] entry per append, so gc can tell
+ *  how old a packed object is. Objects appended before the file existed are
+ *  taken to be as recent as its first entry, or as the data file.
+ * Between begin and end, appended records are written to the data file without
+ *  being synced or indexed, and are found through a map in memory until the next
+ *  checkpoint syncs the data file and merges them into the index at once, so a
+ *  bulk import rewrites the index once per checkpoint rather than once per commit.
+ *  @author Samarth Bhutani
+ */
+public class Pack {
+
+    /** Record type of a commit. */
+    static final byte COMMIT = 1;
+    /** Record type of a blob. */
+    static final byte BLOB = 2;
+    /** Record type of a tree. */
+    static final byte TREE = 3;
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x47504958;
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+    /** Size of the index header in bytes. */
+    private static final int HEADER = 12;
+    /** Length of a raw SHA-1 in bytes. */
+    private static final int SHA_BYTES = 20;
+    /** Size of one index entry in bytes. */
+    private static final int ENTRY = SHA_BYTES + 1 + 8 + 4;
+    /** Size of the header in front of every record of the data file. */
+    private static final int RECORD_HEADER = 5;
+    /** Size of one entry of the times file. */
+    private static final int TIME_ENTRY = 16;
+
+    /** Name of a segment of the index, with the numbers of its first and
+     * last append. */
+    private static final Pattern SEGMENT =
+            Pattern.compile("objects\\.idx\\.(\\d+)-(\\d+)");
+
+    /** The index files of the current repository, mapped on first use:
+     * the main index, if there is one, then the segments, oldest first. */
+    private static List<Index> _indexes;
+    /** Number of the next append written to a segment. */
+    private static long _nextSegment;
+    /** The directory whose index is currently mapped. */
+    private static File _mappedDir;
+    /** The data file opened for reading, see data(). */
+    private static FileChannel _data;
+    /** The file _data reads from. */
+    private static File _dataFile;
+    /** The data file appended to between begin and end, or null. */
+    private static FileChannel _batch;
+    /** Offset of the first record appended since the last checkpoint. */
+    private static long _batchStart;
+    /** Records appended since the last checkpoint, by sha1 name. */
+    private static HashMap<String, Entry> _pending;
+
+    /** A single object located in the pack. */
+    static class Entry {
+        /** The type of the object, COMMIT or BLOB. */
+        private final byte type;
+        /** Offset of the record in the data file. */
+        private final long offset;
+        /** Length of the payload of the record. */
+        private final int length;
+
+        /** Creates an entry.
+         * @param type1 type of the object
+         * @param offset1 offset of the record in the data file
+         * @param length1 length of the payload */
+        Entry(byte type1, long offset1, int length1) {
+            this.type = type1;
+            this.offset = offset1;
+            this.length = length1;
+        }
+
+        /** Returns the type of the object.
+         * @return byte type */
+        byte getType() {
+            return this.type;
+        }
+    }
+
+    /** A file of the index, the main index or a segment, mapped in memory. */
+    private static class Index {
+        /** The file. */
+        private final File file;
+        /** Number of the first append the segment holds, 0 for the main index. */
+        private final long first;
+        /** Number of the last append the segment holds, 0 for the main index. */
+        private final long last;
+        /** The mapped file. */
+        private final MappedByteBuffer buf;
+        /** Number of entries, or -1 if the file is not a whole index. */
+        private final int count;
+
+        /** Maps an index file.
+         * @param file1 the file
+         * @param first1 number of the first append of a segment, or 0
+         * @param last1 number of the last append of a segment, or 0 */
+        Index(File file1, long first1, long last1) {
+            this.file = file1;
+            this.first = first1;
+            this.last = last1;
+            try (FileChannel ch = FileChannel.open(file1.toPath(),
+                    StandardOpenOption.READ)) {
+                this.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC
+                    || buf.getInt(4) != VERSION || buf.capacity()
+                    != HEADER + (long) buf.getInt(8) * ENTRY) {
+                this.count = -1;
+            } else {
+                this.count = buf.getInt(8);
+            }
+        }
+
+        /** Compares the raw sha1 KEY with entry I.
+         * @param key raw sha1
+         * @param i position of the entry
+         * @return int negative, zero or positive like compareTo */
+        int compareAt(byte[] key, int i) {
+            int base = HEADER + i * ENTRY;
+            for (int k = 0; k < SHA_BYTES; k += 1) {
+                int a = key[k] & 0xff;
+                int b = buf.get(base + k) & 0xff;
+                if (a != b) {
+                    return a - b;
+                }
+            }
+            return 0;
+        }
+
+        /** Returns entry I.
+         * @param i position of the entry
+         * @return Entry */
+        Entry entryAt(int i) {
+            int base = HEADER + i * ENTRY + SHA_BYTES;
+            return new Entry(buf.get(base), buf.getLong(base + 1),
+                    buf.getInt(base + 9));
+        }
+
+        /** Returns the type of entry I.
+         * @param i position of the entry
+         * @return byte */
+        byte typeAt(int i) {
+            return buf.get(HEADER + i * ENTRY + SHA_BYTES);
+        }
+
+        /** Returns the raw sha1 of entry I.
+         * @param i position of the entry
+         * @return byte[] */
+        byte[] keyAt(int i) {
+            byte[] raw = new byte[SHA_BYTES];
+            buf.get(HEADER + i * ENTRY, raw);
+            return raw;
+        }
+
+        /** Returns the sha1 name of entry I.
+         * @param i position of the entry
+         * @return String */
+        String idAt(int i) {
+            return Utils.toHex(keyAt(i));
+        }
+
+        /** Finds the raw sha1 KEY by binary search.
+         * @param key raw sha1
+         * @return Entry or null if this file does not hold it */
+        Entry find(byte[] key) {
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareAt(key, mid);
+                if (cmp == 0) {
+                    return entryAt(mid);
+                } else if (cmp < 0) {
+                    hi = mid - 1;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** An object waiting to be appended to the pack. */
+    static class Record {
+        /** The sha1 name of the object. */
+        private final String id;
+        /** The type of the object. */
+        private final byte type;
+        /** The serialized object. */
+        private final byte[] data;
+
+        /** Creates a record.
+         * @param id1 sha1 name of the object
+         * @param type1 type of the object
+         * @param data1 the serialized object */
+        Record(String id1, byte type1, byte[] data1) {
+            this.id = id1;
+            this.type = type1;
+            this.data = data1;
+        }
+    }
+
+    /** Returns the folder holding the pack of the current repository.
+     * @return File */
+    static File dir() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "Pack");
+    }
+
+    /** Returns the data file of the pack.
+     * @return File */
+    private static File dataFile() {
+        return Utils.join(dir(), "objects.pack");
+    }
+
+    /** Returns the index file of the pack.
+     * @return File */
+    private static File indexFile() {
+        return Utils.join(dir(), "objects.idx");
+    }
+
+    /** Returns the times file of the pack.
+     * @return File */
+    private static File timesFile() {
+        return Utils.join(dir(), "objects.times");
+    }
+
+    /** Returns the segment of the index holding the appends FIRST to LAST.
+     * @param first number of the first append
+     * @param last number of the last append
+     * @return File */
+    private static File segmentFile(long first, long last) {
+        return Utils.join(dir(), "objects.idx." + first + "-" + last);
+    }
+
+    /** Returns every segment file of the index, including those left behind.
+     * @return List of File */
+    private static List<File> segmentFiles() {
+        ArrayList<File> result = new ArrayList<>();
+        File[] files = dir().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (SEGMENT.matcher(f.getName()).matches()) {
+                    result.add(f);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the file F is written to before it replaces F, see prune.
+     * @param f a file of the pack
+     * @return File */
+    private static File next(File f) {
+        return new File(f.getPath() + ".new");
+    }
+
+    /** Finishes a prune which stopped half way. If the new data file is still
+     * there the old files are all in place and the new ones are dropped,
+     * otherwise the new index and times replace the old ones, and the segments
+     * the new index holds are deleted. The same finishes a compact. */
+    private static void recover() {
+        File[] files = {dataFile(), indexFile(), timesFile()};
+        boolean started = !next(files[0]).exists();
+        if (started && next(files[1]).exists()) {
+            for (File f : segmentFiles()) {
+                f.delete();
+            }
+        }
+        for (File f : files) {
+            if (!next(f).exists()) {
+                continue;
+            }
+            if (started) {
+                replace(next(f), f);
+            } else {
+                next(f).delete();
+            }
+        }
+    }
+
+    /** Renames FROM over TO in one step.
+     * @param from the new file
+     * @param to the file it replaces */
+    private static void replace(File from, File to) {
+        try {
+            Files.move(from.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Maps the index of the current repository if it is not mapped yet.
+     * Synchronized so that commits can be read from several threads.
+     * @return List of the main index, if any, then the segments, oldest first */
+    private static synchronized List<Index> load() {
+        File dir = dir();
+        if (_indexes != null && dir.equals(_mappedDir)) {
+            return _indexes;
+        }
+        _indexes = null;
+        _mappedDir = dir;
+        recover();
+        ArrayList<Index> result = new ArrayList<>();
+        File idx = indexFile();
+        if (idx.isFile()) {
+            Index main = new Index(idx, 0, 0);
+            if (main.count < 0) {
+                throw new IllegalArgumentException("corrupt pack index");
+            }
+            result.add(main);
+        }
+        result.addAll(segments());
+        _indexes = result;
+        return result;
+    }
+
+    /** Returns the segments of the index, oldest first, leaving out those a crash
+     * left behind: a segment not wholly written, which holds appends no branch
+     * refers to, and a segment whose appends a merged segment holds.
+     * Sets _nextSegment past the last append of every segment file.
+     * @return List of Index */
+    private static List<Index> segments() {
+        ArrayList<Index> found = new ArrayList<>();
+        _nextSegment = 1;
+        for (File f : segmentFiles()) {
+            Matcher m = SEGMENT.matcher(f.getName());
+            m.matches();
+            Index s = new Index(f, Long.parseLong(m.group(1)),
+                    Long.parseLong(m.group(2)));
+            _nextSegment = Math.max(_nextSegment, s.last + 1);
+            if (s.count >= 0) {
+                found.add(s);
+            }
+        }
+        found.sort(Comparator.comparingLong((Index s) -> s.first)
+                .thenComparingLong(s -> -s.last));
+        ArrayList<Index> result = new ArrayList<>();
+        for (Index s : found) {
+            if (result.isEmpty() || s.last > result.get(result.size() - 1).last) {
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    /** Finds an object in the pack by binary search over each file of the
+     * index, newest first.
+     * @param id sha1 name of the object
+     * @return Entry or null if the pack does not hold the object */
+    static Entry find(String id) {
+        List<Index> indexes = load();
+        if (_pending != null && _pending.containsKey(id)) {
+            return _pending.get(id);
+        }
+        if (id.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        byte[] key = Utils.fromHex(id);
+        for (int i = indexes.size() - 1; i >= 0; i -= 1) {
+            Entry e = indexes.get(i).find(key);
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /** Reads the payload of an entry from the data file.
+     * @param e entry returned by find
+     * @return byte[] the serialized object */
+    static byte[] read(Entry e) {
+        return read(e, e.length);
+    }
+
+    /** Reads the first bytes of the payload of an entry from the data file.
+     * @param e entry returned by find
+     * @param limit largest number of bytes to read
+     * @return byte[] the start of the serialized object */
+    static byte[] read(Entry e, int limit) {
+        try {
+            ByteBuffer result = ByteBuffer.allocate(Math.min(e.length, limit));
+            FileChannel data = data();
+            while (result.hasRemaining()) {
+                int n = data.read(result, e.offset + RECORD_HEADER
+                        + result.position());
+                if (n < 0) {
+                    throw new IOException("truncated pack");
+                }
+            }
+            return result.array();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the data file of the current repository, opened for reading
+     * on first use. Reads at a position do not move the channel, so it is
+     * shared by every thread reading from the pack.
+     * @return FileChannel
+     * @throws IOException if the file cannot be opened */
+    private static synchronized FileChannel data() throws IOException {
+        File f = dataFile();
+        if (_data == null || !f.equals(_dataFile)) {
+            if (_data != null) {
+                _data.close();
+            }
+            _data = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+            _dataFile = f;
+        }
+        return _data;
+    }
+
+    /** Returns the names of all objects of the given type in the pack,
+     * including those appended since the last checkpoint of a batch.
+     * @param type COMMIT, BLOB or TREE
+     * @return List of sha1 names in sorted order */
+    static List<String> ids(byte type) {
+        List<Index> indexes = load();
+        ArrayList<String> result = new ArrayList<>();
+        for (Index x : indexes) {
+            for (int i = 0; i < x.count; i += 1) {
+                if (x.typeAt(i) == type) {
+                    result.add(x.idAt(i));
+                }
+            }
+        }
+        if (_pending != null && !_pending.isEmpty()) {
+            for (Map.Entry<String, Entry> e : _pending.entrySet()) {
+                if (e.getValue().type == type) {
+                    result.add(e.getKey());
+                }
+            }
+            Collections.sort(result);
+        } else if (indexes.size() > 1) {
+            Collections.sort(result);
+        }
+        return result;
+    }
+
+    /** Appends RECORDS to the pack with a single sequential write
+     * of the data file, then writes their entries to a new segment of the index.
+     * The data file is synced on its own before the segment is written, so the
+     * index never reaches the disk ahead of the data it points to; the segment
+     * and times are synced with the open transaction, if any.
+     * Between begin and end the index is left to the next checkpoint instead.
+     * Records whose object is already in the pack are skipped.
+     * @param records objects to be appended */
+    static void append(List<Record> records) {
+        ArrayList<Record> fresh = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        int size = 0;
+        for (Record r : records) {
+            if (find(r.id) == null && seen.add(r.id)) {
+                fresh.add(r);
+                size += RECORD_HEADER + r.data.length;
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        if (_batch != null) {
+            List<Entry> entries = write(_batch, fresh, size);
+            for (int i = 0; i < fresh.size(); i += 1) {
+                _pending.put(fresh.get(i).id, entries.get(i));
+                BloomFilter.add(fresh.get(i).id);
+            }
+            return;
+        }
+        File dir = dir();
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        List<Entry> entries;
+        try (FileChannel ch = FileChannel.open(dataFile().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            entries = write(ch, fresh, size);
+            ch.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        stamp(entries.get(0).offset);
+        ArrayList<String> ids = new ArrayList<>();
+        for (Record r : fresh) {
+            ids.add(r.id);
+        }
+        writeSegment(ids, entries);
+        for (Record r : fresh) {
+            BloomFilter.add(r.id);
+        }
+    }
+
+    /** Writes RECORDS at the end of the data file CH.
+     * @param ch the data file, opened for appending
+     * @param records objects to be written
+     * @param size total size of their records
+     * @return List of the entry of each record */
+    private static List<Entry> write(FileChannel ch, List<Record> records,
+                                     int size) {
+        ArrayList<Entry> result = new ArrayList<>();
+        try {
+            long offset = ch.size();
+            ByteBuffer buf = ByteBuffer.allocate(size);
+            for (Record r : records) {
+                result.add(new Entry(r.type, offset + buf.position(),
+                        r.data.length));
+                buf.put(r.type).putInt(r.data.length).put(r.data);
+            }
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Records in the times file that the data from OFFSET on was appended now,
+     * right after its last whole entry, so that an entry a crash left partly
+     * written does not shift the ones after it.
+     * @param offset offset in the data file */
+    private static void stamp(long offset) {
+        ByteBuffer entry = ByteBuffer.allocate(TIME_ENTRY).putLong(offset)
+                .putLong(System.currentTimeMillis());
+        try (FileChannel ch = FileChannel.open(timesFile().toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long at = ch.size() - ch.size() % TIME_ENTRY;
+            ch.truncate(at);
+            entry.flip();
+            while (entry.hasRemaining()) {
+                ch.write(entry, at + entry.position());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Transaction tx = Transaction.open();
+        if (tx != null) {
+            tx.sync(timesFile());
+        }
+    }
+
+    /** Starts a batch: records appended until end are only written to the
+     * data file, and indexed at the next checkpoint. */
+    static void begin() {
+        File dir = dir();
+        if (!dir.exists()) {
+            dir.mkdir();
+        }
+        try {
+            _batch = FileChannel.open(dataFile().toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            _batchStart = _batch.size();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _pending = new HashMap<>();
+    }
+
+    /** Syncs the data file and writes the entries of the records appended since
+     * the last checkpoint to a segment of the index, so they survive a crash. */
+    static void checkpoint() {
+        if (_pending.isEmpty()) {
+            return;
+        }
+        try {
+            _batch.force(false);
+            stamp(_batchStart);
+            _batchStart = _batch.size();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ArrayList<String> ids = new ArrayList<>(_pending.keySet());
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (String id : ids) {
+            entries.add(_pending.get(id));
+        }
+        writeSegment(ids, entries);
+        _pending.clear();
+    }
+
+    /** Ends a batch. If COMMIT is true the records appended since the last
+     * checkpoint are indexed, otherwise they are dropped and left as unused
+     * bytes at the end of the data file.
+     * @param commit true to checkpoint the batch first */
+    static void end(boolean commit) {
+        if (commit) {
+            checkpoint();
+        }
+        try {
+            _batch.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _batch = null;
+        _pending = null;
+    }
+
+    /** Writes the entries of appended records to a new segment of the index,
+     * then merges the two newest segments while the older holds at most twice as
+     * many entries as the newer. Each file is written to a temporary file and
+     * renamed into place so readers never see a partial index.
+     * Inside a Transaction the new segments are synced with it, before any branch
+     *  can refer to the appended records, and the segments merged away are only
+     *  deleted once it is committed. Outside one, a merged segment is synced before
+     *  the segments it holds are deleted.
+     * The loaded index files are updated in memory rather than loaded again, so
+     *  lookups after an append do not list the folder, and the segments merged
+     *  away are no longer referred to, which lets their mappings be released.
+     * @param ids sha1 names of the appended records
+     * @param entries entry of each appended record */
+    private static void writeSegment(List<String> ids, List<Entry> entries) {
+        ArrayList<Index> segments = new ArrayList<>(load());
+        Index main = null;
+        if (!segments.isEmpty() && segments.get(0).first == 0) {
+            main = segments.remove(0);
+        }
+        ArrayList<byte[]> keys = new ArrayList<>();
+        for (String id : ids) {
+            keys.add(Utils.fromHex(id));
+        }
+        Transaction tx = Transaction.open();
+        long seq = _nextSegment;
+        segments.add(put(seq, seq, build(Collections.emptyList(), keys,
+                entries), false));
+        ArrayList<File> merged = new ArrayList<>();
+        for (int n = segments.size(); n > 1
+                && segments.get(n - 2).count <= 2 * segments.get(n - 1).count;
+                n = segments.size()) {
+            Index newer = segments.remove(n - 1);
+            Index older = segments.remove(n - 2);
+            segments.add(put(older.first, newer.last, build(
+                    Arrays.asList(older, newer), Collections.emptyList(),
+                    Collections.emptyList()), tx == null));
+            merged.add(older.file);
+            merged.add(newer.file);
+        }
+        if (tx != null) {
+            tx.sync(segments.get(segments.size() - 1).file);
+            tx.sync(dir());
+            tx.afterCommit(() -> merged.forEach(File::delete));
+        } else if (!merged.isEmpty()) {
+            Transaction.force(dir());
+            merged.forEach(File::delete);
+        }
+        ArrayList<Index> indexes = new ArrayList<>();
+        if (main != null) {
+            indexes.add(main);
+        }
+        indexes.addAll(segments);
+        _indexes = indexes;
+        _nextSegment = seq + 1;
+    }
+
+    /** Writes the segment of the appends FIRST to LAST.
+     * @param first number of the first append
+     * @param last number of the last append
+     * @param contents the segment, see build
+     * @param sync true to sync it before it is renamed into place
+     * @return Index the segment, mapped */
+    private static Index put(long first, long last, byte[] contents,
+                             boolean sync) {
+        File f = segmentFile(first, last);
+        File tmp = new File(f.getPath() + ".tmp");
+        Utils.writeContents(tmp, contents);
+        if (sync) {
+            Transaction.force(tmp);
+        }
+        replace(tmp, f);
+        return new Index(f, first, last);
+    }
+
+    /** Returns an index holding the entries of PARTS, then the entries ENTRIES
+     * of the raw sha1s KEYS, sorted by sha1. Of several entries of one object
+     * only the last given is kept.
+     * @param parts files of the index
+     * @param keys raw sha1s
+     * @param entries entry of each of KEYS
+     * @return byte[] the contents of the index */
+    private static byte[] build(List<Index> parts, List<byte[]> keys,
+                                List<Entry> entries) {
+        ArrayList<byte[]> allKeys = new ArrayList<>();
+        ArrayList<Entry> all = new ArrayList<>();
+        for (Index x : parts) {
+            for (int i = 0; i < x.count; i += 1) {
+                allKeys.add(x.keyAt(i));
+                all.add(x.entryAt(i));
+            }
+        }
+        allKeys.addAll(keys);
+        all.addAll(entries);
+        Integer[] order = new Integer[all.size()];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(allKeys::get,
+                Arrays::compareUnsigned));
+        ArrayList<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < order.length; i += 1) {
+            if (i + 1 == order.length || !Arrays.equals(allKeys.get(order[i]),
+                    allKeys.get(order[i + 1]))) {
+                kept.add(order[i]);
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER + kept.size() * ENTRY);
+        out.putInt(MAGIC).putInt(VERSION).putInt(kept.size());
+        for (int i : kept) {
+            Entry e = all.get(i);
+            out.put(allKeys.get(i)).put(e.type).putLong(e.offset)
+                    .putInt(e.length);
+        }
+        return out.array();
+    }
+
+    /** Folds the segments into the main index, as repack and gc do.
+     * The new index is synced and renamed next to the old one, the segments are
+     * deleted and it then replaces the old one, so a compaction cut short is
+     * finished by recover. Only the new index stays loaded. */
+    static void compact() {
+        List<Index> indexes = load();
+        if (segmentFiles().isEmpty()) {
+            return;
+        }
+        File tmp = Utils.join(dir(), "objects.idx.tmp");
+        Utils.writeContents(tmp, build(indexes, Collections.emptyList(),
+                Collections.emptyList()));
+        Transaction.force(tmp);
+        replace(tmp, next(indexFile()));
+        for (File f : segmentFiles()) {
+            f.delete();
+        }
+        replace(next(indexFile()), indexFile());
+        ArrayList<Index> compacted = new ArrayList<>();
+        compacted.add(new Index(indexFile(), 0, 0));
+        _indexes = compacted;
+        _nextSegment = 1;
+    }
+
+    /** Returns the entries of the times file, offsets at even positions
+     * and the times they were appended at odd ones.
+     * @return long[] */
+    private static long[] times() {
+        File f = timesFile();
+        if (!f.isFile()) {
+            return new long[0];
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(f));
+        long[] result = new long[2 * (in.remaining() / TIME_ENTRY)];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = in.getLong();
+        }
+        return result;
+    }
+
+    /** Returns the time the record at OFFSET was appended.
+     * @param times entries of the times file, see times()
+     * @param offset offset of a record in the data file
+     * @return long milliseconds */
+    private static long appendedAt(long[] times, long offset) {
+        int lo = 0;
+        int hi = times.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[2 * mid] <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (hi >= 0) {
+            return times[2 * hi + 1];
+        }
+        return times.length > 0 ? times[1] : dataFile().lastModified();
+    }
+
+    /** Returns the names of the objects appended at or after TIME.
+     * @param time milliseconds
+     * @return List of sha1 names */
+    static List<String> appendedSince(long time) {
+        long[] times = times();
+        ArrayList<String> result = new ArrayList<>();
+        for (Index x : load()) {
+            for (int i = 0; i < x.count; i += 1) {
+                if (appendedAt(times, x.entryAt(i).offset) >= time) {
+                    result.add(x.idAt(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Removes the objects which are not in KEEP from the pack, by copying
+     * the others in their order into a new data file with a new index and
+     * times file, which then replace the old ones. Nothing is changed if
+     * DRY_RUN is true. If no object is removed the segments of the index are
+     * still folded into the main index, see compact.
+     * The new data file is renamed into place first, so a prune cut short
+     *  is finished or undone by the next load, see recover.
+     * @param keep names of the objects to keep
+     * @param dryRun true to only count the objects that would be removed
+     * @return long[] {objects removed, bytes removed} */
+    static long[] prune(Set<String> keep, boolean dryRun) {
+        ArrayList<byte[]> keys = new ArrayList<>();
+        ArrayList<Entry> kept = new ArrayList<>();
+        long removed = 0;
+        long bytes = 0;
+        for (Index x : load()) {
+            for (int i = 0; i < x.count; i += 1) {
+                if (keep.contains(x.idAt(i))) {
+                    keys.add(x.keyAt(i));
+                    kept.add(x.entryAt(i));
+                } else {
+                    removed += 1;
+                    bytes += RECORD_HEADER + x.entryAt(i).length + ENTRY;
+                }
+            }
+        }
+        if (!dryRun && removed > 0) {
+            rewrite(keys, kept);
+        } else if (!dryRun) {
+            compact();
+        }
+        return new long[] {removed, bytes};
+    }
+
+    /** Writes a pack holding only the entries KEPT of the current one,
+     * and puts it in place of the current one.
+     * @param keys raw sha1 of each entry to keep
+     * @param kept the entries to keep */
+    private static void rewrite(List<byte[]> keys, List<Entry> kept) {
+        long[] times = times();
+        Integer[] byOffset = new Integer[kept.size()];
+        for (int i = 0; i < byOffset.length; i += 1) {
+            byOffset[i] = i;
+        }
+        Arrays.sort(byOffset, Comparator.comparingLong(i -> kept.get(i).offset));
+        long[] moved = new long[kept.size()];
+        ByteBuffer stamps = ByteBuffer.allocate(byOffset.length * TIME_ENTRY);
+        long last = Long.MIN_VALUE;
+        try (FileChannel out = FileChannel.open(next(dataFile()).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            FileChannel in = data();
+            long position = 0;
+            for (int i : byOffset) {
+                Entry e = kept.get(i);
+                long time = appendedAt(times, e.offset);
+                if (time != last) {
+                    stamps.putLong(position).putLong(time);
+                    last = time;
+                }
+                moved[i] = position;
+                long size = RECORD_HEADER + e.length;
+                long done = 0;
+                while (done < size) {
+                    done += in.transferTo(e.offset + done, size - done, out);
+                }
+                position += size;
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < moved.length; i += 1) {
+            entries.add(new Entry(kept.get(i).type, moved[i],
+                    kept.get(i).length));
+        }
+        Utils.writeContents(next(indexFile()), build(Collections.emptyList(),
+                keys, entries));
+        Utils.writeContents(next(timesFile()),
+                Arrays.copyOf(stamps.array(), stamps.position()));
+        closeData();
+        replace(next(dataFile()), dataFile());
+        for (File f : segmentFiles()) {
+            f.delete();
+        }
+        replace(next(indexFile()), indexFile());
+        replace(next(timesFile()), timesFile());
+        ArrayList<Index> pruned = new ArrayList<>();
+        pruned.add(new Index(indexFile(), 0, 0));
+        _indexes = pruned;
+        _nextSegment = 1;
+    }
+
+    /** Unmaps the index and closes the data file, so both are opened again
+     * on next use. Called by the Daemon when another process wrote to the pack. */
+    static synchronized void unload() {
+        closeData();
+        _indexes = null;
+        _mappedDir = null;
+    }
+
+    /** Closes the data file opened for reading, if any. */
+    private static synchronized void closeData() {
+        if (_data != null) {
+            try {
+                _data.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        _data = null;
+        _dataFile = null;
+    }
+}
@@ -0,0 +1,521 @@
+package gitlet;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/** An immutable map, kept as a hash array mapped trie.
+ * Every node holds up to 32 entries or sub-nodes picked by 5 bits of the hash
+ *  of the key, so plus and minus copy only the O(log32 n) nodes along the path
+ *  to the key and return a new map sharing every other node with this one.
+ *  A commit can thus take all the files of its parent and change a few of them
+ *  without copying the others.
+ * The map is a read-only java.util.Map: its put and remove throw
+ *  UnsupportedOperationException, plus and minus are used instead.
+ * Keys must not be null.
+ *  @author Samarth Bhutani
+ *  @param <K> type of the keys
+ *  @param <V> type of the values
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+    /** Number of bits of the hash used by one level of the trie. */
+    private static final int BITS = 5;
+    /** Mask of the bits used by one level. */
+    private static final int MASK = (1 << BITS) - 1;
+    /** Largest depth of the trie, collision nodes included. */
+    private static final int MAX_DEPTH = 8;
+    /** Returned by the nodes for a key they do not hold. */
+    private static final Object ABSENT = new Object();
+    /** The empty map. */
+    private static final PersistentMap<Object, Object> EMPTY =
+            new PersistentMap<>(null, 0);
+
+    /** A node of the trie.
+     * Its slots are pairs [key, value], or [null, sub-node] in bitmap nodes. */
+    private abstract static class Node {
+        /** The pairs of the node. */
+        protected final Object[] slots;
+
+        /** Creates a node.
+         * @param slots1 the pairs of the node */
+        Node(Object[] slots1) {
+            this.slots = slots1;
+        }
+
+        /** Returns the value of KEY below this node.
+         * @param shift position of the bits of the hash used by this node
+         * @param hash hash of the key
+         * @param key the key
+         * @return Object or ABSENT if there is no such key */
+        abstract Object get(int shift, int hash, Object key);
+
+        /** Returns this node with KEY mapped to VAL.
+         * @param shift position of the bits of the hash used by this node
+         * @param hash hash of the key
+         * @param key the key
+         * @param val the value
+         * @param added set to true if KEY was not in the node
+         * @return Node, this node if KEY already mapped to VAL */
+        abstract Node plus(int shift, int hash, Object key, Object val,
+                           boolean[] added);
+
+        /** Returns this node without KEY.
+         * @param shift position of the bits of the hash used by this node
+         * @param hash hash of the key
+         * @param key the key
+         * @return Node, this node if KEY was not in it, or null if it is empty */
+        abstract Node minus(int shift, int hash, Object key);
+    }
+
+    /** A node with one slot pair per bit set in its bitmap. */
+    private static final class BitmapNode extends Node {
+        /** Bits of the 32 possible pairs held by the node. */
+        private final int bitmap;
+
+        /** Creates a node.
+         * @param bitmap1 bits of the pairs held
+         * @param slots1 the pairs, in the order of their bits */
+        BitmapNode(int bitmap1, Object[] slots1) {
+            super(slots1);
+            this.bitmap = bitmap1;
+        }
+
+        /** Returns the index of the pair of BIT in the slots.
+         * @param bit the bit of the pair
+         * @return int */
+        private int index(int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object get(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return ABSENT;
+            }
+            int i = index(bit);
+            Object k = slots[i];
+            if (k == null) {
+                return ((Node) slots[i + 1]).get(shift + BITS, hash, key);
+            }
+            return k.equals(key) ? slots[i + 1] : ABSENT;
+        }
+
+        @Override
+        Node plus(int shift, int hash, Object key, Object val,
+                  boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] s = new Object[slots.length + 2];
+                System.arraycopy(slots, 0, s, 0, i);
+                s[i] = key;
+                s[i + 1] = val;
+                System.arraycopy(slots, i, s, i + 2, slots.length - i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, s);
+            }
+            Object k = slots[i];
+            Object v = slots[i + 1];
+            Object replaced;
+            if (k == null) {
+                replaced = ((Node) v).plus(shift + BITS, hash, key, val,
+                        added);
+            } else if (k.equals(key)) {
+                replaced = val;
+            } else {
+                added[0] = true;
+                replaced = pair(shift + BITS, hash(k), k, v, hash, key, val);
+                k = null;
+            }
+            if (replaced == v && k == slots[i]) {
+                return this;
+            }
+            Object[] s = slots.clone();
+            s[i] = k;
+            s[i + 1] = replaced;
+            return new BitmapNode(bitmap, s);
+        }
+
+        @Override
+        Node minus(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = index(bit);
+            Object k = slots[i];
+            if (k == null) {
+                Node child = ((Node) slots[i + 1]).minus(shift + BITS, hash,
+                        key);
+                if (child == slots[i + 1]) {
+                    return this;
+                }
+                if (child != null) {
+                    Object[] s = slots.clone();
+                    s[i + 1] = child;
+                    return new BitmapNode(bitmap, s);
+                }
+            } else if (!k.equals(key)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] s = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, s, 0, i);
+            System.arraycopy(slots, i + 2, s, i, s.length - i);
+            return new BitmapNode(bitmap ^ bit, s);
+        }
+    }
+
+    /** A node holding keys which all have the same hash. */
+    private static final class CollisionNode extends Node {
+        /** The hash of every key of the node. */
+        private final int hash;
+
+        /** Creates a node.
+         * @param hash1 the hash of the keys
+         * @param slots1 the pairs */
+        CollisionNode(int hash1, Object[] slots1) {
+            super(slots1);
+            this.hash = hash1;
+        }
+
+        /** Returns the index of the pair of KEY in the slots.
+         * @param key the key
+         * @return int or -1 if KEY is not in the node */
+        private int find(Object key) {
+            for (int i = 0; i < slots.length; i += 2) {
+                if (slots[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object get(int shift, int hash1, Object key) {
+            int i = find(key);
+            return i < 0 ? ABSENT : slots[i + 1];
+        }
+
+        @Override
+        Node plus(int shift, int hash1, Object key, Object val,
+                  boolean[] added) {
+            if (hash1 != hash) {
+                Node parent = new BitmapNode(1 << ((hash >>> shift) & MASK),
+                        new Object[] {null, this});
+                return parent.plus(shift, hash1, key, val, added);
+            }
+            int i = find(key);
+            if (i >= 0) {
+                if (slots[i + 1] == val) {
+                    return this;
+                }
+                Object[] s = slots.clone();
+                s[i + 1] = val;
+                return new CollisionNode(hash, s);
+            }
+            Object[] s = Arrays.copyOf(slots, slots.length + 2);
+            s[slots.length] = key;
+            s[slots.length + 1] = val;
+            added[0] = true;
+            return new CollisionNode(hash, s);
+        }
+
+        @Override
+        Node minus(int shift, int hash1, Object key) {
+            int i = find(key);
+            if (i < 0) {
+                return this;
+            }
+            if (slots.length == 2) {
+                return null;
+            }
+            Object[] s = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, s, 0, i);
+            System.arraycopy(slots, i + 2, s, i, s.length - i);
+            return new CollisionNode(hash, s);
+        }
+    }
+
+    /** The root of the trie, or null if the map is empty. */
+    private final Node root;
+    /** Number of keys of the map. */
+    private final int size;
+
+    /** Creates a map.
+     * @param root1 root of the trie, or null
+     * @param size1 number of keys */
+    private PersistentMap(Node root1, int size1) {
+        this.root = root1;
+        this.size = size1;
+    }
+
+    /** Returns the empty map.
+     * @param <K> type of the keys
+     * @param <V> type of the values
+     * @return PersistentMap */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /** Returns a map with the keys and values of MAP.
+     * The trie is built in one pass over the keys sorted by hash, creating
+     *  each node once instead of copying a path for every key.
+     * @param map keys and values
+     * @param <K> type of the keys
+     * @param <V> type of the values
+     * @return PersistentMap */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> of(Map<K, V> map) {
+        if (map instanceof PersistentMap) {
+            return (PersistentMap<K, V>) map;
+        }
+        int n = map.size();
+        if (n == 0) {
+            return empty();
+        }
+        Object[] keys = new Object[n];
+        Object[] vals = new Object[n];
+        int[] hashes = new int[n];
+        long[] order = new long[n];
+        int i = 0;
+        for (Map.Entry<K, V> e : map.entrySet()) {
+            keys[i] = Objects.requireNonNull(e.getKey());
+            vals[i] = e.getValue();
+            hashes[i] = hash(keys[i]);
+            order[i] = ((long) (Integer.reverse(hashes[i]) ^ Integer.MIN_VALUE)
+                    << 32) | i;
+            i += 1;
+        }
+        Arrays.sort(order);
+        int[] index = new int[n];
+        for (i = 0; i < n; i += 1) {
+            index[i] = (int) order[i];
+        }
+        if (n == 1) {
+            return new PersistentMap<>(new BitmapNode(
+                    1 << (hashes[0] & MASK), new Object[] {keys[0], vals[0]}),
+                    1);
+        }
+        return new PersistentMap<>(build(keys, vals, hashes, index, 0, n, 0),
+                n);
+    }
+
+    /** Builds the node of the keys INDEX[FROM] to INDEX[TO - 1], of which there
+     * are at least two, and which are sorted so that keys sharing the bits of
+     * their hash below SHIFT + BITS are next to each other.
+     * @param keys the keys
+     * @param vals their values
+     * @param hashes their hashes
+     * @param index positions of the keys in sorted order
+     * @param from first position in INDEX
+     * @param to position after the last in INDEX
+     * @param shift position of the bits of the hash used by the node
+     * @return Node */
+    private static Node build(Object[] keys, Object[] vals, int[] hashes,
+                              int[] index, int from, int to, int shift) {
+        if (hashes[index[from]] == hashes[index[to - 1]]) {
+            Object[] s = new Object[2 * (to - from)];
+            for (int i = from; i < to; i += 1) {
+                s[2 * (i - from)] = keys[index[i]];
+                s[2 * (i - from) + 1] = vals[index[i]];
+            }
+            return new CollisionNode(hashes[index[from]], s);
+        }
+        int bitmap = 0;
+        for (int i = from; i < to; i += 1) {
+            bitmap |= 1 << ((hashes[index[i]] >>> shift) & MASK);
+        }
+        Object[] s = new Object[2 * Integer.bitCount(bitmap)];
+        int start = from;
+        while (start < to) {
+            int chunk = (hashes[index[start]] >>> shift) & MASK;
+            int end = start + 1;
+            while (end < to
+                    && ((hashes[index[end]] >>> shift) & MASK) == chunk) {
+                end += 1;
+            }
+            int bit = 1 << chunk;
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if (end - start == 1) {
+                s[i] = keys[index[start]];
+                s[i + 1] = vals[index[start]];
+            } else {
+                s[i + 1] = build(keys, vals, hashes, index, start, end,
+                        shift + BITS);
+            }
+            start = end;
+        }
+        return new BitmapNode(bitmap, s);
+    }
+
+    /** Returns the hash of KEY, with its high bits mixed into the low ones.
+     * @param key the key
+     * @return int */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** Returns a node holding two keys with different hashes, or the same one.
+     * @param shift position of the bits of the hash used by the node
+     * @param h1 hash of the first key
+     * @param k1 the first key
+     * @param v1 its value
+     * @param h2 hash of the second key
+     * @param k2 the second key
+     * @param v2 its value
+     * @return Node */
+    private static Node pair(int shift, int h1, Object k1, Object v1,
+                             int h2, Object k2, Object v2) {
+        if (h1 == h2) {
+            return new CollisionNode(h1, new Object[] {k1, v1, k2, v2});
+        }
+        boolean[] added = new boolean[1];
+        return new BitmapNode(0, new Object[0])
+                .plus(shift, h1, k1, v1, added)
+                .plus(shift, h2, k2, v2, added);
+    }
+
+    /** Returns this map with KEY mapped to VAL.
+     * @param key the key
+     * @param val the value
+     * @return PersistentMap, this map if KEY already mapped to VAL */
+    public PersistentMap<K, V> plus(K key, V val) {
+        boolean[] added = new boolean[1];
+        Node r = root == null ? new BitmapNode(0, new Object[0]) : root;
+        Node result = r.plus(0, hash(Objects.requireNonNull(key)), key, val,
+                added);
+        if (result == root) {
+            return this;
+        }
+        return new PersistentMap<>(result, added[0] ? size + 1 : size);
+    }
+
+    /** Returns this map without KEY.
+     * @param key the key
+     * @return PersistentMap, this map if KEY is not in it */
+    public PersistentMap<K, V> minus(Object key) {
+        if (root == null) {
+            return this;
+        }
+        Node result = root.minus(0, hash(key), key);
+        if (result == root) {
+            return this;
+        }
+        return result == null ? empty()
+                : new PersistentMap<>(result, size - 1);
+    }
+
+    /** Returns the value of KEY, or ABSENT.
+     * @param key the key
+     * @return Object */
+    private Object find(Object key) {
+        if (root == null || key == null) {
+            return ABSENT;
+        }
+        return root.get(0, hash(key), key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Object val = find(key);
+        return val == ABSENT ? null : (V) val;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != ABSENT;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new Entries();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** Iterates over the entries of the map, depth first. */
+    private final class Entries implements Iterator<Map.Entry<K, V>> {
+        /** Slots of the nodes from the root to the current one. */
+        private final Object[][] stack = new Object[MAX_DEPTH][];
+        /** Position of the next pair in each node of the stack. */
+        private final int[] pos = new int[MAX_DEPTH];
+        /** Index of the current node in the stack, or -1 at the end. */
+        private int depth = -1;
+        /** The next entry, or null at the end. */
+        private Map.Entry<K, V> next;
+
+        /** Starts at the first entry. */
+        Entries() {
+            if (root != null) {
+                depth = 0;
+                stack[0] = root.slots;
+            }
+            advance();
+        }
+
+        /** Moves to the next entry. */
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (depth >= 0) {
+                Object[] slots = stack[depth];
+                int i = pos[depth];
+                if (i >= slots.length) {
+                    depth -= 1;
+                    continue;
+                }
+                pos[depth] = i + 2;
+                if (slots[i] == null) {
+                    depth += 1;
+                    stack[depth] = ((Node) slots[i + 1]).slots;
+                    pos[depth] = 0;
+                } else {
+                    next = new AbstractMap.SimpleImmutableEntry<>(
+                            (K) slots[i], (V) slots[i + 1]);
+                    return;
+                }
+            }
+            next = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> result = next;
+            advance();
+            return result;
+        }
+    }
+}
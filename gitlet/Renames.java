@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/** Finds the files renamed between two commits among the files removed from
+ * the first and added to the second, see Commit.diff.
+ * Files with the same blob are paired first, preferring the same file name, without
+ *  reading them. The others are read once each and summed up by a MinHash sketch of
+ *  K hashes over their chunks, a chunk being a line or at most CHUNK bytes. Sketches
+ *  are cut into BANDS bands which are put in buckets, so only files sharing a whole
+ *  band are compared, and pairs whose sketches agree on at least THRESHOLD of their
+ *  hashes are taken from the most similar down. No two files are ever compared byte
+ *  by byte, and the work grows with the number of files rather than its square.
+ *  @author Samarth Bhutani
+ */
+public class Renames {
+
+    /** Number of hashes in a sketch. */
+    private static final int K = 64;
+    /** Number of bands a sketch is cut into. */
+    private static final int BANDS = 16;
+    /** Number of hashes in a band. */
+    private static final int ROWS = K / BANDS;
+    /** Longest chunk of a file without a newline. */
+    private static final int CHUNK = 64;
+    /** Fraction of equal hashes from which two files are taken as a rename. */
+    private static final double THRESHOLD = 0.5;
+    /** Seeds of the K hash functions. */
+    private static final long[] SEEDS = new long[K];
+
+    static {
+        long x = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < K; i += 1) {
+            x = mix(x + 0x9E3779B97F4A7C15L);
+            SEEDS[i] = x;
+        }
+    }
+
+    /** Returns the files added which are renames of files removed, and have
+     * the same contents, blobs being compared by BlobIds.contentId so that a
+     * blob stored under its old name matches the same blob named by content.
+     * @param changes path : {blob before or null, blob after or null}
+     * @return Map path added : path removed */
+    public static Map<String, String> exact(Map<String, String[]> changes) {
+        TreeMap<String, String> result = new TreeMap<>();
+        HashMap<String, List<String>> removed = new HashMap<>();
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            if (e.getValue()[0] != null && e.getValue()[1] == null) {
+                removed.computeIfAbsent(BlobIds.contentId(e.getValue()[0]),
+                        k -> new ArrayList<>()).add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            if (e.getValue()[0] != null || e.getValue()[1] == null) {
+                continue;
+            }
+            List<String> same = removed.get(BlobIds.contentId(e.getValue()[1]));
+            if (same == null || same.isEmpty()) {
+                continue;
+            }
+            int pick = 0;
+            for (int i = 0; i < same.size(); i += 1) {
+                if (fileName(same.get(i)).equals(fileName(e.getKey()))) {
+                    pick = i;
+                    break;
+                }
+            }
+            result.put(e.getKey(), same.remove(pick));
+        }
+        return result;
+    }
+
+    /** Returns the files added which are renames of files removed, with the
+     * same blob or similar contents.
+     * @param changes path : {blob before or null, blob after or null}
+     * @return Map path added : path removed */
+    public static Map<String, String> detect(Map<String, String[]> changes) {
+        Map<String, String> result = exact(changes);
+        HashSet<String> paired = new HashSet<>(result.values());
+        ArrayList<String> added = new ArrayList<>();
+        ArrayList<String> removed = new ArrayList<>();
+        for (Map.Entry<String, String[]> e : changes.entrySet()) {
+            String[] blobs = e.getValue();
+            if (blobs[0] == null && blobs[1] != null
+                    && !result.containsKey(e.getKey())) {
+                added.add(e.getKey());
+            } else if (blobs[0] != null && blobs[1] == null
+                    && !paired.contains(e.getKey())) {
+                removed.add(e.getKey());
+            }
+        }
+        if (added.isEmpty() || removed.isEmpty()) {
+            return result;
+        }
+        int[][] addedSketches = sketches(added, changes, 1);
+        int[][] removedSketches = sketches(removed, changes, 0);
+        HashMap<Long, List<Integer>> buckets = new HashMap<>();
+        for (int r = 0; r < removed.size(); r += 1) {
+            if (removedSketches[r] == null) {
+                continue;
+            }
+            for (int b = 0; b < BANDS; b += 1) {
+                buckets.computeIfAbsent(band(removedSketches[r], b),
+                        k -> new ArrayList<>()).add(r);
+            }
+        }
+        ArrayList<long[]> pairs = new ArrayList<>();
+        for (int a = 0; a < added.size(); a += 1) {
+            if (addedSketches[a] == null) {
+                continue;
+            }
+            HashSet<Integer> seen = new HashSet<>();
+            for (int b = 0; b < BANDS; b += 1) {
+                List<Integer> bucket = buckets.get(band(addedSketches[a], b));
+                if (bucket == null) {
+                    continue;
+                }
+                for (int r : bucket) {
+                    if (!seen.add(r)) {
+                        continue;
+                    }
+                    int same = 0;
+                    for (int i = 0; i < K; i += 1) {
+                        if (addedSketches[a][i] == removedSketches[r][i]) {
+                            same += 1;
+                        }
+                    }
+                    if (same >= THRESHOLD * K) {
+                        pairs.add(new long[] {same, a, r});
+                    }
+                }
+            }
+        }
+        pairs.sort((x, y) -> x[0] != y[0] ? Long.compare(y[0], x[0])
+                : x[1] != y[1] ? Long.compare(x[1], y[1])
+                : Long.compare(x[2], y[2]));
+        boolean[] addedDone = new boolean[added.size()];
+        boolean[] removedDone = new boolean[removed.size()];
+        for (long[] p : pairs) {
+            int a = (int) p[1];
+            int r = (int) p[2];
+            if (!addedDone[a] && !removedDone[r]) {
+                addedDone[a] = true;
+                removedDone[r] = true;
+                result.put(added.get(a), removed.get(r));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the sketches of the blobs of PATHS, read in parallel.
+     * @param paths paths of the files
+     * @param changes path : {blob before, blob after}
+     * @param side 0 for the blobs before, 1 for the blobs after
+     * @return int[][] the sketch of each path, or null for an empty file */
+    private static int[][] sketches(List<String> paths,
+                                    Map<String, String[]> changes, int side) {
+        int[][] result = new int[paths.size()][];
+        IntStream.range(0, paths.size()).parallel().forEach(i ->
+                result[i] = sketch(Blob.getBlob(
+                        changes.get(paths.get(i))[side]).getContent()));
+        return result;
+    }
+
+    /** Returns the MinHash sketch of TEXT: for each of the K hash functions,
+     * the least hash of the chunks of TEXT.
+     * @param text contents of a file
+     * @return int[] of K hashes, or null if TEXT is empty */
+    static int[] sketch(byte[] text) {
+        if (text.length == 0) {
+            return null;
+        }
+        long[] least = new long[K];
+        Arrays.fill(least, Long.MAX_VALUE);
+        int start = 0;
+        for (int i = 0; i < text.length; i += 1) {
+            if (text[i] == '\n' || i - start + 1 == CHUNK
+                    || i == text.length - 1) {
+                long h = 1125899906842597L;
+                for (int j = start; j <= i; j += 1) {
+                    h = 31 * h + text[j];
+                }
+                for (int k = 0; k < K; k += 1) {
+                    long v = mix(h ^ SEEDS[k]) >>> 1;
+                    if (v < least[k]) {
+                        least[k] = v;
+                    }
+                }
+                start = i + 1;
+            }
+        }
+        int[] result = new int[K];
+        for (int k = 0; k < K; k += 1) {
+            result[k] = (int) (least[k] ^ (least[k] >>> 32));
+        }
+        return result;
+    }
+
+    /** Returns the key of band B of SKETCH.
+     * @param sketch a sketch
+     * @param b index of the band
+     * @return long */
+    private static long band(int[] sketch, int b) {
+        long h = b;
+        for (int i = b * ROWS; i < (b + 1) * ROWS; i += 1) {
+            h = mix(h * 31 + sketch[i]);
+        }
+        return h;
+    }
+
+    /** Returns a well mixed hash of X, the finalizer of SplitMix64.
+     * @param x a value
+     * @return long */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Returns the last component of PATH.
+     * @param path path of a file
+     * @return String */
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
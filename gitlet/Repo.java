@@ -1,10 +1,27 @@
 package gitlet;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.PatternSyntaxException;
 
 /** A Repo class for executing different commands.
  *  @author Samarth Bhutani
@@ -18,16 +35,20 @@ public class Repo {
     /** Staging area folder with sub-files for adding and removing files. */
     private static File _stagingArea;
     /** The file in staging area which contains a StagedObject
-     * the StagedObject keeps track of the files to be added in the next commit. */
+     * the StagedObject keeps track of the files to be added in the next commit,
+     * together with the journal of the StagingLog. */
     private static File _add;
     /** The file in staging area which contains a StagedObject
-     * the StagedObject keeps track of the files to be removed in the next commit. */
+     * the StagedObject keeps track of the files to be removed in the next commit,
+     * together with the journal of the StagingLog. */
     private static File _remove;
     /** Folder which contains all the commits made so far.
      * This only contains the initial commit when a repository is created. */
     private static File _commits;
     /** Folder which contains all the blobs (serialized version of the files). */
     private static File _blobs;
+    /** Folder which contains the pack that commits and blobs are folded into. */
+    private static File _pack;
     /** Folder which contains reference to the heads of the different branches. */
     private static File _branches;
     /** File whose content is an address to the current branch within the branches folder.
@@ -37,19 +58,34 @@ public class Repo {
      * It's content is the sha1 name of the latest commit. */
     private static File _master;
 
+    /** Largest number of threads hashing files for add, twice the number of processors
+     * so that threads waiting on the disk leave the processors busy. */
+    private static final int ADD_THREADS =
+            2 * Runtime.getRuntime().availableProcessors();
+
+    /** Seconds for which gc keeps unreachable objects after they are written,
+     * unless --grace is given, two weeks as in git. */
+    private static final long GC_GRACE = 14 * 24 * 60 * 60;
+
+    /** Blobs written by merge conflicts which go into the pack with the merge commit. */
+    private ArrayList<String> _conflictBlobs = new ArrayList<>();
+
     /** Initiate the general files which are present in a GIT repository
-     * but does not create any of those files or folder. */
+     * but does not create any of those files or folder.
+     * Finishes the updates of a command a crash stopped, see Transaction.recover. */
     public Repo() {
         _cwd = new File(System.getProperty("user.dir"));
         _repo = Utils.join(_cwd, ".gitlet");
         _stagingArea = Utils.join(_repo, "Staging Area");
         _commits = Utils.join(_repo, "Commits");
         _blobs = Utils.join(_repo, "Blobs");
+        _pack = Utils.join(_repo, "Pack");
         _branches = Utils.join(_repo, "Branches");
         _HEAD = Utils.join(_repo, "HEAD");
         _master = Utils.join(_branches, "master");
         _add = Utils.join(_stagingArea, "Add");
         _remove = Utils.join(_stagingArea, "Remove");
+        Transaction.recover();
     }
 
     /** Error checker which ensures that certain functions are not called,
@@ -79,12 +115,12 @@ public class Repo {
         _blobs.mkdir();
         _branches.mkdir();
         _stagingArea.mkdir();
+        _pack.mkdir();
+        ObjectStore.createLayout();
 
         Commit initial = new Commit("initial commit", null);
         String address = Utils.sha1(Utils.serialize(initial));
-        File initial_file = Utils.join(_commits, address);
         try {
-            initial_file.createNewFile();
             _master.createNewFile();
             _HEAD.createNewFile();
             _add.createNewFile();
@@ -92,39 +128,152 @@ public class Repo {
         } catch (IOException exp) {
             throw new IllegalArgumentException();
         }
-        Utils.writeObject(initial_file, initial);
+        ObjectStore.writeCommit(address, initial, new ArrayList<>());
         Utils.writeContents(_master, address);
         Utils.writeContents(_HEAD, _master.toString());
         Utils.writeObject(_add, new StagedObject());
         Utils.writeObject(_remove, new StagedObject());
+        BlobIds.create();
     }
 
-    /** Adds a given file the staging area so that it is saved in the next commit
-     * Reads the StagedObject from the _add file in _stagingArea folder and adds the respective file to it.
+    /** Adds the given files to the staging area so that they are saved in the next commit.
+     * Each operand is a file, a folder whose files are all added,
+     *  or a glob pattern such as *.txt or src/**.java matched against the paths
+     *  of the files of the working directory relative to it.
+     * The current commit is read once, the files are hashed and their new blobs
+     *  stored in parallel by at most ADD_THREADS threads, see StagedObject.stageObject,
+     *  and all of them are appended to the StagingLog with a single write.
+     * Stages nothing if an operand matches no file.
      * Special case: if a file is staged for removal,
-     *  then reads the StagedObject from the _remove file in _stagingArea folder
-     *  and removes it from the list so that it is not staged to be removed anymore.
+     *  the StagingLog removes it from the list so that it is not staged to be removed anymore.
      *  (does not stage it for adding in this case)
-     * @param name : name of the file which is to be added */
-    public void add(String name) {
-        File fileToAdd = Utils.join(_cwd, name);
-        if (!fileToAdd.isFile()) {
-            System.out.println("File does not exist.");
-        } else {
-            StagedObject toBeAdded = Utils.readObject(_add, StagedObject.class);
-            StagedObject toBeRemoved = Utils.readObject(_remove, StagedObject.class);
-            if (toBeRemoved.getStagedItems().remove(name) != null) {
-                Utils.writeObject(_remove, toBeRemoved);
+     * @param names : the files, folders and patterns which are to be added */
+    public void add(String[] names) {
+        TreeSet<String> paths = new TreeSet<>();
+        List<String> working = null;
+        for (String name : names) {
+            boolean found = false;
+            if (is_pattern(name)) {
+                if (working == null) {
+                    working = working_files(_cwd);
+                }
+                PathMatcher matcher =
+                        FileSystems.getDefault().getPathMatcher("glob:" + name);
+                for (String w : working) {
+                    if (matcher.matches(Paths.get(w))) {
+                        paths.add(w);
+                        found = true;
+                    }
+                }
             } else {
-                toBeAdded.stageObject(name);
-                Utils.writeObject(_add, toBeAdded);
+                File f = new File(name).isAbsolute()
+                        ? new File(name) : Utils.join(_cwd, name);
+                String relative = relative_path(f);
+                if (relative != null && f.isFile()) {
+                    paths.add(relative);
+                    found = true;
+                } else if (relative != null && f.isDirectory()) {
+                    paths.addAll(working_files(f));
+                    found = true;
+                }
+            }
+            if (!found) {
+                System.out.println("File does not exist.");
+                return;
+            }
+        }
+        File current_branch = new File(Utils.readContentsAsString(_HEAD));
+        Commit head = Commit.getCommit(
+                Utils.readContentsAsString(current_branch));
+        ArrayList<Map.Entry<String, String>> staged = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(ADD_THREADS, paths.size())));
+        try {
+            ArrayList<Future<String>> blobs = new ArrayList<>();
+            for (String path : paths) {
+                blobs.add(pool.submit(
+                        () -> StagedObject.stageObject(path, head)));
+            }
+            int i = 0;
+            for (String path : paths) {
+                staged.add(new AbstractMap.SimpleEntry<>(path,
+                        blobs.get(i).get()));
+                i += 1;
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        StagingLog.stageAll(staged);
+        StatCache.save();
+    }
+
+    /** Returns true if NAME is a glob pattern rather than the name of a file.
+     * @param name an operand of add
+     * @return boolean */
+    private boolean is_pattern(String name) {
+        for (char c : "*?[{".toCharArray()) {
+            if (name.indexOf(c) >= 0) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /** Returns the path of F relative to the working directory with / as separator,
+     * which is how files are named in commits and in the staging area.
+     * @param f a file or folder
+     * @return String or null if F is outside the working directory or inside .gitlet */
+    private String relative_path(File f) {
+        Path root = _cwd.toPath().toAbsolutePath().normalize();
+        Path path = f.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        Path relative = root.relativize(path);
+        if (relative.startsWith(".gitlet")) {
+            return null;
+        }
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Returns the paths of the files within DIR and its sub-folders relative to the
+     * working directory, in sorted order, leaving out hidden files and folders.
+     * @param dir a folder of the working directory
+     * @return List of paths with / as separator */
+    private List<String> working_files(File dir) {
+        ArrayList<String> result = new ArrayList<>();
+        ArrayList<File> pending = new ArrayList<>();
+        pending.add(dir);
+        while (!pending.isEmpty()) {
+            File[] entries = pending.remove(pending.size() - 1).listFiles();
+            if (entries == null) {
+                continue;
+            }
+            for (File f : entries) {
+                if (f.isHidden()) {
+                    continue;
+                }
+                if (f.isDirectory()) {
+                    pending.add(f);
+                } else if (f.isFile()) {
+                    result.add(relative_path(f));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
     }
 
     /** Makes a new commit.
      * Takes the last commit in the current branch and creates a shallow copy.
-     * Then reads StagedObject from both _add and _remove files
+     * Then reads the staged files from the StagingLog
      *  Adds and removes the respective files from the commit and finally saves it as a new commit
      *  in the commits folder.
      * @param message : the message associated with the new commit. */
@@ -138,41 +287,40 @@ public class Repo {
 
         File current_branch = new File(Utils.readContentsAsString(_HEAD));
         String commit_name = Utils.readContentsAsString(current_branch);
-        File commit_file = Utils.join(_commits, commit_name);
-        Commit commit_old = Utils.readObject(commit_file, Commit.class);
+        Commit commit_old = Commit.getCommit(commit_name);
         Commit commit_new = new Commit(commit_old, message, commit_name);
 
-        StagedObject toBeAdded = Utils.readObject(_add, StagedObject.class);
-        StagedObject toBeRemoved = Utils.readObject(_remove, StagedObject.class);
+        StagedObject toBeAdded = StagingLog.additions();
+        StagedObject toBeRemoved = StagingLog.removals();
+        ArrayList<String> new_blobs =
+                new ArrayList<>(toBeAdded.getStagedItems().values());
 
         if (toBeAdded.getStagedItems().size() != 0) {
-            commit_new.getRefs().putAll(toBeAdded.getStagedItems());
-            toBeAdded.getStagedItems().clear();
-            Utils.writeObject(_add, toBeAdded);
+            for (Map.Entry<String, String> e
+                    : toBeAdded.getStagedItems().entrySet()) {
+                commit_new.putRef(e.getKey(), e.getValue());
+            }
             errocheck = false;
         }
         if (toBeRemoved.getStagedItems().size() != 0) {
             for (String files : toBeRemoved.getStagedItems().keySet()) {
-                commit_new.getRefs().remove(files);
+                commit_new.removeRef(files);
             }
-            toBeRemoved.getStagedItems().clear();
-            Utils.writeObject(_remove, toBeRemoved);
             errocheck = false;
         }
         if (errocheck) {
             System.out.println("No changes added to the commit.");
             return;
         }
+        try (Transaction tx = Transaction.begin()) {
+            StagingLog.clear(tx);
 
-        String address = Utils.sha1(Utils.serialize(commit_new));
-        File commit_new_file = Utils.join(_commits, address);
-        try {
-            commit_new_file.createNewFile();
-        } catch (IOException exp) {
-            throw new IllegalArgumentException();
+            List<Pack.Record> trees = commit_new.writeTree();
+            String address = Utils.sha1(Utils.serialize(commit_new));
+            ObjectStore.writeCommit(address, commit_new, new_blobs, trees);
+            tx.write(current_branch, address);
+            tx.commit();
         }
-        Utils.writeObject(commit_new_file, commit_new);
-        Utils.writeContents(current_branch, address);
     }
 
     /** It can do 2 different tasks based on the input
@@ -198,33 +346,44 @@ public class Repo {
                 System.out.println("Incorrect operands.");
                 return;
             }
-            if (commit_name.length() < 10) {
-                for (File f : _commits.listFiles()) {
-                    if (f.getName().substring(0,commit_name.length()).compareTo(commit_name) == 0) {
-                        commit_name = f.getName();
-                    } else {
-                        System.out.println("No commit with that id exists.");
-                        return;
-                    }
-                }
+            commit_name = resolve_commit(commit_name);
+            if (commit_name == null) {
+                return;
             }
         }
-        File commit_file = Utils.join(_commits, commit_name);
-        if (!commit_file.exists()) {
-            System.out.println("No commit with that id exists.");
-            return;
-        }
-        Commit commit_old = Utils.readObject(commit_file, Commit.class);
+        Commit commit_old = Commit.getCommit(commit_name);
         File k = Utils.join(_cwd, file_name);
-        if (!commit_old.getRefs().containsKey(file_name)) {
+        String blob = commit_old.getRef(file_name);
+        if (blob == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        Utils.writeContents(k, Blob.getBlob(commit_old.getRefs().get(file_name)).getContent());
+        k.getParentFile().mkdirs();
+        Blob.writeTo(blob, k);
+        StatCache.record(file_name, k, blob);
+        StatCache.save();
+    }
+
+    /** Returns the full sha1 name of the only commit whose id starts with COMMIT_ID.
+     * Informs the user and returns null if there is no such commit or more than one.
+     * @param commit_id full or abbreviated id of a commit
+     * @return String */
+    private String resolve_commit(String commit_id) {
+        List<String> found = CommitIndex.lookup(commit_id, 2);
+        if (found.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        }
+        if (found.size() > 1) {
+            System.out.println("Ambiguous commit id.");
+            return null;
+        }
+        return found.get(0);
     }
 
     /** Checks out all the files in the latest commit of the given branch.
      * Checks all cases including conflicts and situation where files are untracked.
+     * Only the files which differ between the two commits are deleted or written, see Checkout.
      * @param inp the input arguments which contains the branch name.
      */
     public void branch_checkout(String[] inp) {
@@ -242,61 +401,29 @@ public class Repo {
             return;
         }
         String commit_name_new = Utils.readContentsAsString(new_branch);
-        File commit_file_new = Utils.join(_commits, commit_name_new);
-        File commit_file_old = Utils.join(_commits, commit_name);
-        Commit commit_old = Utils.readObject(commit_file_old, Commit.class);
-        Commit commit_new = Utils.readObject(commit_file_new, Commit.class);
-        ArrayList<File> filtracker1 = new ArrayList<>();
-        ArrayList<File> filtracker2 = new ArrayList<>();
-        for (File f : _cwd.listFiles()) {
-            if (!f.isHidden()) {
-                filtracker1.add(f);
-                filtracker2.add(f);
-            }
-        }
-        for (String s : commit_old.getRefs().keySet()) {
-            File temp = Utils.join(_cwd, s);
-            filtracker1.remove(temp);
-        }
-        if (filtracker1.size() != 0) {
+        Commit commit_old = Commit.getCommit(commit_name);
+        Commit commit_new = Commit.getCommit(commit_name_new);
+        Checkout checkout = new Checkout(commit_old, commit_new);
+        if (checkout.overwritesUntracked()) {
             System.out.println("There is an untracked file in the way;"
                     + " delete it, or add and commit it first.");
             return;
         }
-        for (File f : filtracker2) {
-            f.delete();
-        }
-        for (String s : commit_new.getRefs().keySet()) {
-            File k = Utils.join(_cwd, s);
-            if (!k.exists()) {
-                try {
-                    k.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-            Utils.writeContents(k,
-                    Blob.getBlob(commit_new.getRefs().get(s)).getContent());
+        checkout.run();
+        try (Transaction tx = Transaction.begin()) {
+            StagingLog.clear(tx);
+            tx.write(_HEAD, new_branch.toString());
+            tx.commit();
         }
-        StagedObject toBeAdded = Utils.readObject(_add, StagedObject.class);
-        StagedObject toBeRemoved = Utils.readObject(_remove,
-                StagedObject.class);
-        toBeAdded.getStagedItems().clear();
-        toBeRemoved.getStagedItems().clear();
-        Utils.writeObject(_add, toBeAdded);
-        Utils.writeObject(_remove, toBeRemoved);
-        Utils.writeContents(_HEAD, new_branch.toString());
     }
 
     /** Prints out the log from the current branch */
     public void log() {
         File current_branch = new File(Utils.readContentsAsString(_HEAD));
         String commit_name = Utils.readContentsAsString(current_branch);
-        File commit_file;
         Commit ans;
         do {
-            commit_file = Utils.join(_commits, commit_name);
-            ans = Utils.readObject(commit_file, Commit.class);
+            ans = Commit.getCommit(commit_name);
             System.out.println("=== ");
             System.out.println("commit " + commit_name);
             System.out.println(ans);
@@ -311,23 +438,22 @@ public class Repo {
      * @param name name of the file to be removed  */
     public void rm(String name) {
         boolean error_check = false;
-        StagedObject toBeAdded = Utils.readObject(_add, StagedObject.class);
-        StagedObject toBeRemoved = Utils.readObject(_remove, StagedObject.class);
-        if (toBeAdded.getStagedItems().remove(name) != null) {
-            Utils.writeObject(_add, toBeAdded);
-            error_check = true;
-        }
+        boolean staged = StagingLog.additions().getStagedItems()
+                .containsKey(name);
         File current_branch = new File(Utils.readContentsAsString(_HEAD));
         String commit_name = Utils.readContentsAsString(current_branch);
-        File commit_file = Utils.join(_commits, commit_name);
-        Commit commit_new = Utils.readObject(commit_file, Commit.class);
-        if (commit_new.getRefs().containsKey(name)) {
-            toBeRemoved.removeObject(name);
-            Utils.writeObject(_remove, toBeRemoved);
+        Commit commit_new = Commit.getCommit(commit_name);
+        if (commit_new.getRef(name) != null) {
+            StagingLog.stageRemoval(name);
             if (Utils.join(_cwd, name).exists()) {
                 Utils.join(_cwd, name).delete();
+                StatCache.forget(name);
+                StatCache.save();
             }
             error_check = true;
+        } else if (staged) {
+            StagingLog.unstageAddition(name);
+            error_check = true;
         }
         if (!error_check) {
             System.out.println("No reason to remove the file.");
@@ -336,28 +462,186 @@ public class Repo {
 
     /** Prints out a log of all the commits ever made, including the ones from different branches */
     public void global_log() {
-        for (File f : _commits.listFiles()) {
-            System.out.println("=== ");
-            System.out.println("commit " + f.getName());
-            System.out.println(Utils.readObject(f, Commit.class));
-            System.out.println();
+        global_log(new String[0]);
+    }
+
+    /** Prints out a log of the commits ever made, read in parallel, see GlobalLog.
+     * Options are --max-count N, --since DATE, --until DATE, --date-order and --reverse,
+     * where dates are yyyy-MM-dd or "yyyy-MM-dd HH:mm:ss".
+     * @param options the operands after global-log */
+    public void global_log(String[] options) {
+        int max_count = -1;
+        Date since = null;
+        Date until = null;
+        boolean date_order = false;
+        boolean reverse = false;
+        for (int i = 0; i < options.length; i += 1) {
+            String option = options[i];
+            if (option.equals("--date-order")) {
+                date_order = true;
+            } else if (option.equals("--reverse")) {
+                reverse = true;
+            } else if (i + 1 == options.length) {
+                System.out.println("Incorrect operands.");
+                return;
+            } else if (option.equals("--max-count")) {
+                try {
+                    max_count = Integer.parseInt(options[++i]);
+                } catch (NumberFormatException excp) {
+                    max_count = -2;
+                }
+                if (max_count < 0) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+            } else if (option.equals("--since") || option.equals("--until")) {
+                Date date = GlobalLog.parseDate(options[++i]);
+                if (date == null) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+                if (option.equals("--since")) {
+                    since = date;
+                } else {
+                    until = date;
+                }
+            } else {
+                System.out.println("Incorrect operands.");
+                return;
+            }
         }
+        new GlobalLog(max_count, since, until, date_order, reverse)
+                .print(ObjectStore.commitIds());
+    }
+
+    /** Prints the differences between two versions of the files, see UnifiedDiff.
+     * Without options, between the current commit and the working directory, for the
+     *  files tracked or staged for addition; with --staged or --cached, between the
+     *  current commit and the staging area; with two commit ids, between those commits.
+     * Files whose blob is the same on both sides are skipped without being read:
+     *  working files are only hashed if their stat data changed, see StatCache, and
+     *  folders with the same tree in both commits are not even read, see Commit.diff.
+     * Between the staging area or two commits, renamed files are found, see Renames,
+     *  and shown as renames rather than as a file removed and another added.
+     * @param options the operands after diff */
+    public void diff(String[] options) {
+        Commit head = Commit.getCommit(Utils.readContentsAsString(
+                new File(Utils.readContentsAsString(_HEAD))));
+        TreeMap<String, String[]> changed = new TreeMap<>();
+        boolean working = false;
+        if (options.length == 0) {
+            working = true;
+            TreeSet<String> names = new TreeSet<>(head.getRefs().keySet());
+            names.addAll(StagingLog.additions().getStagedItems().keySet());
+            for (String name : names) {
+                changed.put(name, new String[] {head.getRef(name), null});
+            }
+        } else if (options.length == 1 && (options[0].equals("--staged")
+                || options[0].equals("--cached"))) {
+            for (Map.Entry<String, String> e : StagingLog.additions()
+                    .getStagedItems().entrySet()) {
+                changed.put(e.getKey(), new String[] {
+                    head.getRef(e.getKey()), e.getValue()});
+            }
+            for (String name : StagingLog.removals().getStagedItems().keySet()) {
+                changed.put(name, new String[] {head.getRef(name), null});
+            }
+        } else if (options.length == 2) {
+            String from = resolve_commit(options[0]);
+            String to = from == null ? null : resolve_commit(options[1]);
+            if (to == null) {
+                return;
+            }
+            changed.putAll(Commit.diff(Commit.getCommit(from),
+                    Commit.getCommit(to)));
+        } else {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        Map<String, String> renames = working ? new HashMap<>()
+                : Renames.detect(changed);
+        HashSet<String> renamed = new HashSet<>(renames.values());
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        UnifiedDiff unified = new UnifiedDiff(out);
+        try {
+            for (Map.Entry<String, String[]> e : changed.entrySet()) {
+                String name = e.getKey();
+                String old = e.getValue()[0];
+                if (renamed.contains(name)) {
+                    continue;
+                }
+                if (renames.containsKey(name)) {
+                    String from = renames.get(name);
+                    unified.file(from, name,
+                            blob_contents(changed.get(from)[0]),
+                            blob_contents(e.getValue()[1]));
+                    continue;
+                }
+                byte[] after;
+                if (working) {
+                    File f = Utils.join(_cwd, name);
+                    if (f.isFile() && BlobIds.sameContent(old,
+                            StatCache.hash(name, f))) {
+                        continue;
+                    }
+                    after = f.isFile() ? Utils.readContents(f) : null;
+                } else if (BlobIds.sameContent(old, e.getValue()[1])) {
+                    continue;
+                } else {
+                    after = blob_contents(e.getValue()[1]);
+                }
+                unified.file(name, blob_contents(old), after);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (working) {
+            StatCache.save();
+        }
+    }
+
+    /** Returns the contents of a blob.
+     * @param blob name of the blob, or null
+     * @return byte[] or null if BLOB is null */
+    private byte[] blob_contents(String blob) {
+        return blob == null ? null : Blob.getBlob(blob).getContent();
     }
 
     /** Tries to find a commit with the given message,
      *  and prints out the details if it finds one.
      * @param message the message associated with the commit one is looking for*/
     public void find(String message) {
-        Commit temp;
-        boolean error = true;
-        for (File f : _commits.listFiles()) {
-            temp = Utils.readObject(f, Commit.class);
-            if (temp.getMessage().compareTo(message) == 0) {
-                System.out.println(f.getName());
-                error = false;
+        print_found(MessageIndex.exact(message));
+    }
+
+    /** Finds the commits whose message matches TEXT in the given way
+     * and prints their names.
+     * @param mode --prefix, --substring or --regex
+     * @param text start of the messages, part of the messages or a regular expression */
+    public void find(String mode, String text) {
+        if (mode.equals("--prefix")) {
+            print_found(MessageIndex.prefix(text));
+        } else if (mode.equals("--substring")) {
+            print_found(MessageIndex.substring(text));
+        } else if (mode.equals("--regex")) {
+            try {
+                print_found(MessageIndex.regex(text));
+            } catch (PatternSyntaxException excp) {
+                System.out.println("Invalid regular expression.");
             }
+        } else {
+            System.out.println("Incorrect operands.");
         }
-        if (error) {
+    }
+
+    /** Prints the names of the commits found by find.
+     * @param found sha1 names of the commits */
+    private void print_found(List<String> found) {
+        for (String f : found) {
+            System.out.println(f);
+        }
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -366,18 +650,24 @@ public class Repo {
      * files that are staged for addition
      * files that are staged for removal
      * the different branches
-     * Does not show modified files not staged for commit.
-     * Does not show untracked files. */
+     * files modified or deleted but not staged for commit
+     * files neither tracked nor staged for addition.
+     * Files are only hashed if their stat data changed since they were
+     *  last hashed or checked out, see StatCache. */
     public void status() {
         ArrayList<String> branches = new ArrayList<>();
         ArrayList<String> staged_files = new ArrayList<>();
         ArrayList<String> removed_files = new ArrayList<>();
+        ArrayList<String> modified_files = new ArrayList<>();
+        ArrayList<String> untracked_files = new ArrayList<>();
         String current_branch = Utils.readContentsAsString(_HEAD);
-        StagedObject toBeAdded = Utils.readObject(_add, StagedObject.class);
-        StagedObject toBeRemoved = Utils.readObject(_remove, StagedObject.class);
+        HashMap<String, String> added = StagingLog.additions().getStagedItems();
+        HashMap<String, String> removed = StagingLog.removals().getStagedItems();
+        Map<String, String> tracked = Commit.getCommit(
+                Utils.readContentsAsString(new File(current_branch))).getRefs();
 
-        staged_files.addAll(toBeAdded.getStagedItems().keySet());
-        removed_files.addAll(toBeRemoved.getStagedItems().keySet());
+        staged_files.addAll(added.keySet());
+        removed_files.addAll(removed.keySet());
         for (File f : _branches.listFiles()) {
             if (current_branch.contains(f.getName())) {
                 branches.add("*" + f.getName());
@@ -385,9 +675,39 @@ public class Repo {
                 branches.add(f.getName());
             }
         }
+        HashSet<String> working = new HashSet<>();
+        for (String name : working_files(_cwd)) {
+            File f = Utils.join(_cwd, name);
+            working.add(name);
+            if (removed.containsKey(name)
+                    || (!tracked.containsKey(name) && !added.containsKey(name))) {
+                untracked_files.add(name);
+                continue;
+            }
+            String blob = StatCache.hash(name, f);
+            String expected = added.containsKey(name)
+                    ? added.get(name) : tracked.get(name);
+            if (!BlobIds.matches(expected, blob)) {
+                modified_files.add(name + " (modified)");
+            }
+        }
+        for (String name : added.keySet()) {
+            if (!working.contains(name)) {
+                modified_files.add(name + " (deleted)");
+            }
+        }
+        for (String name : tracked.keySet()) {
+            if (!working.contains(name) && !removed.containsKey(name)
+                    && !added.containsKey(name)) {
+                modified_files.add(name + " (deleted)");
+            }
+        }
+        StatCache.save();
         Collections.sort(branches);
         Collections.sort(staged_files);
         Collections.sort(removed_files);
+        Collections.sort(modified_files);
+        Collections.sort(untracked_files);
         System.out.println("=== Branches ===");
         for (String s : branches) {
             System.out.println(s);
@@ -404,8 +724,14 @@ public class Repo {
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String s : modified_files) {
+            System.out.println(s);
+        }
         System.out.println();
         System.out.println("=== Untracked Files ===");
+        for (String s : untracked_files) {
+            System.out.println(s);
+        }
         System.out.println();
     }
 
@@ -420,12 +746,10 @@ public class Repo {
         }
         File current_branch = new File(Utils.readContentsAsString(_HEAD));
         String commit_name = Utils.readContentsAsString(current_branch);
-        try {
-            new_branch_file.createNewFile();
-        } catch (IOException e) {
-            e.printStackTrace();
+        try (Transaction tx = Transaction.begin()) {
+            tx.write(new_branch_file, commit_name);
+            tx.commit();
         }
-        Utils.writeContents(new_branch_file, commit_name);
     }
 
     /** Deletes the given branch if possible.
@@ -441,68 +765,164 @@ public class Repo {
             System.out.println("Cannot remove the current branch.");
             return;
         }
-        branch_file.delete();
+        try (Transaction tx = Transaction.begin()) {
+            tx.delete(branch_file);
+            tx.commit();
+        }
+    }
+
+    /** Folds all loose commits and blobs into the pack. */
+    public void repack() {
+        ObjectStore.repack();
+    }
+
+    /** Removes the commits, trees and blobs which cannot be reached from any
+     * branch or from the staging area, see GarbageCollector.
+     * Options are --dry-run, which only prints what would be removed, and
+     *  --grace SECONDS, the age under which unreachable objects are kept.
+     * @param options the operands after gc */
+    public void gc(String[] options) {
+        boolean dry_run = false;
+        long grace = GC_GRACE;
+        for (int i = 0; i < options.length; i += 1) {
+            if (options[i].equals("--dry-run")) {
+                dry_run = true;
+            } else if (options[i].equals("--grace")
+                    && i + 1 < options.length) {
+                try {
+                    grace = Long.parseLong(options[++i]);
+                } catch (NumberFormatException excp) {
+                    grace = -1;
+                }
+                if (grace < 0) {
+                    System.out.println("Incorrect operands.");
+                    return;
+                }
+            } else {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+        new GarbageCollector(System.currentTimeMillis() - grace * 1000,
+                dry_run).run(branch_heads());
+    }
+
+    /** Imports the history described on standard input in the format of
+     * git fast-import, see Importer.
+     * If the import moves the current branch, the branch and the working directory
+     *  are brought to its new head as reset would, unless an untracked file is in
+     *  the way, in which case the current branch is left where it was. */
+    public void import_stream() {
+        File current_branch = new File(Utils.readContentsAsString(_HEAD));
+        String old_head = Utils.readContentsAsString(current_branch);
+        Importer importer = new Importer(System.in, _branches.toPath()
+                .relativize(current_branch.toPath()).toString());
+        importer.run();
+        String new_head = importer.checkedOutHead();
+        if (new_head == null || new_head.equals(old_head)) {
+            return;
+        }
+        Checkout checkout = new Checkout(Commit.getCommit(old_head),
+                Commit.getCommit(new_head));
+        if (checkout.overwritesUntracked()) {
+            System.out.println("There is an untracked file in the way;"
+                    + " delete it, or add and commit it first.");
+            return;
+        }
+        checkout.run();
+        try (Transaction tx = Transaction.begin()) {
+            StagingLog.clear(tx);
+            tx.write(current_branch, new_head);
+            tx.commit();
+        }
+    }
+
+    /** Moves loose objects of a repository with a flat layout into
+     * fanned-out sub-folders. */
+    public void migrate_layout() {
+        ObjectStore.migrateLayout();
+    }
+
+    /** Maps the names of blobs stored before blobs were named by content
+     * to their content names. */
+    public void migrate_blob_ids() {
+        BlobIds.migrate();
+    }
+
+    /** Writes the reachability bitmaps for the heads of all branches. */
+    public void write_bitmaps() {
+        BitmapIndex.write(branch_heads());
+    }
+
+    /** Prints how many commits and blobs are stored
+     * and how many of them are reachable from some branch. */
+    public void count_objects() {
+        int commits = ObjectStore.commitIds().size();
+        int trees = Pack.ids(Pack.TREE).size();
+        int all = ObjectStore.allIds().size();
+        int reachable = BitmapIndex.reachable(branch_heads()).count();
+        System.out.println("Commits: " + commits);
+        System.out.println("Trees: " + trees);
+        System.out.println("Blobs: " + (all - commits - trees));
+        System.out.println("Reachable: " + reachable);
+        System.out.println("Unreachable: " + (all - reachable));
+    }
+
+    /** Prints how many objects are reachable from one branch but not another.
+     * @param branch_name branch whose objects are counted
+     * @param other_name branch whose objects are left out */
+    public void count_objects(String branch_name, String other_name) {
+        File branch_file = Utils.join(_branches, branch_name);
+        File other_file = Utils.join(_branches, other_name);
+        if (!branch_file.exists() || !other_file.exists()) {
+            System.out.println("A branch with that name does not exist.");
+            return;
+        }
+        ArrayList<String> heads = new ArrayList<>();
+        heads.add(Utils.readContentsAsString(branch_file));
+        ArrayList<String> others = new ArrayList<>();
+        others.add(Utils.readContentsAsString(other_file));
+        int count = BitmapIndex.reachable(heads)
+                .andNot(BitmapIndex.reachable(others)).count();
+        System.out.println(count + " objects in " + branch_name
+                + " but not in " + other_name + ".");
+    }
+
+    /** Returns the sha1 names of the heads of all branches.
+     * @return ArrayList */
+    private ArrayList<String> branch_heads() {
+        ArrayList<String> heads = new ArrayList<>();
+        for (File f : _branches.listFiles()) {
+            heads.add(Utils.readContentsAsString(f));
+        }
+        return heads;
     }
 
     /** Resets the current directory into the same state as the given commit.
      * Informs the user if there is an untracked file in the way before conducting the process
-     * @param  commit_new_name file*/
-    public void reset(String commit_new_name) {
-        File commit_new_file = Utils.join(_commits, commit_new_name);
-        if (!commit_new_file.exists()) {
-            System.out.println("No commit with that id exists.");
+     * @param  commit_id full or abbreviated id of the commit*/
+    public void reset(String commit_id) {
+        String commit_new_name = resolve_commit(commit_id);
+        if (commit_new_name == null) {
             return;
         }
         File current_branch = new File(Utils.readContentsAsString(_HEAD));
         String commit_old_name = Utils.readContentsAsString(current_branch);
-        File commit_old_file = Utils.join(_commits, commit_old_name);
-        Commit commit_old = Utils.readObject(commit_old_file, Commit.class);
-        Commit commit_new = Utils.readObject(commit_new_file, Commit.class);
-
-        ArrayList<File> filtracker1 = new ArrayList<>();
-        ArrayList<File> filtracker2 = new ArrayList<>();
-        for (File f : _cwd.listFiles()) {
-            if (!f.isHidden()) {
-                filtracker1.add(f);
-                filtracker2.add(f);
-            }
-        }
-        for (String s : commit_old.getRefs().keySet()) {
-            File temp = Utils.join(_cwd, s);
-            filtracker1.remove(temp);
-        }
-        for (File f: filtracker1) {
-            if (commit_new.getRefs().keySet().contains(f.getName())) {
-                System.out.println("There is an untracked file in the way;"
-                        + " delete it, or add and commit it first.");
-                return;
-            }
-        }
-        StagedObject toBeAdded = Utils.readObject(_add, StagedObject.class);
-        StagedObject toBeRemoved = Utils.readObject(_remove, StagedObject.class);
-        toBeAdded.getStagedItems().clear();
-        toBeRemoved.getStagedItems().clear();
-        Utils.writeObject(_add, toBeAdded);
-        Utils.writeObject(_remove, toBeRemoved);
+        Commit commit_old = Commit.getCommit(commit_old_name);
+        Commit commit_new = Commit.getCommit(commit_new_name);
 
-        for (String s : commit_new.getRefs().keySet()) {
-            File k = Utils.join(_cwd, s);
-            if (!k.exists()) {
-                try {
-                    k.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            } else {
-                filtracker2.remove(k);
-            }
-            Utils.writeContents(k,
-                    Blob.getBlob(commit_new.getRefs().get(s)).getContent());
+        Checkout checkout = new Checkout(commit_old, commit_new);
+        if (checkout.overwritesUntracked()) {
+            System.out.println("There is an untracked file in the way;"
+                    + " delete it, or add and commit it first.");
+            return;
         }
-        for (File f : filtracker2) {
-            f.delete();
+        checkout.run();
+        try (Transaction tx = Transaction.begin()) {
+            StagingLog.clear(tx);
+            tx.write(current_branch, commit_new_name);
+            tx.commit();
         }
-        Utils.writeContents(current_branch, commit_new_name);
     }
 
     /** Merges the current branch with the given branch.
@@ -510,105 +930,152 @@ public class Repo {
      * Current - current branch or commit
      * Given - Given branch or commit with which it has to be merged with.
      * Split - The split commit betweent the two commits to be merged.
-     * @param given_branch_name name of the branch with which one has to merge. */
+     * @param given_branch_name name of the branch with which one has to merge,
+     *                          or the full or abbreviated id of a commit. */
     public void merge(String given_branch_name) {
 
         String current_branch = Utils.readContentsAsString(_HEAD);
         String current_commit_name = Utils.readContentsAsString(new File(current_branch));
-        File current_commit_file = Utils.join(_commits, current_commit_name);
-        Commit current_commit = Utils.readObject(current_commit_file, Commit.class);
-        HashMap<String, String> refcurr = new HashMap<>();
-        refcurr.putAll(current_commit.getRefs());
+        Commit current_commit = Commit.getCommit(current_commit_name);
 
         File given_branch_file = Utils.join(_branches, given_branch_name);
-        String given_commit_name = Utils.readContentsAsString(given_branch_file);
-        File given_commit_file = Utils.join(_commits, given_commit_name);
-        Commit given_commit = Utils.readObject(given_commit_file, Commit.class);
-        HashMap<String, String> refgiven = new HashMap<>();
-        refgiven.putAll(given_commit.getRefs());
+        String given_commit_name;
+        if (given_branch_file.exists()) {
+            given_commit_name = Utils.readContentsAsString(given_branch_file);
+        } else {
+            List<String> found = CommitIndex.lookup(given_branch_name, 2);
+            if (found.size() != 1) {
+                System.out.println(found.isEmpty()
+                        ? "A branch with that name does not exist."
+                        : "Ambiguous commit id.");
+                return;
+            }
+            given_commit_name = found.get(0);
+        }
+        Commit given_commit = Commit.getCommit(given_commit_name);
 
-        merge_error_check(given_branch_file, current_commit_file, given_commit_file);
+        merge_error_check(current_commit_name, given_commit_name);
 
         String current_branch_name = Paths.get(current_branch).getFileName().toString();
         String split_commit_name = Commit.findSplit(current_commit_name, given_commit_name);
-        File split_commit_file = Utils.join(_commits, split_commit_name);
-        Commit split_commit = Utils.readObject(split_commit_file, Commit.class);
+        Commit split_commit = Commit.getCommit(split_commit_name);
+        HashMap<String, String> refcurr = new HashMap<>();
+        HashMap<String, String> refgiven = new HashMap<>();
         HashMap<String, String> refsplit = new HashMap<>();
-        refsplit.putAll(split_commit.getRefs());
+        HashMap<String, String> moved = new HashMap<>();
+        changed_refs(split_commit, current_commit, given_commit,
+                refsplit, refcurr, refgiven, moved);
 
         String message = "Merged " + given_branch_name + " into " + current_branch_name + ".";
         Commit new_commit = new MergeCommit(current_commit, message, current_commit_name, given_commit_name);
-
-        ArrayList<String> checker = new ArrayList<>();
-        for (File f: _cwd.listFiles()) {
-            if (!f.isHidden()) {
-                checker.add(f.getName());
-            }
+        for (Map.Entry<String, String> e : moved.entrySet()) {
+            new_commit.putRef(e.getKey(), e.getValue());
         }
+
         for (String f : refcurr.keySet()) {
             merge_cases(f, new_commit, refcurr, refgiven, refsplit);
-            checker.remove(f); refgiven.remove(f); refsplit.remove(f);
+            refgiven.remove(f); refsplit.remove(f);
         }
         for (String f : refgiven.keySet()) {
             if (refsplit.containsKey(f)) {
-                if (refsplit.get(f).compareTo(refgiven.get(f)) != 0) {
-                    merge_conflict(null, refgiven.get(f), f, new_commit);
+                if (!BlobIds.sameContent(refsplit.get(f), refgiven.get(f))) {
+                    merge_conflict(refsplit.get(f), null, refgiven.get(f), f,
+                            new_commit);
                 }
             } else {
-                new_commit.getRefs().put(f, refgiven.get(f));
+                new_commit.putRef(f, refgiven.get(f));
             }
             refsplit.remove(f);
         }
-        if (!checker.isEmpty()) {
+        List<Pack.Record> trees = new_commit.writeTree();
+        Checkout checkout = new Checkout(current_commit, new_commit);
+        if (checkout.overwritesUntracked()) {
             System.out.println("There is an untracked file in the way;"
                     + " delete it, or add and commit it first.");
             return;
         }
 
         String new_commit_name = Utils.sha1(Utils.serialize(new_commit));
-        File new_commit_file = Utils.join(_commits, new_commit_name);
-        try {
-            new_commit_file.createNewFile();
-        } catch (IOException exp) {
-            throw new IllegalArgumentException();
+        try (Transaction tx = Transaction.begin()) {
+            ObjectStore.writeCommit(new_commit_name, new_commit,
+                    _conflictBlobs, trees);
+            checkout.run();
+            tx.write(new File(current_branch), new_commit_name);
+            tx.commit();
         }
-        Utils.writeObject(new_commit_file, new_commit);
-        Utils.writeContents(new File(current_branch), new_commit_name);
-        for (File f: _cwd.listFiles()) {
-            if (!refsplit.containsKey(f.getName()) && !f.isHidden()) {
-                f.delete();
+    }
+
+    /** Fills the maps of files:blobs of the split, current and given commits of a merge
+     * with the files changed between the split commit and either of the other two.
+     * Files changed on neither side stay as they are in the current commit, so they are
+     *  left out, and between commits with trees their folders are not even read.
+     * Renames on either side are followed, see Renames: a file one side renamed and the
+     *  other changed is merged under its new name, as if the current commit had it there,
+     *  and left removed under its old name.
+     * @param split the commit at the split point
+     * @param curr the current commit
+     * @param given the commit to be merged in
+     * @param refsplit filled with the changed files of SPLIT
+     * @param refcurr filled with the changed files of CURR
+     * @param refgiven filled with the changed files of GIVEN
+     * @param moved filled with the files of CURR moved to the new name GIVEN gave them,
+     *              new name : blob, to be put in the merge commit */
+    private void changed_refs(Commit split, Commit curr, Commit given,
+                              HashMap<String, String> refsplit,
+                              HashMap<String, String> refcurr,
+                              HashMap<String, String> refgiven,
+                              HashMap<String, String> moved) {
+        Map<String, String[]> ours = Commit.diff(split, curr);
+        Map<String, String[]> theirs = Commit.diff(split, given);
+        TreeSet<String> changed = new TreeSet<>(ours.keySet());
+        changed.addAll(theirs.keySet());
+        for (String f : changed) {
+            String[] o = ours.get(f);
+            String[] t = theirs.get(f);
+            String base = o != null ? o[0] : t[0];
+            String mine = o != null ? o[1] : base;
+            String other = t != null ? t[1] : base;
+            if (base != null) {
+                refsplit.put(f, base);
+            }
+            if (mine != null) {
+                refcurr.put(f, mine);
+            }
+            if (other != null) {
+                refgiven.put(f, other);
             }
         }
-        for (String s : new_commit.getRefs().keySet()) {
-            File k = Utils.join(_cwd, s);
-            if (!k.exists()) {
-                try {
-                    k.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        for (Map.Entry<String, String> r : Renames.detect(theirs).entrySet()) {
+            String[] o = ours.get(r.getValue());
+            if (o == null || o[1] == null || ours.containsKey(r.getKey())) {
+                continue;
             }
-            Utils.writeContents(k,
-                    Blob.getBlob(new_commit.getRefs().get(s)).getContent());
+            refsplit.put(r.getKey(), o[0]);
+            refcurr.put(r.getKey(), o[1]);
+            moved.put(r.getKey(), o[1]);
+            refcurr.put(r.getValue(), o[0]);
+        }
+        for (Map.Entry<String, String> r : Renames.detect(ours).entrySet()) {
+            String[] t = theirs.get(r.getValue());
+            if (t == null || t[1] == null || theirs.containsKey(r.getKey())) {
+                continue;
+            }
+            refsplit.put(r.getKey(), t[0]);
+            refgiven.put(r.getKey(), t[1]);
+            refsplit.remove(r.getValue());
+            refcurr.remove(r.getValue());
+            refgiven.remove(r.getValue());
         }
     }
 
     /** Checks for certain errors that might arise while merging.
-     * @param given_branch_file The Branch to be merged with.
-     * @param current_commit_file The current commit.
-     * @param given_commit_file The commit to be merged with.*/
-    public void merge_error_check(File given_branch_file,
-                                  File current_commit_file,
-                                  File given_commit_file) {
-        StagedObject toBeAdded = Utils.readObject(_add, StagedObject.class);
-        StagedObject toBeRemoved = Utils.readObject(_remove, StagedObject.class);
-        if (!given_branch_file.exists()) {
-            System.out.println("A branch with that name does not exist.");
-        } else if (!toBeAdded.getStagedItems().isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-        } else if (!toBeRemoved.getStagedItems().isEmpty()) {
+     * @param current_commit_name The current commit.
+     * @param given_commit_name The commit to be merged with.*/
+    public void merge_error_check(String current_commit_name,
+                                  String given_commit_name) {
+        if (!StagingLog.isEmpty()) {
             System.out.println("You have uncommitted changes.");
-        } else if (current_commit_file.equals(given_commit_file)) {
+        } else if (current_commit_name.equals(given_commit_name)) {
             System.out.println("Cannot merge a branch with itself.");
         }
     }
@@ -627,42 +1094,49 @@ public class Repo {
 
         if (!refsplit.containsKey(f)) {
             if (refgiven.containsKey(f)
-                    && refcurr.get(f).compareTo(refgiven.get(f)) != 0) {
-                merge_conflict(refcurr.get(f), refgiven.get(f), f, newC);
+                    && !BlobIds.sameContent(refcurr.get(f), refgiven.get(f))) {
+                merge_conflict(null, refcurr.get(f), refgiven.get(f), f,
+                        newC);
             }
         } else {
             if (refgiven.containsKey(f)
-                    && refsplit.get(f).compareTo(refcurr.get(f)) == 0
-                    && refgiven.get(f).compareTo(refcurr.get(f)) != 0) {
-                newC.getRefs().put(f, refgiven.get(f));
+                    && BlobIds.sameContent(refsplit.get(f), refcurr.get(f))
+                    && !BlobIds.sameContent(refgiven.get(f), refcurr.get(f))) {
+                newC.putRef(f, refgiven.get(f));
             }
             if (!refgiven.containsKey(f)
-                    && refcurr.get(f).compareTo(refsplit.get(f)) == 0) {
-                newC.getRefs().remove(f);
+                    && BlobIds.sameContent(refcurr.get(f), refsplit.get(f))) {
+                newC.removeRef(f);
             }
             if (refgiven.containsKey(f)
-                    && refsplit.get(f).compareTo(refcurr.get(f)) != 0
-                    && refcurr.get(f).compareTo(refgiven.get(f)) != 0
-                    && refsplit.get(f).compareTo(refgiven.get(f)) != 0) {
-                merge_conflict(refcurr.get(f), refgiven.get(f), f, newC);
+                    && !BlobIds.sameContent(refsplit.get(f), refcurr.get(f))
+                    && !BlobIds.sameContent(refcurr.get(f), refgiven.get(f))
+                    && !BlobIds.sameContent(refsplit.get(f), refgiven.get(f))) {
+                merge_conflict(refsplit.get(f), refcurr.get(f),
+                        refgiven.get(f), f, newC);
             }
             if (!refgiven.containsKey(f)
-                    && refcurr.get(f).compareTo(refsplit.get(f)) != 0) {
-                merge_conflict(refcurr.get(f), null, f, newC);
+                    && !BlobIds.sameContent(refcurr.get(f), refsplit.get(f))) {
+                merge_conflict(refsplit.get(f), refcurr.get(f), null, f,
+                        newC);
             }
         }
     }
 
     /** Handles merge conflicts when they occur by creating a new type of blob
      * It merges the two given files, the one being merged into at the top and saves it as a new blob.
+     * When both files exist their lines are merged against the file at the split point,
+     *  see LineMerge, and only the lines both sides changed differently are marked; if
+     *  there are none the merged file is taken without reporting a conflict.
+     * @param split_blob the blob at the split point, or null if there was none.
      * @param current_blob the current blob to which the other one will be merged into.
      * @param given_blob the given blob which is to be merged into the current blob.
      * @param file_name Name of the file associated with that blob.
      * @param new_commit The new commit in which the new blob will be saved.
      */
-    public void merge_conflict ( String current_blob, String given_blob,
-                                 String file_name, Commit new_commit) {
-        System.out.println("Encountered a merge conflict.");
+    public void merge_conflict ( String split_blob, String current_blob,
+                                 String given_blob, String file_name,
+                                 Commit new_commit) {
         Blob a = null;
         Blob b = null;
         if (current_blob != null) {
@@ -671,18 +1145,24 @@ public class Repo {
         if (given_blob != null) {
             b = Blob.getBlob(given_blob);
         }
-        Blob c = new Blob(a, b);
-        String new_blob_name = Utils.sha1(Utils.serialize(c));
-        File new_blob_file = Utils.join(_blobs, new_blob_name);
-        if (!new_blob_file.exists()) {
-            try {
-                new_blob_file.createNewFile();
-            } catch (IOException exp) {
-                throw new IllegalArgumentException();
+        Blob c;
+        if (a != null && b != null) {
+            byte[] base = split_blob == null ? new byte[0]
+                    : Blob.getBlob(split_blob).getContent();
+            LineMerge lines = new LineMerge(base, a.getContent(),
+                    b.getContent());
+            if (lines.hasConflicts()) {
+                System.out.println("Encountered a merge conflict.");
             }
-            Utils.writeObject(new_blob_file, c);
+            c = new Blob(lines.getContents(), 0);
+        } else {
+            System.out.println("Encountered a merge conflict.");
+            c = new Blob(a, b);
         }
-        new_commit.getRefs().put(file_name, new_blob_name);
+        String new_blob_name = c.getId();
+        ObjectStore.writeLoose(ObjectStore.BLOBS, new_blob_name, c);
+        _conflictBlobs.add(new_blob_name);
+        new_commit.putRef(file_name, new_blob_name);
     }
 
 
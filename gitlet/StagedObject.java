@@ -1,7 +1,6 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 
@@ -10,43 +9,63 @@ import java.util.HashMap;
  */
 public class StagedObject implements Serializable {
 
+    /** Fixed so that objects written before this class changed stay readable. */
+    private static final long serialVersionUID = -2306181716436431724L;
+
     /** Hashmap for saving blobs to file name.
      * File name : blob_name
-     * blob_name is the sha1 name after serialization*/
+     * blob_name is the sha1 name of the contents, see Blob.hashFile*/
     private HashMap<String, String> stagedItems = new HashMap<>();
 
-    /** Stage an object for adding onto the next commit.
-     * Creates a blob out of the file to be added and adds it to stagedItems if possible.
+    /** Creates an empty StagedObject. */
+    public StagedObject() {
+    }
+
+    /** Creates a StagedObject holding decoded items.
+     * @param items file name : blob name, or "" for removals */
+    StagedObject(HashMap<String, String> items) {
+        this.stagedItems = items;
+    }
+
+    /** Prepares an object for adding onto the next commit.
+     * Hashes the file to be added and stores its blob if it is new.
      * Special case: if the previous commit already has the same version of the file,
-     *  then remove the file from staging area if possible
-     * @param file_name name of the file to be added*/
-    public void stageObject(String file_name) {
+     *  then returns null so that the file is removed from staging area if possible.
+     *  This check costs one streaming pass over the file and does not build a Blob,
+     *  and no pass at all if the StatCache shows the file unchanged since it was last hashed.
+     * A new blob is stored as a delta against the version of the same file in that commit
+     *  when this saves space, see Blob.storedForm.
+     * Files over Blob.STREAM_THRESHOLD are hashed and stored in one streaming pass instead.
+     * Safe to call from several threads at once, see Repo.add.
+     * @param file_name path of the file to be added relative to the working directory
+     * @param head the current commit
+     * @return String name of the blob to be staged, or null */
+    public static String stageObject(String file_name, Commit head) {
 
         File cwd = new File(System.getProperty("user.dir"));
         File file_toBeStaged = Utils.join(cwd, file_name);
-        Blob blob_new = new Blob(file_toBeStaged);
-        String blob_name = Utils.sha1(Utils.serialize(blob_new));
-
-        File head = Utils.join(cwd, ".gitlet", "HEAD");
-        File current_branch = new File(Utils.readContentsAsString(head));
-        String commit_name = Utils.readContentsAsString(current_branch);
-        File commit_file = Utils.join(cwd, ".gitlet", "Commits", commit_name);
-        Commit commit_new = Utils.readObject(commit_file, Commit.class);
-        if (commit_new.getRefs().get(file_name) != null
-                && commit_new.getRefs().get(file_name).equals(blob_name)) {
-            this.stagedItems.remove(file_name);
-        } else {
-            File blob_file = Utils.join(cwd, ".gitlet", "Blobs", blob_name);
-            if (!blob_file.exists()) {
-                try {
-                    blob_file.createNewFile();
-                } catch (IOException exp) {
-                    throw new IllegalArgumentException();
-                }
-                Utils.writeObject(blob_file, blob_new);
+        boolean streamed = file_toBeStaged.length() > Blob.STREAM_THRESHOLD;
+        String blob_name = StatCache.lookup(file_name, file_toBeStaged);
+        if (blob_name == null && streamed) {
+            blob_name = Blob.storeStreamed(file_toBeStaged);
+            StatCache.record(file_name, file_toBeStaged, blob_name);
+        } else if (blob_name == null) {
+            blob_name = StatCache.hash(file_name, file_toBeStaged);
+        }
+        String current = head.getRef(file_name);
+        if (BlobIds.matches(current, blob_name)) {
+            return null;
+        }
+        if (ObjectStore.isNew(ObjectStore.BLOBS, blob_name)) {
+            if (streamed) {
+                Blob.storeStreamed(file_toBeStaged);
+            } else {
+                Blob blob_new = new Blob(file_toBeStaged);
+                ObjectStore.writeLoose(ObjectStore.BLOBS, blob_name,
+                        Blob.storedForm(blob_new, current));
             }
-            this.stagedItems.put(file_name, blob_name);
         }
+        return blob_name;
     }
 
     /** Stages a file to be removed from the next commit.
@@ -0,0 +1,296 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The staging area as a journal of changes on top of the StagedObjects
+ * in the Add and Remove files of the staging area folder.
+ * Staging a file appends one record to .gitlet/Staging Area/Journal
+ *  instead of reading and rewriting both StagedObjects, so staging N files
+ *  costs O(N) and add does not read the staging area at all.
+ *  The staged files are the StagedObjects with the journal replayed over them.
+ *  The journal is folded into the StagedObjects once it grows past JOURNAL_LIMIT
+ *  and is dropped whenever the staging area is cleared, as by commit,
+ *  together with the other updates of the command, see Transaction. Both are
+ *  done in a Transaction which replaces the StagedObjects and deletes the journal
+ *  at once, since replaying the journal twice does not give the same staging area.
+ * A record is [kind : 1 byte][path length : 4 bytes][UTF-8 path]
+ *  followed by the raw sha1 of the blob for STAGE records.
+ *  A last record cut short by a crash while it was appended is dropped
+ *  from the journal the next time it is read.
+ *  @author Samarth Bhutani
+ */
+public class StagingLog {
+
+    /** Stages a blob for addition, or only unstages a removal if there is one,
+     *  as add does for a file staged for removal. */
+    private static final byte STAGE = 1;
+    /** Unstages a removal if there is one, otherwise unstages an addition. */
+    private static final byte UNSTAGE = 2;
+    /** Unstages an addition and stages the file for removal. */
+    private static final byte REMOVE = 3;
+    /** Unstages an addition. */
+    private static final byte UNADD = 4;
+    /** Size of the journal past which it is folded into the StagedObjects. */
+    private static final long JOURNAL_LIMIT = 1 << 20;
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+
+    /** Files staged for addition, once loaded. */
+    private static StagedObject _additions;
+    /** Files staged for removal, once loaded. */
+    private static StagedObject _removals;
+    /** The journal the staged files were loaded from. */
+    private static File _loaded;
+
+    /** Returns the folder of the staging area.
+     * @return File */
+    private static File folder() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "Staging Area");
+    }
+
+    /** Returns the journal.
+     * @return File */
+    private static File journal() {
+        return Utils.join(folder(), "Journal");
+    }
+
+    /** Reads the StagedObjects and replays the journal over them
+     * if this was not done yet, folding the journal in if it is too large
+     * and no Transaction is being built, whose updates it would join. */
+    private static void load() {
+        File f = journal();
+        if (f.equals(_loaded)) {
+            return;
+        }
+        _additions = Utils.readObject(Utils.join(folder(), "Add"),
+                StagedObject.class);
+        _removals = Utils.readObject(Utils.join(folder(), "Remove"),
+                StagedObject.class);
+        _loaded = f;
+        if (!f.isFile()) {
+            return;
+        }
+        byte[] data = Utils.readContents(f);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        byte[] raw = new byte[SHA_BYTES];
+        while (complete(in)) {
+            byte kind = in.get();
+            byte[] path = new byte[in.getInt()];
+            in.get(path);
+            String blob = null;
+            if (kind == STAGE) {
+                in.get(raw);
+                blob = Utils.toHex(raw);
+            }
+            apply(kind, new String(path, StandardCharsets.UTF_8), blob);
+        }
+        if (in.hasRemaining()) {
+            truncate(f, in.position());
+        } else if (data.length > JOURNAL_LIMIT && Transaction.open() == null) {
+            write();
+        }
+    }
+
+    /** Returns true if IN holds a whole record at its position.
+     * @param in the journal
+     * @return boolean */
+    private static boolean complete(ByteBuffer in) {
+        if (in.remaining() < 5) {
+            return false;
+        }
+        int p = in.position();
+        int length = in.getInt(p + 1);
+        return length >= 0 && in.remaining() - 5 - (in.get(p) == STAGE
+                ? SHA_BYTES : 0) >= length;
+    }
+
+    /** Cuts the journal F to its first SIZE bytes, dropping a record a crash
+     * left partly written, so records appended later follow whole ones.
+     * @param f the journal
+     * @param size length of its whole records */
+    private static void truncate(File f, long size) {
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE)) {
+            ch.truncate(size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Drops the staged files held in memory, so the next use replays the
+     * StagedObjects and the journal again. */
+    static void unload() {
+        _loaded = null;
+    }
+
+    /** Applies one record to the loaded staged files.
+     * @param kind kind of the record
+     * @param name name of the file
+     * @param blob name of the blob for STAGE records, otherwise null */
+    private static void apply(byte kind, String name, String blob) {
+        HashMap<String, String> added = _additions.getStagedItems();
+        HashMap<String, String> removed = _removals.getStagedItems();
+        switch (kind) {
+        case STAGE:
+            if (removed.remove(name) == null) {
+                added.put(name, blob);
+            }
+            break;
+        case UNSTAGE:
+            if (removed.remove(name) == null) {
+                added.remove(name);
+            }
+            break;
+        case REMOVE:
+            added.remove(name);
+            _removals.removeObject(name);
+            break;
+        case UNADD:
+            added.remove(name);
+            break;
+        default:
+            throw new IllegalArgumentException("corrupt staging journal");
+        }
+    }
+
+    /** Appends a record to the journal, and applies it to the staged files
+     * if they are loaded.
+     * @param kind kind of the record
+     * @param name name of the file
+     * @param blob name of the blob for STAGE records, otherwise null */
+    private static void append(byte kind, String name, String blob) {
+        ArrayList<Map.Entry<String, String>> one = new ArrayList<>();
+        one.add(new AbstractMap.SimpleEntry<>(name, blob));
+        append(kind, one);
+    }
+
+    /** Appends one record per file of FILES to the journal with a single write,
+     * and applies them to the staged files if they are loaded.
+     * @param kind kind of the records, or STAGE for STAGE and UNSTAGE records
+     * @param files name of the file : name of the blob for STAGE records,
+     *              null for UNSTAGE and every other kind */
+    private static void append(byte kind,
+                               List<Map.Entry<String, String>> files) {
+        ArrayList<byte[]> paths = new ArrayList<>(files.size());
+        int size = 0;
+        for (Map.Entry<String, String> f : files) {
+            byte[] path = f.getKey().getBytes(StandardCharsets.UTF_8);
+            paths.add(path);
+            size += 1 + 4 + path.length
+                    + (f.getValue() == null ? 0 : SHA_BYTES);
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (int i = 0; i < files.size(); i += 1) {
+            String blob = files.get(i).getValue();
+            out.put(kindOf(kind, blob)).putInt(paths.get(i).length)
+                    .put(paths.get(i));
+            if (blob != null) {
+                out.put(Utils.fromHex(blob));
+            }
+        }
+        try {
+            Files.write(journal().toPath(), out.array(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (journal().equals(_loaded)) {
+            for (Map.Entry<String, String> f : files) {
+                apply(kindOf(kind, f.getValue()), f.getKey(), f.getValue());
+            }
+        }
+    }
+
+    /** Returns the kind of the record of a file appended as KIND.
+     * @param kind kind the record is appended as
+     * @param blob name of the blob of the file, or null
+     * @return byte */
+    private static byte kindOf(byte kind, String blob) {
+        return kind == STAGE && blob == null ? UNSTAGE : kind;
+    }
+
+    /** Stages the file NAME with contents BLOB for addition, or, if it is
+     * staged for removal, only unstages the removal.
+     * This does not read the staging area.
+     * @param name name of the file
+     * @param blob name of the blob, or null if the file is the same as
+     *             in the current commit and is to be unstaged instead */
+    public static void stage(String name, String blob) {
+        append(STAGE, name, blob);
+    }
+
+    /** Stages every file of FILES as stage does, with a single write.
+     * @param files name of the file : name of the blob, or null */
+    public static void stageAll(List<Map.Entry<String, String>> files) {
+        if (!files.isEmpty()) {
+            append(STAGE, files);
+        }
+    }
+
+    /** Unstages the file NAME for addition and stages it for removal.
+     * @param name name of the file */
+    public static void stageRemoval(String name) {
+        append(REMOVE, name, null);
+    }
+
+    /** Unstages the file NAME for addition.
+     * @param name name of the file */
+    public static void unstageAddition(String name) {
+        append(UNADD, name, null);
+    }
+
+    /** Returns the files staged for addition.
+     * @return StagedObject, which is not to be modified */
+    public static StagedObject additions() {
+        load();
+        return _additions;
+    }
+
+    /** Returns the files staged for removal.
+     * @return StagedObject, which is not to be modified */
+    public static StagedObject removals() {
+        load();
+        return _removals;
+    }
+
+    /** Returns true if nothing is staged.
+     * @return boolean */
+    public static boolean isEmpty() {
+        load();
+        return _additions.getStagedItems().isEmpty()
+                && _removals.getStagedItems().isEmpty();
+    }
+
+    /** Unstages every file once TX is committed.
+     * @param tx the transaction of the command */
+    public static void clear(Transaction tx) {
+        tx.writeObject(Utils.join(folder(), "Add"), new StagedObject());
+        tx.writeObject(Utils.join(folder(), "Remove"), new StagedObject());
+        tx.delete(journal());
+        _loaded = null;
+    }
+
+    /** Writes the loaded staged files to the StagedObjects
+     * and deletes the journal, which is then folded into them,
+     * all in one Transaction. */
+    private static void write() {
+        try (Transaction tx = Transaction.begin()) {
+            tx.writeObject(Utils.join(folder(), "Add"), _additions);
+            tx.writeObject(Utils.join(folder(), "Remove"), _removals);
+            tx.delete(journal());
+            tx.commit();
+        }
+    }
+}
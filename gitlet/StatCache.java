@@ -0,0 +1,315 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** The index of the working directory: for every file hashed so far, its size,
+ * modification time and inode when it was hashed and the blob it hashed to.
+ * A file whose size, modification time and inode are unchanged is taken to
+ *  still hold that blob and is not read again. A file modified less than
+ *  RACY_MILLIS before it was recorded may have been changed again without its
+ *  modification time changing, so it is always hashed again.
+ * The index is kept in .gitlet/Index as a log of records
+ *  [path length : 4 bytes][UTF-8 path][size : 8 bytes][modified, in ns : 8 bytes]
+ *  [inode : 8 bytes][recorded, in ms : 8 bytes][blob : presence byte and 20 bytes]
+ *  where a later record replaces an earlier one for the same path and a record
+ *  without a blob removes the path. save appends the records made since the index
+ *  was loaded and rewrites the log once it holds twice as many records as paths.
+ *  A last record a save cut short leaves is dropped from the log when it is
+ *  loaded, the index being only a cache of what hashing the files would give.
+ *  @author Samarth Bhutani
+ */
+public class StatCache {
+
+    /** Time a file must have been left alone before its stat data is trusted. */
+    private static final long RACY_MILLIS = 2000;
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+
+    /** Stat data and blob of one file. */
+    private static class Entry {
+        /** Size of the file. */
+        private final long size;
+        /** Modification time of the file in nanoseconds. */
+        private final long modified;
+        /** Inode of the file, or 0 where there are none. */
+        private final long inode;
+        /** Time the entry was recorded in milliseconds. */
+        private final long recorded;
+        /** Name of the blob the file hashed to, or null for a removal. */
+        private final String blob;
+
+        /** Creates an entry.
+         * @param size1 size of the file
+         * @param modified1 modification time in nanoseconds
+         * @param inode1 inode of the file
+         * @param recorded1 time of the record in milliseconds
+         * @param blob1 name of the blob, or null */
+        Entry(long size1, long modified1, long inode1, long recorded1,
+              String blob1) {
+            this.size = size1;
+            this.modified = modified1;
+            this.inode = inode1;
+            this.recorded = recorded1;
+            this.blob = blob1;
+        }
+
+        /** Returns true if STAT describes the same file as this entry,
+         * and this entry was recorded long enough after the file was modified.
+         * @param stat current stat data of the file
+         * @return boolean */
+        boolean matches(Entry stat) {
+            return size == stat.size && modified == stat.modified
+                    && inode == stat.inode
+                    && TimeUnit.NANOSECONDS.toMillis(modified) + RACY_MILLIS
+                    <= recorded;
+        }
+    }
+
+    /** The entries of the current repository. */
+    private static HashMap<String, Entry> _entries;
+    /** Records made since the index was loaded, in order. */
+    private static ArrayList<Map.Entry<String, Entry>> _pending;
+    /** Number of records in the log file. */
+    private static int _records;
+    /** The file currently loaded. */
+    private static File _loaded;
+
+    /** Returns the file of the index.
+     * @return File */
+    private static File file() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet", "Index");
+    }
+
+    /** Loads the index if it is not loaded yet. */
+    private static synchronized void load() {
+        File f = file();
+        if (f.equals(_loaded)) {
+            return;
+        }
+        _loaded = f;
+        _entries = new HashMap<>();
+        _pending = new ArrayList<>();
+        _records = 0;
+        if (!f.isFile()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(f));
+        byte[] raw = new byte[SHA_BYTES];
+        while (complete(in)) {
+            byte[] path = new byte[in.getInt()];
+            in.get(path);
+            long size = in.getLong();
+            long modified = in.getLong();
+            long inode = in.getLong();
+            long recorded = in.getLong();
+            String blob = null;
+            if (in.get() != 0) {
+                in.get(raw);
+                blob = Utils.toHex(raw);
+            }
+            String name = new String(path, StandardCharsets.UTF_8);
+            if (blob == null) {
+                _entries.remove(name);
+            } else {
+                _entries.put(name, new Entry(size, modified, inode, recorded,
+                        blob));
+            }
+            _records += 1;
+        }
+        if (in.hasRemaining()) {
+            try (FileChannel ch = FileChannel.open(f.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ch.truncate(in.position());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns true if IN holds a whole record at its position.
+     * @param in the log
+     * @return boolean */
+    private static boolean complete(ByteBuffer in) {
+        int p = in.position();
+        if (in.remaining() < 4) {
+            return false;
+        }
+        int length = in.getInt(p);
+        if (length < 0 || in.remaining() - 4 - 32 - 1 < length) {
+            return false;
+        }
+        byte present = in.get(p + 4 + length + 32);
+        return present == 0 || present == 1
+                && in.remaining() - 4 - 32 - 1 - SHA_BYTES >= length;
+    }
+
+    /** Drops the entries held in memory, so they are read again from the log,
+     * which another process may have appended to. Records not saved are lost. */
+    static synchronized void unload() {
+        _loaded = null;
+    }
+
+    /** Returns the current stat data of F, with no blob.
+     * @param f a file
+     * @return Entry or null if F does not exist */
+    private static Entry stat(File f) {
+        try {
+            Map<String, Object> attrs;
+            try {
+                attrs = Files.readAttributes(f.toPath(),
+                        "unix:size,lastModifiedTime,ino");
+            } catch (UnsupportedOperationException excp) {
+                attrs = Files.readAttributes(f.toPath(),
+                        "size,lastModifiedTime");
+            }
+            Object ino = attrs.get("ino");
+            return new Entry((Long) attrs.get("size"),
+                    ((FileTime) attrs.get("lastModifiedTime"))
+                            .to(TimeUnit.NANOSECONDS),
+                    ino == null ? 0 : ((Number) ino).longValue(),
+                    0, null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the blob the file NAME of the working directory held when it was
+     * last recorded, if its stat data shows it has not changed since.
+     * @param name path of the file relative to the working directory
+     * @param f the file
+     * @return String name of the blob, or null if the file has to be hashed */
+    public static String lookup(String name, File f) {
+        Entry e = entry(name);
+        if (e == null) {
+            return null;
+        }
+        Entry now = stat(f);
+        return now != null && e.matches(now) ? e.blob : null;
+    }
+
+    /** Returns the entry of the file NAME.
+     * @param name path of the file relative to the working directory
+     * @return Entry or null */
+    private static synchronized Entry entry(String name) {
+        load();
+        return _entries.get(name);
+    }
+
+    /** Returns the name of the blob the file NAME of the working directory holds,
+     * hashing it only if its stat data changed since it was last recorded.
+     * The stat data recorded is the one taken before hashing, so a file
+     *  changed while it is hashed is hashed again next time.
+     * @param name path of the file relative to the working directory
+     * @param f the file
+     * @return String */
+    public static String hash(String name, File f) {
+        String blob = lookup(name, f);
+        if (blob == null) {
+            Entry before = stat(f);
+            blob = Blob.hashFile(f);
+            record(name, before, blob);
+        }
+        return blob;
+    }
+
+    /** Records that the file NAME of the working directory holds the blob BLOB.
+     * @param name path of the file relative to the working directory
+     * @param f the file
+     * @param blob name of the blob */
+    public static void record(String name, File f, String blob) {
+        record(name, stat(f), blob);
+    }
+
+    /** Records that the file NAME with stat data NOW holds the blob BLOB.
+     * @param name path of the file relative to the working directory
+     * @param now stat data of the file, or null if it does not exist
+     * @param blob name of the blob */
+    private static synchronized void record(String name, Entry now,
+                                            String blob) {
+        load();
+        if (now == null) {
+            forget(name);
+            return;
+        }
+        Entry e = new Entry(now.size, now.modified, now.inode,
+                System.currentTimeMillis(), blob);
+        _entries.put(name, e);
+        _pending.add(Map.entry(name, e));
+    }
+
+    /** Drops the file NAME from the index.
+     * @param name path of the file relative to the working directory */
+    public static synchronized void forget(String name) {
+        load();
+        if (_entries.remove(name) != null) {
+            _pending.add(Map.entry(name, new Entry(0, 0, 0, 0, null)));
+        }
+    }
+
+    /** Writes the records made since the index was loaded. */
+    public static synchronized void save() {
+        load();
+        if (_pending.isEmpty()) {
+            return;
+        }
+        try {
+            if (_records + _pending.size() > 2 * _entries.size() + 64) {
+                ArrayList<Map.Entry<String, Entry>> all = new ArrayList<>(
+                        _entries.entrySet());
+                File tmp = Utils.join(file().getParentFile(), "Index.tmp");
+                Utils.writeContents(tmp, encode(all));
+                Files.move(tmp.toPath(), file().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                _records = all.size();
+            } else {
+                Files.write(file().toPath(), encode(_pending),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                _records += _pending.size();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _pending.clear();
+    }
+
+    /** Encodes RECORDS in the format of the log.
+     * @param records path : entry
+     * @return byte[] */
+    private static byte[] encode(ArrayList<Map.Entry<String, Entry>> records) {
+        int size = 0;
+        ArrayList<byte[]> paths = new ArrayList<>(records.size());
+        for (Map.Entry<String, Entry> r : records) {
+            byte[] path = r.getKey().getBytes(StandardCharsets.UTF_8);
+            paths.add(path);
+            size += 4 + path.length + 32 + 1 + SHA_BYTES;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (int i = 0; i < records.size(); i += 1) {
+            Entry e = records.get(i).getValue();
+            out.putInt(paths.get(i).length).put(paths.get(i))
+                    .putLong(e.size).putLong(e.modified).putLong(e.inode)
+                    .putLong(e.recorded);
+            if (e.blob == null) {
+                out.put((byte) 0);
+            } else {
+                out.put((byte) 1).put(Utils.fromHex(e.blob));
+            }
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+}
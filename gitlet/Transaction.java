@@ -0,0 +1,381 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A group of updates to the branches, HEAD and the staging area which reach
+ * the disk together or not at all, so a crash in the middle of a commit, merge,
+ * reset or checkout never leaves a branch moved with the staging area not cleared.
+ * Files appended to in place, the pack, the commit graph and the message log,
+ *  are only synced with it: a crash may leave their last entry partly written,
+ *  which their readers skip, and the stat cache is not synced at all.
+ * Each file is written in full to a temporary file of .gitlet/Transaction
+ *  and only renamed over the file it replaces once the transaction commits,
+ *  so a reader sees either the old or the new contents.
+ * Committing a transaction of several files
+ *  1. syncs the temporary files together with the files written in place during
+ *     the transaction, such as the index of the Pack, see sync,
+ *  2. writes and syncs the journal, .gitlet/Transaction/journal, which lists the
+ *     renames and deletions; once it is on the disk the transaction is committed,
+ *  3. deletes files and renames the temporary files, then syncs their folders
+ *     and empties the journal. Files are deleted first so that a crash during
+ *     this step always leaves a temporary file behind, and recover repeats
+ *     the deletions as well.
+ * Each step syncs all of its files at once from several threads, so a commit
+ *  waits for three flushes of the disk rather than one per file.
+ *  A transaction of a single file needs no journal, its rename being atomic.
+ * If a crash stops step 3, recover, which runs before every command, finishes the
+ *  renames of a complete journal whose temporary files are still there.
+ *  Once they are all renamed the journal is done with, so the journal is emptied
+ *  without waiting for the disk.
+ * A journal is [count : 4 bytes] followed by count entries of
+ *  [temporary file length : 4 bytes][UTF-8 temporary file name, empty for deletions]
+ *  [path length : 4 bytes][UTF-8 path of the file relative to .gitlet]
+ *  and ends with the raw sha1 of everything before it.
+ *  @author Samarth Bhutani
+ */
+public class Transaction implements AutoCloseable {
+
+    /** Largest number of threads syncing files, twice the number of processors
+     * so that several syncs wait on the disk at once. */
+    private static final int THREADS =
+            2 * Runtime.getRuntime().availableProcessors();
+    /** Length of a raw sha1. */
+    private static final int SHA_BYTES = 20;
+
+    /** The transaction being built, or null. */
+    private static Transaction _open;
+    /** Number of temporary files made by this process. */
+    private static long _made;
+
+    /** The .gitlet folder. */
+    private final File repo;
+    /** The folder holding the journal and the temporary files. */
+    private final File dir;
+    /** File to be replaced : its temporary file, or null to delete it. */
+    private final LinkedHashMap<File, File> updates = new LinkedHashMap<>();
+    /** Files written in place during the transaction to be synced with it. */
+    private final LinkedHashSet<File> written = new LinkedHashSet<>();
+    /** Actions run once the transaction is committed. */
+    private final ArrayList<Runnable> after = new ArrayList<>();
+    /** True once the journal is written, after which the transaction
+     * is finished by recover if it stops. */
+    private boolean logged;
+    /** True once committed. */
+    private boolean committed;
+
+    /** Starts a transaction in the repository REPO1.
+     * @param repo1 the .gitlet folder */
+    private Transaction(File repo1) {
+        this.repo = repo1;
+        this.dir = Utils.join(repo1, "Transaction");
+    }
+
+    /** Returns the .gitlet folder of the current repository.
+     * @return File */
+    private static File repoDir() {
+        File cwd = new File(System.getProperty("user.dir"));
+        return Utils.join(cwd, ".gitlet");
+    }
+
+    /** Starts a transaction, finishing any a crash interrupted first.
+     * @return Transaction, to be committed, and closed in any case */
+    public static Transaction begin() {
+        recover();
+        Transaction tx = new Transaction(repoDir());
+        if (!tx.dir.isDirectory()) {
+            tx.dir.mkdir();
+            tx.written.add(tx.repo);
+        }
+        tx.written.add(tx.dir);
+        _open = tx;
+        return tx;
+    }
+
+    /** Returns the transaction being built, or null if there is none,
+     * so that files written in place can be synced with it, see sync.
+     * @return Transaction */
+    static Transaction open() {
+        return _open;
+    }
+
+    /** Writes CONTENTS as the new contents of F, given as in Utils.writeContents,
+     * once the transaction is committed.
+     * @param f the file
+     * @param contents byte arrays and Strings */
+    public void write(File f, Object... contents) {
+        File tmp = Utils.join(dir, Long.toHexString(System.nanoTime())
+                + "-" + _made);
+        _made += 1;
+        Utils.writeContents(tmp, contents);
+        File old = updates.put(f, tmp);
+        if (old != null) {
+            old.delete();
+        }
+    }
+
+    /** Writes OBJ serialized to F once the transaction is committed.
+     * @param f the file
+     * @param obj the object */
+    public void writeObject(File f, Serializable obj) {
+        write(f, Utils.serialize(obj));
+    }
+
+    /** Deletes F once the transaction is committed.
+     * @param f the file */
+    public void delete(File f) {
+        File old = updates.put(f, null);
+        if (old != null) {
+            old.delete();
+        }
+    }
+
+    /** Syncs F, a file or folder written in place during the transaction,
+     * before the transaction is committed, so the files it updates never
+     * refer to data still in memory.
+     * @param f the file or folder */
+    void sync(File f) {
+        written.add(f);
+    }
+
+    /** Runs ACTION once the transaction is committed, such as removing files
+     * which are only safe to remove once the data synced with it is on the disk.
+     * @param action the action */
+    void afterCommit(Runnable action) {
+        after.add(action);
+    }
+
+    /** Commits the transaction, see the class comment. */
+    public void commit() {
+        LinkedHashSet<File> first = new LinkedHashSet<>(written);
+        LinkedHashSet<File> folders = new LinkedHashSet<>();
+        for (Map.Entry<File, File> e : updates.entrySet()) {
+            if (e.getValue() != null) {
+                first.add(e.getValue());
+            }
+            folders.add(e.getKey().getParentFile());
+        }
+        flush(first);
+        if (updates.size() > 1) {
+            writeJournal();
+            logged = true;
+        }
+        apply(updates);
+        flush(folders);
+        if (updates.size() > 1) {
+            Utils.writeContents(journal(dir), new byte[0]);
+        }
+        committed = true;
+        _open = null;
+        for (Runnable action : after) {
+            action.run();
+        }
+    }
+
+    /** Drops the transaction unless it is committed or its journal is written,
+     * leaving every file it would have updated as it was. */
+    @Override
+    public void close() {
+        if (!committed && !logged) {
+            for (File tmp : updates.values()) {
+                if (tmp != null) {
+                    tmp.delete();
+                }
+            }
+        }
+        if (_open == this) {
+            _open = null;
+        }
+    }
+
+    /** Writes and syncs the journal of the updates. */
+    private void writeJournal() {
+        ArrayList<byte[]> names = new ArrayList<>();
+        int size = 4 + SHA_BYTES;
+        for (Map.Entry<File, File> e : updates.entrySet()) {
+            byte[] tmp = e.getValue() == null ? new byte[0]
+                    : e.getValue().getName().getBytes(StandardCharsets.UTF_8);
+            byte[] path = repo.toPath().relativize(e.getKey().toPath())
+                    .toString().getBytes(StandardCharsets.UTF_8);
+            names.add(tmp);
+            names.add(path);
+            size += 8 + tmp.length + path.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(updates.size());
+        for (byte[] name : names) {
+            out.putInt(name.length).put(name);
+        }
+        out.put(Utils.fromHex(Utils.sha1(Arrays.copyOf(out.array(),
+                out.position()))));
+        try (FileChannel ch = FileChannel.open(journal(dir).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.flip();
+            while (out.hasRemaining()) {
+                ch.write(out);
+            }
+            ch.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the journal in the folder DIR.
+     * @param dir folder of the transactions
+     * @return File */
+    private static File journal(File dir) {
+        return Utils.join(dir, "journal");
+    }
+
+    /** Deletes the files to be deleted of UPDATES, then renames the temporary
+     * files over the files they replace.
+     * @param updates file : its temporary file, or null to delete it */
+    private static void apply(Map<File, File> updates) {
+        for (Map.Entry<File, File> e : updates.entrySet()) {
+            if (e.getValue() == null) {
+                e.getKey().delete();
+            }
+        }
+        for (Map.Entry<File, File> e : updates.entrySet()) {
+            if (e.getValue() == null) {
+                continue;
+            }
+            try {
+                Files.move(e.getValue().toPath(), e.getKey().toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Finishes the transaction of the journal of the current repository
+     * if a crash stopped it after it was committed, and removes the temporary
+     * files of transactions which were never committed. */
+    public static void recover() {
+        File repo = repoDir();
+        File dir = Utils.join(repo, "Transaction");
+        File journal = journal(dir);
+        if (_open != null || !dir.isDirectory()) {
+            return;
+        }
+        if (journal.length() > 0) {
+            LinkedHashMap<File, File> updates = readJournal(repo, dir);
+            boolean pending = false;
+            for (File tmp : updates.values()) {
+                pending |= tmp != null && tmp.isFile();
+            }
+            if (pending) {
+                updates.values().removeIf(tmp -> tmp != null
+                        && !tmp.isFile());
+                apply(updates);
+                LinkedHashSet<File> folders = new LinkedHashSet<>();
+                for (File f : updates.keySet()) {
+                    folders.add(f.getParentFile());
+                }
+                flush(folders);
+            }
+            Utils.writeContents(journal, new byte[0]);
+        }
+        for (File f : dir.listFiles()) {
+            if (!f.equals(journal)) {
+                f.delete();
+            }
+        }
+    }
+
+    /** Reads the journal, returning no update if it is not complete,
+     * as when a crash stopped it being written.
+     * @param repo the .gitlet folder
+     * @param dir the folder of the journal
+     * @return LinkedHashMap of file : its temporary file, or null to delete it */
+    private static LinkedHashMap<File, File> readJournal(File repo, File dir) {
+        LinkedHashMap<File, File> result = new LinkedHashMap<>();
+        byte[] raw = Utils.readContents(journal(dir));
+        if (raw.length < 4 + SHA_BYTES || !Utils.sha1(Arrays.copyOf(raw,
+                raw.length - SHA_BYTES)).equals(Utils.toHex(Arrays
+                .copyOfRange(raw, raw.length - SHA_BYTES, raw.length)))) {
+            return result;
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        for (int n = in.getInt(); n > 0; n -= 1) {
+            String tmp = string(in);
+            String path = string(in);
+            result.put(Utils.join(repo, path),
+                    tmp.isEmpty() ? null : Utils.join(dir, tmp));
+        }
+        return result;
+    }
+
+    /** Reads a length and as many bytes of UTF-8 from IN.
+     * @param in the journal
+     * @return String */
+    private static String string(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Syncs the files and folders of FILES all at once, each from its own
+     * thread, so the file system can write them in a single flush.
+     * @param files files and folders */
+    private static void flush(LinkedHashSet<File> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(THREADS, files.size()));
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (File f : files) {
+                done.add(pool.submit(() -> force(f)));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Syncs the file or folder F to the disk. Folders are synced so that
+     * the files renamed into them are, where the system allows it.
+     * @param f file or folder */
+    static void force(File f) {
+        boolean folder = f.isDirectory();
+        try (FileChannel ch = FileChannel.open(f.toPath(), folder
+                ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            if (!folder) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A directory of a commit: the blobs of the files directly inside it and the
+ * trees of its sub-folders, by name. Trees are named by the sha1 of their
+ *  encoding, see Codec, so two commits holding the same folder share its tree,
+ *  and a commit only writes the trees along the paths it changes.
+ * Trees are written into the pack together with their commit and never loose.
+ *  @author Samarth Bhutani
+ */
+public class Tree implements Serializable {
+
+    /** Fixed so that the class can change without breaking stored objects. */
+    private static final long serialVersionUID = 3904785118806613551L;
+    /** Largest number of trees kept in the cache. */
+    private static final int CACHE_SIZE = 1 << 14;
+    /** Recently read or written trees, least recently used first. */
+    private static final LinkedHashMap<String, Tree> CACHE =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Tree> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    /** Name of a file : blob name. */
+    private final TreeMap<String, String> blobs;
+    /** Name of a sub-folder : tree name. */
+    private final TreeMap<String, String> trees;
+
+    /** Creates a tree.
+     * @param blobs1 name of a file : blob name
+     * @param trees1 name of a sub-folder : tree name */
+    Tree(TreeMap<String, String> blobs1, TreeMap<String, String> trees1) {
+        this.blobs = blobs1;
+        this.trees = trees1;
+    }
+
+    /** Returns the files directly inside this folder.
+     * @return TreeMap name : blob name */
+    TreeMap<String, String> getBlobs() {
+        return blobs;
+    }
+
+    /** Returns the sub-folders of this folder.
+     * @return TreeMap name : tree name */
+    TreeMap<String, String> getTrees() {
+        return trees;
+    }
+
+    /** Returns a tree from the cache or the object store.
+     * @param id sha1 name of the tree, or null for an empty tree
+     * @return Tree */
+    static Tree read(String id) {
+        if (id == null) {
+            return new Tree(new TreeMap<>(), new TreeMap<>());
+        }
+        synchronized (CACHE) {
+            Tree t = CACHE.get(id);
+            if (t != null) {
+                return t;
+            }
+        }
+        Tree t = ObjectStore.readObject(ObjectStore.TREES, id, Tree.class);
+        synchronized (CACHE) {
+            CACHE.put(id, t);
+        }
+        return t;
+    }
+
+    /** Returns the root tree of ROOT with CHANGES applied, adding every tree
+     * it did not share with ROOT to OUT.
+     * @param root sha1 name of the root tree, or null for an empty one
+     * @param changes path : blob name, or null for a removal
+     * @param out records of the new trees
+     * @return String sha1 name of the new root tree */
+    static String update(String root, SortedMap<String, String> changes,
+                         List<Pack.Record> out) {
+        String id = updateFolder(root, changes, out);
+        if (id == null) {
+            id = write(new Tree(new TreeMap<>(), new TreeMap<>()), out);
+        }
+        return id;
+    }
+
+    /** Applies CHANGES, with paths relative to the folder, to the tree ID.
+     * @param id sha1 name of the tree, or null
+     * @param changes path : blob name, or null for a removal
+     * @param out records of the new trees
+     * @return String sha1 name of the new tree, or null if it is empty */
+    private static String updateFolder(String id,
+                                       SortedMap<String, String> changes,
+                                       List<Pack.Record> out) {
+        Tree old = read(id);
+        TreeMap<String, String> blobs = new TreeMap<>(old.blobs);
+        TreeMap<String, String> trees = new TreeMap<>(old.trees);
+        HashMap<String, TreeMap<String, String>> folders = new HashMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (e.getValue() == null) {
+                    blobs.remove(path);
+                } else {
+                    blobs.put(path, e.getValue());
+                }
+            } else {
+                folders.computeIfAbsent(path.substring(0, slash),
+                        k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> f
+                : folders.entrySet()) {
+            String child = updateFolder(trees.get(f.getKey()), f.getValue(),
+                    out);
+            if (child == null) {
+                trees.remove(f.getKey());
+            } else {
+                trees.put(f.getKey(), child);
+            }
+        }
+        if (blobs.isEmpty() && trees.isEmpty()) {
+            return null;
+        }
+        if (blobs.equals(old.blobs) && trees.equals(old.trees)) {
+            return id;
+        }
+        return write(new Tree(blobs, trees), out);
+    }
+
+    /** Names a new tree, caches it and adds it to OUT.
+     * @param t the tree
+     * @param out records of the new trees
+     * @return String sha1 name of the tree */
+    private static String write(Tree t, List<Pack.Record> out) {
+        byte[] data = Utils.serialize(t);
+        String id = Utils.sha1(data);
+        synchronized (CACHE) {
+            CACHE.put(id, t);
+        }
+        out.add(new Pack.Record(id, Pack.TREE, data));
+        return id;
+    }
+
+    /** Adds every file below the tree ID to OUT.
+     * @param id sha1 name of the tree
+     * @param prefix path of the folder of the tree, empty or ending in /
+     * @param out path : blob name */
+    static void flatten(String id, String prefix, Map<String, String> out) {
+        Tree t = read(id);
+        for (Map.Entry<String, String> e : t.blobs.entrySet()) {
+            out.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : t.trees.entrySet()) {
+            flatten(e.getValue(), prefix + e.getKey() + "/", out);
+        }
+    }
+
+    /** Adds the names of the tree ID, of the trees below it and of their blobs to OUT.
+     * @param id sha1 name of the tree
+     * @param out names of objects */
+    static void objects(String id, Collection<String> out) {
+        Tree t = read(id);
+        out.add(id);
+        out.addAll(t.blobs.values());
+        for (String sub : t.trees.values()) {
+            objects(sub, out);
+        }
+    }
+
+    /** Returns the blob of the file PATH below the tree ROOT.
+     * Reads one tree per folder of the path.
+     * @param root sha1 name of the root tree
+     * @param path path of the file
+     * @return String blob name, or null if there is no such file */
+    static String lookup(String root, String path) {
+        String id = root;
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0;
+             slash = path.indexOf('/', start)) {
+            id = read(id).trees.get(path.substring(start, slash));
+            if (id == null) {
+                return null;
+            }
+            start = slash + 1;
+        }
+        return read(id).blobs.get(path.substring(start));
+    }
+
+    /** Adds the files whose blob differs between the trees A and B to OUT.
+     * Sub-folders with the same tree on both sides are skipped without being read.
+     * @param a sha1 name of the first tree, or null
+     * @param b sha1 name of the second tree, or null
+     * @param prefix path of the folder of the trees, empty or ending in /
+     * @param out path : {blob in A or null, blob in B or null} */
+    static void diff(String a, String b, String prefix,
+                     Map<String, String[]> out) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        Tree ta = read(a);
+        Tree tb = read(b);
+        TreeSet<String> names = new TreeSet<>(ta.blobs.keySet());
+        names.addAll(tb.blobs.keySet());
+        for (String name : names) {
+            String x = ta.blobs.get(name);
+            String y = tb.blobs.get(name);
+            if (!Objects.equals(x, y)) {
+                out.put(prefix + name, new String[] {x, y});
+            }
+        }
+        names = new TreeSet<>(ta.trees.keySet());
+        names.addAll(tb.trees.keySet());
+        for (String name : names) {
+            diff(ta.trees.get(name), tb.trees.get(name),
+                    prefix + name + "/", out);
+        }
+    }
+}
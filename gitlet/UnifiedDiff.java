@@ -0,0 +1,185 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Writes the differences between two versions of files in the unified format
+ * of diff -u, with CONTEXT lines of context around each change.
+ * Renamed files are written once under both names, as git does.
+ * Lines are matched by Diff.match and written as the bytes they are stored as,
+ *  so files are never decoded. Files which are binary, see Diff.isBinary, are only
+ *  reported as differing.
+ *  @author Samarth Bhutani
+ */
+public class UnifiedDiff {
+
+    /** Number of unchanged lines written before and after each change. */
+    private static final int CONTEXT = 3;
+    /** Written after a last line without a newline. */
+    private static final byte[] NO_NEWLINE =
+            "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The destination. */
+    private final OutputStream out;
+
+    /** Creates a writer.
+     * @param out1 the destination, which should be buffered */
+    public UnifiedDiff(OutputStream out1) {
+        this.out = out1;
+    }
+
+    /** Writes the differences of the file PATH between A and B, or nothing
+     * if they are the same.
+     * @param path path of the file
+     * @param a contents before, or null if the file did not exist
+     * @param b contents after, or null if the file does not exist
+     * @throws IOException if writing fails */
+    public void file(String path, byte[] a, byte[] b) throws IOException {
+        if (a == null && b == null || a != null && b != null
+                && Arrays.equals(a, b)) {
+            return;
+        }
+        file(path, path, a, b);
+    }
+
+    /** Writes the differences of the file FROM renamed to TO between A and B.
+     * @param from path of the file before
+     * @param to path of the file after
+     * @param a contents before, or null if the file did not exist
+     * @param b contents after, or null if the file does not exist
+     * @throws IOException if writing fails */
+    public void file(String from, String to, byte[] a, byte[] b)
+            throws IOException {
+        write("diff --git a/" + from + " b/" + to + "\n");
+        if (a == null) {
+            write("new file\n");
+        } else if (b == null) {
+            write("deleted file\n");
+        }
+        if (!from.equals(to)) {
+            write("rename from " + from + "\nrename to " + to + "\n");
+            if (Arrays.equals(a, b)) {
+                return;
+            }
+        }
+        byte[] before = a == null ? new byte[0] : a;
+        byte[] after = b == null ? new byte[0] : b;
+        if (Diff.isBinary(before) || Diff.isBinary(after)) {
+            write("Binary files " + (a == null ? "/dev/null" : "a/" + from)
+                    + " and " + (b == null ? "/dev/null" : "b/" + to)
+                    + " differ\n");
+            return;
+        }
+        write("--- " + (a == null ? "/dev/null" : "a/" + from) + "\n");
+        write("+++ " + (b == null ? "/dev/null" : "b/" + to) + "\n");
+        byte[][] texts = {before, after};
+        int[][] starts = {Diff.lineStarts(before), Diff.lineStarts(after)};
+        int[][] lines = Diff.number(texts, starts);
+        ArrayList<int[]> changes = changes(Diff.match(lines[0], lines[1]),
+                lines[1].length);
+        int first = 0;
+        while (first < changes.size()) {
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1)[0] - changes.get(last)[1]
+                    <= 2 * CONTEXT) {
+                last += 1;
+            }
+            hunk(texts, starts, changes.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    /** Returns the changes between two files as {a0, a1, b0, b1}, lines A0 to
+     * A1 of the first being replaced by lines B0 to B1 of the second.
+     * @param match line of the second file matched with each of the first
+     * @param m number of lines of the second file
+     * @return ArrayList of changes in order */
+    private static ArrayList<int[]> changes(int[] match, int m) {
+        ArrayList<int[]> result = new ArrayList<>();
+        int n = match.length;
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && match[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int a0 = i;
+            int b0 = j;
+            while (i < n && match[i] < 0) {
+                i += 1;
+            }
+            j = i < n ? match[i] : m;
+            result.add(new int[] {a0, i, b0, j});
+        }
+        return result;
+    }
+
+    /** Writes one hunk holding CHANGES and the lines of context around them.
+     * @param texts contents of the two files
+     * @param starts line offsets of the two files
+     * @param changes changes close enough to share a hunk
+     * @throws IOException if writing fails */
+    private void hunk(byte[][] texts, int[][] starts, List<int[]> changes)
+            throws IOException {
+        int n = starts[0].length - 1;
+        int[] first = changes.get(0);
+        int[] last = changes.get(changes.size() - 1);
+        int a0 = Math.max(0, first[0] - CONTEXT);
+        int a1 = Math.min(n, last[1] + CONTEXT);
+        int b0 = first[2] - (first[0] - a0);
+        int b1 = last[3] + (a1 - last[1]);
+        write("@@ -" + range(a0, a1 - a0) + " +" + range(b0, b1 - b0)
+                + " @@\n");
+        int i = a0;
+        for (int[] c : changes) {
+            lines(texts[0], starts[0], i, c[0], ' ');
+            lines(texts[0], starts[0], c[0], c[1], '-');
+            lines(texts[1], starts[1], c[2], c[3], '+');
+            i = c[1];
+        }
+        lines(texts[0], starts[0], i, a1, ' ');
+    }
+
+    /** Returns a range of lines as written in a hunk header.
+     * @param start first line, from 0
+     * @param length number of lines
+     * @return String */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /** Writes lines FROM to TO of TEXT, each after PREFIX.
+     * @param text contents of a file
+     * @param starts line offsets of the file
+     * @param from first line
+     * @param to line after the last
+     * @param prefix written before each line
+     * @throws IOException if writing fails */
+    private void lines(byte[] text, int[] starts, int from, int to,
+                       char prefix) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            out.write(text, starts[i], starts[i + 1] - starts[i]);
+            if (text[starts[i + 1] - 1] != '\n') {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    /** Writes S in UTF-8.
+     * @param s the text
+     * @throws IOException if writing fails */
+    private void write(String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
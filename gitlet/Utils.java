@@ -1,9 +1,9 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -59,6 +59,55 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Lower-case hexadecimal digits. */
+    private static final byte[] HEX_DIGITS =
+        "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /** Returns the hexadecimal numeral of the bytes in RAW. */
+    static String toHex(byte[] raw) {
+        byte[] result = new byte[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(raw[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[raw[i] & 0xf];
+        }
+        return new String(result, StandardCharsets.US_ASCII);
+    }
+
+    /** Value of each ASCII hexadecimal digit, -1 for other characters. */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 16; i += 1) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        fromHex(hex, result, 0);
+        return result;
+    }
+
+    /** Stores the bytes denoted by the hexadecimal numeral HEX into DEST
+     *  starting at OFFSET. */
+    static void fromHex(String hex, byte[] dest, int offset) {
+        int n = hex.length() / 2;
+        for (int i = 0; i < n; i += 1) {
+            char hi = hex.charAt(2 * i);
+            char lo = hex.charAt(2 * i + 1);
+            int v = hi < 128 && lo < 128
+                ? (HEX_VALUES[hi] << 4) | HEX_VALUES[lo] : -1;
+            if (v < 0) {
+                throw new IllegalArgumentException("not a hexadecimal id");
+            }
+            dest[offset + i] = (byte) v;
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -136,9 +185,22 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        return deserialize(readContents(file), expectedClass);
+    }
+
+    /** Return an object of type T read from the serialized bytes DATA,
+     *  casting it to EXPECTEDCLASS.  DATA is either in the binary encoding
+     *  of Codec or, for objects written by earlier versions, in Java
+     *  serialization format.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] data,
+                                                  Class<T> expectedClass) {
         try {
+            if (Codec.isEncoded(data)) {
+                return expectedClass.cast(Codec.decode(data));
+            }
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(new ByteArrayInputStream(data));
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -203,8 +265,13 @@ class Utils {
 
     /* SERIALIZATION UTILITIES */
 
-    /** Returns a byte array containing the serialized contents of OBJ. */
+    /** Returns a byte array containing the serialized contents of OBJ.
+     *  Commits, blobs and staged objects use the binary encoding of Codec,
+     *  anything else Java serialization. */
     static byte[] serialize(Serializable obj) {
+        if (Codec.supports(obj)) {
+            return Codec.encode(obj);
+        }
         try {
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
@@ -232,6 +299,15 @@ class Utils {
         System.out.printf(msg, args);
         System.out.println();
     }
+
+    /** Returns true if metrics are to be reported on standard error, that is
+     *  if the property gitlet.metrics is set to anything but false, or else
+     *  the environment variable GITLET_METRICS is set. */
+    static boolean metrics() {
+        String metrics = System.getProperty("gitlet.metrics",
+                System.getenv("GITLET_METRICS"));
+        return metrics != null && !metrics.equals("false");
+    }
 }
 
 